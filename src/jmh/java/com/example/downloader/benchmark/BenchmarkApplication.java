@@ -0,0 +1,82 @@
+package com.example.downloader.benchmark;
+
+import com.example.downloader.DownloaderApplication;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 基准测试用的应用上下文
+ * <p>
+ * 在临时目录中启动完整的 Spring 上下文 (不启动 Web 服务器)，数据库、进度日志与正式运行相同，
+ * 测到的是真实的 JPA/SQLite 路径。启动时不恢复任务，日志只输出警告。
+ * </p>
+ */
+public final class BenchmarkApplication implements AutoCloseable {
+    private final File dir;
+    private final ConfigurableApplicationContext context;
+
+    private BenchmarkApplication(File dir, ConfigurableApplicationContext context) {
+        this.dir = dir;
+        this.context = context;
+    }
+
+    /**
+     * @param properties 额外的配置项，如 "downloader.journal.enabled=false"
+     */
+    public static BenchmarkApplication start(String... properties) throws IOException {
+        File dir = Files.createTempDirectory("downloader-bench").toFile();
+        List<String> props = new ArrayList<>(Arrays.asList(
+                "spring.datasource.url=jdbc:sqlite:" + new File(dir, "bench.db").getAbsolutePath()
+                        + "?journal_mode=WAL&busy_timeout=10000&transaction_mode=IMMEDIATE",
+                "downloader.journal.dir=" + new File(dir, "journal").getAbsolutePath(),
+                "downloader.scheduler.recover-on-startup=false",
+                "logging.level.root=WARN",
+                "logging.level.com.example.downloader=WARN",
+                "spring.main.banner-mode=off"));
+        props.addAll(Arrays.asList(properties));
+        // 以命令行参数传入，优先级高于 application.yml
+        String[] args = new String[props.size()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = "--" + props.get(i);
+        }
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(DownloaderApplication.class)
+                .web(WebApplicationType.NONE)
+                .run(args);
+        return new BenchmarkApplication(dir, context);
+    }
+
+    public <T> T getBean(Class<T> type) {
+        return context.getBean(type);
+    }
+
+    /**
+     * 临时目录，可用作下载保存目录
+     */
+    public File getDir() {
+        return dir;
+    }
+
+    @Override
+    public void close() {
+        context.close();
+        delete(dir);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
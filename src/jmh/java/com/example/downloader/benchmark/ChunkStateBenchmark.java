@@ -0,0 +1,99 @@
+package com.example.downloader.benchmark;
+
+import com.example.downloader.config.DownloaderProperties;
+import com.example.downloader.core.ChunkManager;
+import com.example.downloader.core.HttpClientFactory;
+import com.example.downloader.entity.DownloadRecord;
+import com.example.downloader.model.ChunkInfo;
+import com.example.downloader.repo.BlockHashRepository;
+import com.example.downloader.repo.ChunkRepository;
+import com.example.downloader.repo.DownloadRepository;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分片状态持久化
+ * <p>
+ * ChunkManager.saveChunks (只写入有变化的分片) 与 restoreChunks (启动或恢复任务时加载) 在不同分片数下的耗时，
+ * 使用真实的 SQLite 数据库。saveAll 为每个分片都有进度变化 (最坏情况)，saveFew 为 1% 的分片有变化
+ * (大部分分片已完成或暂停时的常见情况)。
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChunkStateBenchmark {
+
+    @Param({ "8", "100", "1000", "10000" })
+    public int chunkCount;
+
+    private BenchmarkApplication app;
+    private DownloadRecord record;
+    private ChunkManager manager;
+    private List<ChunkInfo> chunks;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        // 只测分片表，进度日志和块哈希单独关闭
+        app = BenchmarkApplication.start("downloader.journal.enabled=false", "downloader.checksum.enabled=false");
+        record = new DownloadRecord();
+        record.setId(UUID.randomUUID().toString());
+        record.setUrl("http://localhost/bench.bin");
+        record.setSavePath(app.getDir().getAbsolutePath());
+        record.setFileName("bench.bin");
+        record.setCreatedTime(new Date());
+        record.setStatus("PAUSED");
+        record.setTotalSize(chunkCount * 4L * 1024 * 1024);
+        app.getBean(DownloadRepository.class).save(record);
+
+        manager = newManager();
+        manager.splitChunks(chunkCount);
+        manager.saveChunks();
+        chunks = new ArrayList<>(manager.getChunkMap().values());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        app.close();
+    }
+
+    private ChunkManager newManager() {
+        DownloaderProperties properties = app.getBean(DownloaderProperties.class);
+        return new ChunkManager(record, app.getBean(ChunkRepository.class), app.getBean(BlockHashRepository.class),
+                app.getBean(HttpClientFactory.class), properties.getJournal(), properties.getChecksum());
+    }
+
+    @Benchmark
+    public void saveAll() {
+        for (ChunkInfo c : chunks) {
+            c.getCurrent().incrementAndGet();
+        }
+        manager.saveChunks();
+    }
+
+    @Benchmark
+    public void saveFew() {
+        int changed = Math.max(1, chunkCount / 100);
+        for (int i = 0; i < changed; i++) {
+            chunks.get(cursor++ % chunks.size()).getCurrent().incrementAndGet();
+        }
+        manager.saveChunks();
+    }
+
+    @Benchmark
+    public int restore() {
+        ChunkManager restored = newManager();
+        restored.restoreChunks();
+        return restored.getChunkMap().size();
+    }
+}
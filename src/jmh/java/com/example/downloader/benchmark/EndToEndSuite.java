@@ -0,0 +1,268 @@
+package com.example.downloader.benchmark;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.serializer.SerializerFeature;
+import com.example.downloader.core.DownloadEngine;
+import com.example.downloader.core.DownloadTaskContext;
+import com.example.downloader.entity.DownloadRecord;
+import com.example.downloader.model.DownloadStatus;
+import com.example.downloader.repo.DownloadRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * 端到端下载基准
+ * <p>
+ * 每个场景启动一个 {@link LoopbackOrigin}，用完整的 {@link DownloadTaskContext} (探测、分片、重分配、重试、校验)
+ * 下载若干次，统计吞吐 (MB/s)、完成时间分位数 (尾部延迟) 和分片重试次数，并校验下载内容。
+ * 不经过网络，结果可重复，用于比较分片、重分配和重试策略的改动。
+ * </p>
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec@e2e
+ * 系统属性: e2e.runs 每个场景的次数 (默认 5)，e2e.scenarios 场景名正则，e2e.engines 引擎列表 (默认 BLOCKING)，
+ *          e2e.result 结果文件 (默认 target/e2e-result.json)，e2e.properties 逗号分隔的额外配置
+ *          (如 downloader.io.pipeline=false，用于对比)
+ * </pre>
+ */
+public class EndToEndSuite {
+    private static final long MB = 1024 * 1024;
+    private static final long RUN_TIMEOUT_SECONDS = 120;
+
+    private final BenchmarkApplication app;
+    private final int runs;
+
+    EndToEndSuite(BenchmarkApplication app, int runs) {
+        this.app = app;
+        this.runs = runs;
+    }
+
+    /**
+     * 场景：源站行为 + 任务连接数
+     */
+    static class Scenario {
+        final String name;
+        final int threads; // 0 为自适应
+        final LoopbackOrigin.Options origin = new LoopbackOrigin.Options();
+
+        Scenario(String name, int threads, Consumer<LoopbackOrigin.Options> config) {
+            this.name = name;
+            this.threads = threads;
+            config.accept(origin);
+        }
+    }
+
+    static List<Scenario> scenarios() {
+        List<Scenario> list = new ArrayList<>();
+        list.add(new Scenario("ranged", 8, o -> o.setSize(64 * MB)));
+        list.add(new Scenario("throttled", 8, o -> o.setBytesPerSecond(2 * MB)));
+        list.add(new Scenario("throttled-auto", 0, o -> o.setBytesPerSecond(2 * MB)));
+        // 每 3 个响应停顿 3 秒：测重分配能否绕开停顿的连接
+        list.add(new Scenario("stalls", 8, o -> {
+            o.setBytesPerSecond(4 * MB);
+            o.setStallEvery(3);
+        }));
+        // 每 4 个响应被重置：测重试
+        list.add(new Scenario("resets", 8, o -> {
+            o.setBytesPerSecond(4 * MB);
+            o.setResetEvery(4);
+        }));
+        // 同时最多 4 个传输，超出返回 429
+        list.add(new Scenario("429", 8, o -> {
+            o.setBytesPerSecond(2 * MB);
+            o.setMaxTransfers(4);
+        }));
+        list.add(new Scenario("429-auto", 0, o -> {
+            o.setBytesPerSecond(2 * MB);
+            o.setMaxTransfers(4);
+        }));
+        // 禁用 HEAD 且经过两次重定向：测探测降级
+        list.add(new Scenario("no-head-redirect", 8, o -> {
+            o.setHead(false);
+            o.setRedirects(2);
+        }));
+        // 没有 Content-Length：只能单连接流式下载
+        list.add(new Scenario("no-length", 8, o -> {
+            o.setContentLength(false);
+            o.setSize(16 * MB);
+        }));
+        return list;
+    }
+
+    /**
+     * 一次下载
+     */
+    public static class Run {
+        public String status;
+        public long millis;
+        public double mbPerSecond;
+        public long retries;
+        public boolean verified;
+    }
+
+    Map<String, Object> runScenario(Scenario scenario, String engine) throws Exception {
+        List<Run> results = new ArrayList<>();
+        Map<String, Object> originStats;
+        try (LoopbackOrigin origin = LoopbackOrigin.start(scenario.origin)) {
+            for (int i = 0; i < runs; i++) {
+                results.add(download(origin, scenario, engine, i));
+            }
+            originStats = origin.getStats().snapshot();
+        }
+
+        List<Long> times = new ArrayList<>();
+        List<Double> speeds = new ArrayList<>();
+        long retries = 0;
+        int failures = 0;
+        for (Run r : results) {
+            retries += r.retries;
+            if ("FINISHED".equals(r.status) && r.verified) {
+                times.add(r.millis);
+                speeds.add(r.mbPerSecond);
+            } else {
+                failures++;
+            }
+        }
+        Collections.sort(times);
+        Collections.sort(speeds);
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("scenario", scenario.name);
+        summary.put("engine", engine);
+        summary.put("threads", scenario.threads == 0 ? "auto" : scenario.threads);
+        summary.put("sizeBytes", scenario.origin.getSize());
+        summary.put("runs", runs);
+        summary.put("failures", failures);
+        summary.put("mbPerSecondMedian", speeds.isEmpty() ? 0 : round(percentile(speeds, 50)));
+        summary.put("mbPerSecondMin", speeds.isEmpty() ? 0 : round(speeds.get(0)));
+        summary.put("completionMillisP50", times.isEmpty() ? null : percentile(times, 50));
+        summary.put("completionMillisP95", times.isEmpty() ? null : percentile(times, 95));
+        summary.put("completionMillisMax", times.isEmpty() ? null : times.get(times.size() - 1));
+        summary.put("retriesTotal", retries);
+        summary.put("retriesPerRun", round((double) retries / runs));
+        summary.put("origin", originStats);
+        summary.put("rawRuns", results);
+        return summary;
+    }
+
+    private Run download(LoopbackOrigin origin, Scenario scenario, String engine, int index) throws Exception {
+        File dir = new File(app.getDir(), scenario.name + "-" + engine.toLowerCase() + "-" + index);
+        DownloadRecord record = new DownloadRecord();
+        record.setId(UUID.randomUUID().toString());
+        record.setUrl(origin.url("file.bin"));
+        record.setSavePath(dir.getAbsolutePath());
+        record.setCreatedTime(new Date());
+        record.setStatus("IDLE");
+        record.setPriority(0);
+        record.setThreads(scenario.threads);
+        record.setEngine(engine);
+        app.getBean(DownloadRepository.class).save(record);
+
+        CompletableFuture<DownloadStatus> stopped = new CompletableFuture<>();
+        DownloadTaskContext context = new DownloadTaskContext(record, app.getBean(DownloadEngine.class),
+                scenario.threads, c -> stopped.complete(c.getStatus()));
+        double retriesBefore = retries();
+        long start = System.nanoTime();
+        context.markQueued();
+        context.start();
+
+        Run run = new Run();
+        try {
+            run.status = stopped.get(RUN_TIMEOUT_SECONDS, TimeUnit.SECONDS).name();
+        } catch (TimeoutException e) {
+            // 源站持续停顿等情况下任务不再前进，按超时记为失败
+            run.status = "TIMEOUT";
+            context.cancel();
+        }
+        run.millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        run.retries = Math.round(retries() - retriesBefore);
+        long size = scenario.origin.getSize();
+        run.mbPerSecond = round(size / (double) MB / Math.max(run.millis, 1) * 1000);
+        if ("FINISHED".equals(run.status)) {
+            run.verified = LoopbackOrigin.verify(new File(dir, record.getFileName()), size) < 0;
+        }
+        System.out.printf("  %-18s %-8s #%d %-8s %7d ms %8.1f MB/s retries=%d verified=%s%n", scenario.name, engine,
+                index, run.status, run.millis, run.mbPerSecond, run.retries, run.verified);
+        delete(dir);
+        return run;
+    }
+
+    private double retries() {
+        double sum = 0;
+        for (Counter c : app.getBean(MeterRegistry.class).find("downloader.chunk.retries").counters()) {
+            sum += c.count();
+        }
+        return sum;
+    }
+
+    private static <T extends Comparable<T>> T percentile(List<T> sorted, int p) {
+        int index = (int) Math.ceil(p / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+    }
+
+    private static double round(double v) {
+        return Math.round(v * 10) / 10.0;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int runs = Integer.getInteger("e2e.runs", 5);
+        Pattern filter = Pattern.compile(System.getProperty("e2e.scenarios", ".*"));
+        List<String> engines = Arrays.asList(System.getProperty("e2e.engines", "BLOCKING").toUpperCase().split(","));
+        File result = new File(System.getProperty("e2e.result", "target/e2e-result.json"));
+        List<String> properties = new ArrayList<>();
+        properties.add("downloader.scheduler.max-active-tasks=1");
+        properties.add("downloader.cache.enabled=false"); // 同一地址重复下载，不能命中缓存
+        for (String p : System.getProperty("e2e.properties", "").split(",")) {
+            if (!p.trim().isEmpty())
+                properties.add(p.trim());
+        }
+
+        List<Map<String, Object>> summaries = new ArrayList<>();
+        // 场景之间互不干扰：同一时间只下载一个任务，其余配置与正式运行相同
+        try (BenchmarkApplication app = BenchmarkApplication.start(properties.toArray(new String[0]))) {
+            EndToEndSuite suite = new EndToEndSuite(app, runs);
+            for (Scenario scenario : scenarios()) {
+                if (!filter.matcher(scenario.name).matches())
+                    continue;
+                for (String engine : engines) {
+                    System.out.println("场景 " + scenario.name + " / " + engine);
+                    summaries.add(suite.runScenario(scenario, engine.trim()));
+                }
+            }
+        }
+
+        System.out.println();
+        System.out.printf("%-18s %-8s %7s %9s %9s %9s %9s %8s%n", "scenario", "engine", "failed", "MB/s p50",
+                "p50 ms", "p95 ms", "max ms", "retries");
+        for (Map<String, Object> s : summaries) {
+            System.out.printf("%-18s %-8s %7s %9s %9s %9s %9s %8s%n", s.get("scenario"), s.get("engine"),
+                    s.get("failures"), s.get("mbPerSecondMedian"), s.get("completionMillisP50"),
+                    s.get("completionMillisP95"), s.get("completionMillisMax"), s.get("retriesTotal"));
+        }
+        File parent = result.getAbsoluteFile().getParentFile();
+        if (!parent.exists())
+            parent.mkdirs();
+        Files.write(result.toPath(), JSON.toJSONString(summaries, SerializerFeature.PrettyFormat)
+                .getBytes(StandardCharsets.UTF_8));
+        System.out.println("结果已保存到 " + result.getAbsolutePath());
+    }
+}
@@ -0,0 +1,364 @@
+package com.example.downloader.benchmark;
+
+import lombok.Data;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 本地回环测试源站
+ * <p>
+ * 进程内的 HTTP/1.1 服务器，文件内容由位置确定 ({@link #byteAt})，不占用磁盘，下载结果可用 {@link #verify} 校验。
+ * 按 {@link Options} 模拟真实源站的各种行为：Range 支持、不返回 Content-Length、禁用 HEAD、重定向、
+ * 单连接限速、传输中途停顿或被重置 (RST)、并发连接过多时返回 429。
+ * </p>
+ * <pre>
+ * Options options = new Options();
+ * options.setBytesPerSecond(4 &lt;&lt; 20);
+ * try (LoopbackOrigin origin = LoopbackOrigin.start(options)) {
+ *     String url = origin.url("file.bin");
+ * }
+ * </pre>
+ */
+@Slf4j
+public class LoopbackOrigin implements Closeable {
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+    private static final Pattern PATH = Pattern.compile("/r(\\d+)/(.+)");
+    private static final int BUFFER_SIZE = 16384;
+
+    private final Options options;
+    private final ServerSocket server;
+    private final ExecutorService connections;
+    private final Set<Socket> open = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger activeTransfers = new AtomicInteger();
+    private final AtomicLong responseSeq = new AtomicLong();
+    private final Stats stats = new Stats();
+
+    /**
+     * 源站行为配置，默认为支持 Range、不限速的正常源站
+     */
+    @Data
+    public static class Options {
+        private long size = 32L * 1024 * 1024; // 文件大小
+        private boolean ranges = true; // 支持 Range (否则忽略 Range 头，返回 200 全文)
+        private boolean contentLength = true; // 返回 Content-Length (否则按连接关闭结束，不支持 Range)
+        private boolean head = true; // 支持 HEAD (否则返回 405)
+        private int redirects = 0; // 重定向次数
+        private long bytesPerSecond = 0; // 单连接限速，0 不限速
+        private int stallEvery = 0; // 每 N 个数据响应停顿一次，0 不停顿
+        private long stallAfterBytes = 1024 * 1024; // 响应发送多少字节后停顿
+        private long stallMillis = 3000; // 停顿时长
+        private int resetEvery = 0; // 每 N 个数据响应重置一次连接，0 不重置
+        private long resetAfterBytes = 512 * 1024; // 响应发送多少字节后重置
+        private int maxTransfers = 0; // 同时传输的响应数上限，超出返回 429，0 不限制
+        private int retryAfterSeconds = 1; // 429 的 Retry-After
+    }
+
+    /**
+     * 源站统计
+     */
+    @Getter
+    public static class Stats {
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong throttled = new AtomicLong(); // 429 次数
+        private final AtomicLong stalls = new AtomicLong();
+        private final AtomicLong resets = new AtomicLong();
+        private final AtomicLong bytesSent = new AtomicLong();
+
+        Map<String, Object> snapshot() {
+            Map<String, Object> map = new TreeMap<>();
+            map.put("requests", requests.get());
+            map.put("throttled", throttled.get());
+            map.put("stalls", stalls.get());
+            map.put("resets", resets.get());
+            map.put("bytesSent", bytesSent.get());
+            return map;
+        }
+    }
+
+    private LoopbackOrigin(Options options) throws IOException {
+        this.options = options;
+        this.server = new ServerSocket(0, 256, InetAddress.getLoopbackAddress());
+        AtomicInteger seq = new AtomicInteger();
+        this.connections = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "origin-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public static LoopbackOrigin start(Options options) throws IOException {
+        LoopbackOrigin origin = new LoopbackOrigin(options);
+        origin.connections.execute(origin::acceptLoop);
+        return origin;
+    }
+
+    /**
+     * 文件的下载地址，配置了重定向时经过相应次数的 302 才到达文件
+     */
+    public String url(String name) {
+        return "http://127.0.0.1:" + server.getLocalPort() + "/r" + options.redirects + "/" + name;
+    }
+
+    public Options getOptions() {
+        return options;
+    }
+
+    public Stats getStats() {
+        return stats;
+    }
+
+    /**
+     * 位置 pos 处的字节
+     */
+    public static byte byteAt(long pos) {
+        long x = pos * 0x9E3779B97F4A7C15L;
+        return (byte) (x >>> 56 ^ pos);
+    }
+
+    /**
+     * 校验下载的文件与源站内容一致
+     *
+     * @return 第一个不一致的位置，一致时返回 -1
+     */
+    public static long verify(File file, long size) throws IOException {
+        if (file.length() != size)
+            return Math.min(file.length(), size);
+        byte[] buf = new byte[1024 * 1024];
+        long pos = 0;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                for (int i = 0; i < n; i++) {
+                    if (buf[i] != byteAt(pos + i))
+                        return pos + i;
+                }
+                pos += n;
+            }
+        }
+        return -1;
+    }
+
+    private void acceptLoop() {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                open.add(socket);
+                connections.execute(() -> serve(socket));
+            } catch (IOException e) {
+                if (!server.isClosed())
+                    log.warn("源站 accept 失败", e);
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket;
+                InputStream in = new BufferedInputStream(s.getInputStream());
+                OutputStream out = new BufferedOutputStream(s.getOutputStream(), BUFFER_SIZE)) {
+            // Keep-Alive：同一连接上依次处理请求，直到客户端关闭或响应要求关闭
+            while (handle(s, in, out)) {
+                out.flush();
+            }
+            out.flush();
+        } catch (IOException ignored) {
+            // 客户端中止连接 (分片被停止或区间被缩短) 是正常情况
+        } finally {
+            open.remove(socket);
+        }
+    }
+
+    /**
+     * 处理一个请求
+     *
+     * @return 连接是否可以继续复用
+     */
+    private boolean handle(Socket socket, InputStream in, OutputStream out) throws IOException {
+        String requestLine = readLine(in);
+        if (requestLine == null || requestLine.isEmpty())
+            return false;
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0)
+                headers.put(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+        }
+        stats.requests.incrementAndGet();
+        String[] parts = requestLine.split(" ");
+        String method = parts[0].toUpperCase(Locale.ROOT);
+        String path = parts.length > 1 ? parts[1] : "/";
+        boolean isHead = "HEAD".equals(method);
+
+        if (isHead && !options.head) {
+            writeHead(out, "405 Method Not Allowed", "Content-Length: 0\r\nAllow: GET\r\n");
+            return true;
+        }
+        Matcher m = PATH.matcher(path);
+        if (!("GET".equals(method) || isHead) || !m.matches()) {
+            writeHead(out, "404 Not Found", "Content-Length: 0\r\n");
+            return true;
+        }
+        int hops = Integer.parseInt(m.group(1));
+        if (hops > 0) {
+            writeHead(out, "302 Found", "Location: /r" + (hops - 1) + "/" + m.group(2) + "\r\nContent-Length: 0\r\n");
+            return true;
+        }
+
+        // 计算响应区间
+        long size = options.size;
+        long start = 0;
+        long end = size - 1;
+        boolean partial = false;
+        String range = headers.get("Range");
+        if (range != null && options.ranges && options.contentLength) {
+            Matcher r = RANGE.matcher(range);
+            if (r.matches()) {
+                start = Long.parseLong(r.group(1));
+                if (!r.group(2).isEmpty())
+                    end = Math.min(Long.parseLong(r.group(2)), size - 1);
+                if (start >= size || start > end) {
+                    writeHead(out, "416 Range Not Satisfiable", "Content-Range: bytes */" + size + "\r\nContent-Length: 0\r\n");
+                    return true;
+                }
+                partial = true;
+            }
+        }
+        long length = end - start + 1;
+
+        StringBuilder h = new StringBuilder();
+        h.append("ETag: \"loopback-").append(size).append("\"\r\n");
+        h.append("Last-Modified: Thu, 01 Jan 2026 00:00:00 GMT\r\n");
+        if (options.ranges && options.contentLength)
+            h.append("Accept-Ranges: bytes\r\n");
+        if (partial)
+            h.append("Content-Range: bytes ").append(start).append('-').append(end).append('/').append(size).append("\r\n");
+        if (options.contentLength)
+            h.append("Content-Length: ").append(length).append("\r\n");
+        else
+            h.append("Connection: close\r\n"); // 没有长度时以关闭连接表示响应结束
+        if (isHead) {
+            writeHead(out, "200 OK", h.toString());
+            return options.contentLength;
+        }
+
+        // 并发传输过多：429
+        if (options.maxTransfers > 0 && activeTransfers.incrementAndGet() > options.maxTransfers) {
+            activeTransfers.decrementAndGet();
+            stats.throttled.incrementAndGet();
+            writeHead(out, "429 Too Many Requests", "Retry-After: " + options.retryAfterSeconds + "\r\nContent-Length: 0\r\n");
+            return true;
+        }
+        try {
+            writeHead(out, partial ? "206 Partial Content" : "200 OK", h.toString());
+            return sendBody(socket, out, start, length) && options.contentLength;
+        } finally {
+            if (options.maxTransfers > 0)
+                activeTransfers.decrementAndGet();
+        }
+    }
+
+    /**
+     * 发送响应体，按配置限速、停顿或重置连接
+     *
+     * @return 是否完整发送 (连接被重置时为 false)
+     */
+    private boolean sendBody(Socket socket, OutputStream out, long start, long length) throws IOException {
+        long seq = responseSeq.incrementAndGet();
+        boolean stall = options.stallEvery > 0 && seq % options.stallEvery == 0;
+        boolean reset = options.resetEvery > 0 && seq % options.resetEvery == 0;
+        byte[] buf = new byte[BUFFER_SIZE];
+        long began = System.nanoTime();
+        long sent = 0;
+        while (sent < length) {
+            if (stall && sent >= options.stallAfterBytes) {
+                stall = false;
+                stats.stalls.incrementAndGet();
+                out.flush();
+                sleep(TimeUnit.MILLISECONDS.toNanos(options.stallMillis));
+                began += TimeUnit.MILLISECONDS.toNanos(options.stallMillis);
+            }
+            if (reset && sent >= options.resetAfterBytes) {
+                stats.resets.incrementAndGet();
+                out.flush();
+                // SO_LINGER 0：关闭时发送 RST 而不是 FIN
+                socket.setSoLinger(true, 0);
+                socket.close();
+                return false;
+            }
+            int n = (int) Math.min(buf.length, length - sent);
+            long pos = start + sent;
+            for (int i = 0; i < n; i++) {
+                buf[i] = byteAt(pos + i);
+            }
+            out.write(buf, 0, n);
+            sent += n;
+            stats.bytesSent.addAndGet(n);
+            if (options.bytesPerSecond > 0) {
+                long due = began + sent * 1_000_000_000L / options.bytesPerSecond;
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    out.flush();
+                    sleep(wait);
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void writeHead(OutputStream out, String status, String headers) throws IOException {
+        out.write(("HTTP/1.1 " + status + "\r\n" + headers + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n')
+                return sb.toString();
+            if (c != '\r')
+                sb.append((char) c);
+        }
+        return sb.length() > 0 ? sb.toString() : null;
+    }
+
+    private static void sleep(long nanos) throws InterruptedIOException {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        for (Socket socket : open) {
+            try {
+                socket.close();
+            } catch (SocketException ignored) {
+            }
+        }
+        connections.shutdownNow();
+    }
+}
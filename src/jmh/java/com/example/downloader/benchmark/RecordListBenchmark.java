@@ -0,0 +1,102 @@
+package com.example.downloader.benchmark;
+
+import com.example.downloader.config.DownloaderProperties;
+import com.example.downloader.controller.DownloadController;
+import com.example.downloader.core.ChunkManager;
+import com.example.downloader.core.HttpClientFactory;
+import com.example.downloader.entity.DownloadRecord;
+import com.example.downloader.repo.BlockHashRepository;
+import com.example.downloader.repo.ChunkRepository;
+import com.example.downloader.repo.DownloadRepository;
+import com.example.downloader.service.DownloadScheduler;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.Date;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 任务列表
+ * <p>
+ * 通过 DownloadController.seek 取一页 (20 条) 任务，覆盖 enrichRecordData 的两条路径：
+ * historical 为数据库中的历史任务 (只读摘要列)，active 为内存中有 Context 的任务 (读取实时分片状态)。
+ * active 的任务以 max-active-tasks=1 排队，第一个任务连接到一个从不响应的本地端口，
+ * 其余任务停留在 QUEUED 状态，不产生真实下载。
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RecordListBenchmark {
+    private static final int PAGE_SIZE = 20;
+    private static final int CHUNKS_PER_TASK = 16;
+
+    @Param({ "historical", "active" })
+    public String kind;
+
+    private BenchmarkApplication app;
+    private ServerSocket silentOrigin;
+    private DownloadController controller;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        // 只监听不 accept：连接进入 backlog 后请求一直等待响应
+        silentOrigin = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        app = BenchmarkApplication.start("downloader.scheduler.max-active-tasks=1",
+                "downloader.http.socket-timeout=3600000", "downloader.journal.enabled=false");
+        controller = app.getBean(DownloadController.class);
+        DownloadRepository repository = app.getBean(DownloadRepository.class);
+        DownloaderProperties properties = app.getBean(DownloaderProperties.class);
+
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            DownloadRecord record = new DownloadRecord();
+            record.setId(UUID.randomUUID().toString());
+            record.setUrl("http://127.0.0.1:" + silentOrigin.getLocalPort() + "/file-" + i + ".bin");
+            record.setSavePath(app.getDir().getAbsolutePath());
+            record.setFileName("file-" + i + ".bin");
+            record.setCreatedTime(new Date(System.currentTimeMillis() + i));
+            record.setTotalSize(CHUNKS_PER_TASK * 8L * 1024 * 1024);
+            record.setSupportRange(true);
+            record.setThreads(4);
+            record.setStatus(i % 2 == 0 ? "FINISHED" : "PAUSED");
+            record.setDownloadedBytes(record.getTotalSize() / 2);
+            record.setChunkCount(CHUNKS_PER_TASK);
+            repository.save(record);
+
+            ChunkManager chunks = new ChunkManager(record, app.getBean(ChunkRepository.class),
+                    app.getBean(BlockHashRepository.class), app.getBean(HttpClientFactory.class),
+                    properties.getJournal(), properties.getChecksum());
+            chunks.splitChunks(CHUNKS_PER_TASK);
+            chunks.saveChunks();
+
+            if ("active".equals(kind)) {
+                record.setStatus("PAUSED");
+                repository.save(record);
+                app.getBean(DownloadScheduler.class).resume(record.getId());
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        app.close();
+        silentOrigin.close();
+    }
+
+    @Benchmark
+    public Map<String, Object> page() {
+        return controller.seek(null, PAGE_SIZE, false);
+    }
+
+    @Benchmark
+    public Map<String, Object> pageWithChunks() {
+        return controller.seek(null, PAGE_SIZE, true);
+    }
+}
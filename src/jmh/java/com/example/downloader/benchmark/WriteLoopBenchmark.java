@@ -0,0 +1,108 @@
+package com.example.downloader.benchmark;
+
+import com.example.downloader.config.DownloaderProperties;
+import com.example.downloader.core.ChunkFileWriter;
+import com.example.downloader.model.WriteMode;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 分片写入循环
+ * <p>
+ * 模拟 ChunkWorker 读到数据后的写入路径：按分片当前位置定位写入，再推进 current。
+ * 每个线程相当于一个分片，在文件中各自的区间内顺序写入 (写到区间末尾后回到起点)，网络读取不计入。
+ * 对比 LOCKED (全局锁 + seek/write)、CHANNEL (FileChannel 定位写入) 和 MMAP 三种写入器在不同缓冲区大小、
+ * 不同并发分片数下的吞吐，吞吐 (ops/s) 乘以 bufferSize 即字节/秒。
+ * </p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WriteLoopBenchmark {
+    private static final long FILE_SIZE = 256L * 1024 * 1024;
+
+    @State(Scope.Benchmark)
+    public static class TargetFile {
+        @Param({ "LOCKED", "CHANNEL", "MMAP" })
+        public WriteMode writeMode;
+
+        @Param({ "4096", "16384", "65536" })
+        public int bufferSize;
+
+        File file;
+        ChunkFileWriter writer;
+
+        @Setup(Level.Trial)
+        public void open() throws IOException {
+            file = File.createTempFile("write-loop", ".bin");
+            // 与 ChunkManager.prepare 一致：下载前预分配文件大小
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(FILE_SIZE);
+            }
+            DownloaderProperties.Io config = new DownloaderProperties.Io();
+            config.setWriteMode(writeMode);
+            writer = ChunkFileWriter.open(file, config, null);
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            writer.close();
+            file.delete();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Chunk {
+        byte[] buf;
+        long start;
+        long end;
+        final AtomicLong current = new AtomicLong();
+
+        @Setup(Level.Trial)
+        public void init(TargetFile target, ThreadParams threads) {
+            buf = new byte[target.bufferSize];
+            new Random(threads.getThreadIndex()).nextBytes(buf);
+            long region = FILE_SIZE / threads.getThreadCount() / target.bufferSize * target.bufferSize;
+            start = region * threads.getThreadIndex();
+            end = start + region;
+            current.set(start);
+        }
+    }
+
+    private static void writeOnce(TargetFile target, Chunk chunk) throws IOException {
+        long pos = chunk.current.get();
+        if (pos + chunk.buf.length > chunk.end) {
+            pos = chunk.start;
+            chunk.current.set(pos);
+        }
+        target.writer.write(chunk.buf, 0, chunk.buf.length, pos);
+        chunk.current.addAndGet(chunk.buf.length);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void chunks1(TargetFile target, Chunk chunk) throws IOException {
+        writeOnce(target, chunk);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void chunks4(TargetFile target, Chunk chunk) throws IOException {
+        writeOnce(target, chunk);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void chunks16(TargetFile target, Chunk chunk) throws IOException {
+        writeOnce(target, chunk);
+    }
+}
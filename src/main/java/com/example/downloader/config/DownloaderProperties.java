@@ -0,0 +1,182 @@
+package com.example.downloader.config;
+
+import com.example.downloader.model.EngineMode;
+import com.example.downloader.model.WriteMode;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 下载器配置
+ * <p>
+ * 对应 application.yml 中 downloader.* 配置项
+ * </p>
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "downloader")
+public class DownloaderProperties {
+
+    private Http http = new Http();
+    private Io io = new Io();
+    private Rebalance rebalance = new Rebalance();
+    private Bandwidth bandwidth = new Bandwidth();
+    private Scheduler scheduler = new Scheduler();
+    private Engine engine = new Engine();
+    private Journal journal = new Journal();
+    private Concurrency concurrency = new Concurrency();
+    private Checksum checksum = new Checksum();
+    private Retry retry = new Retry();
+    private Breaker breaker = new Breaker();
+    private Serve serve = new Serve();
+    private Cache cache = new Cache();
+
+    /**
+     * HTTP 连接池配置
+     */
+    @Data
+    public static class Http {
+        private int maxTotal = 256; // 每个连接池的全局最大连接数
+        private int maxPerRoute = 64; // 每个目标主机的最大连接数
+        private int connectTimeout = 10000; // 连接超时 (ms)
+        private int socketTimeout = 30000; // 读取超时 (ms)
+        private long keepAliveSeconds = 60; // 服务器未声明 Keep-Alive 时的默认保活时间
+        private long idleEvictSeconds = 30; // 空闲连接回收时间
+    }
+
+    /**
+     * 磁盘写入配置
+     */
+    @Data
+    public static class Io {
+        private WriteMode writeMode = WriteMode.CHANNEL; // LOCKED 为旧的全局锁写入，用于对比
+        private long mmapSegmentSize = 64L * 1024 * 1024; // MMAP 模式单个映射段大小
+        private int mmapMaxSegments = 16; // MMAP 模式同时映射的最大段数
+        private boolean pipeline = true; // 读写分离：网络读取填充缓冲区，专用线程写盘
+        private int bufferSize = 256 * 1024; // 流水线缓冲区大小，也是写入的对齐粒度
+        private int bufferCount = 256; // 缓冲池容量 (直接内存 = bufferSize * bufferCount)，用尽时读取方等待
+        private int writerThreads = 2; // 写盘线程数
+        private long flushIntervalMs = 200; // 缓冲区未写满时最长等待时间，慢速链路据此提前写入
+    }
+
+    /**
+     * 动态重分配配置
+     */
+    @Data
+    public static class Rebalance {
+        private boolean enabled = true;
+        private long minSplitSize = 1024 * 1024; // 拆分后每段最小字节数，需远大于读取缓冲区
+    }
+
+    /**
+     * 带宽限制配置 (单位 bytes/s，0 表示不限速)
+     */
+    @Data
+    public static class Bandwidth {
+        private long globalLimit = 0;
+        private int batchSize = 64 * 1024; // 工作器每次从令牌桶领取的令牌数
+        private Map<String, Long> hostLimits = new HashMap<>(); // 按主机限速
+    }
+
+    /**
+     * 任务调度配置
+     */
+    @Data
+    public static class Scheduler {
+        private int maxActiveTasks = 4; // 同时下载的最大任务数，其余任务排队
+        private int workerThreads = 64; // 所有任务共享的分片线程数
+        private int controlThreads = 4; // 任务启动 (探测、预分配) 线程数
+        private boolean recoverOnStartup = true; // 启动时自动恢复上次中断的任务
+        private int probeThreads = 16; // 批量创建任务时并行探测 (HEAD/大小) 的线程数
+        private int maxBatchSize = 10000; // 单次批量创建的任务数上限
+    }
+
+    /**
+     * 下载引擎配置
+     */
+    @Data
+    public static class Engine {
+        private EngineMode mode = EngineMode.BLOCKING; // 默认引擎，可在创建任务时按任务指定
+        private int ioThreads = 2; // ASYNC 引擎的事件循环线程数
+    }
+
+    /**
+     * 分片进度日志配置
+     */
+    @Data
+    public static class Journal {
+        private boolean enabled = true;
+        private String dir = "db/journal"; // 日志目录，每个任务一个文件
+        private long flushIntervalMs = 1000; // 批量写入间隔，崩溃时最多丢失这段时间的进度
+        private int compactThreshold = 10000; // 追加记录数超过该值时重写为快照
+        private boolean sync = false; // 每批写入前数据文件刷盘、写入后 fsync，可防断电但更慢 (进程崩溃无需开启)
+    }
+
+    /**
+     * 自适应连接数配置 (创建任务时 threads 为 0 或 auto)
+     */
+    @Data
+    public static class Concurrency {
+        private int initial = 2; // 初始连接数
+        private int min = 1;
+        private int max = 16; // 上限，不超过 32
+        private int windowSeconds = 3; // 评估窗口，每个窗口最多调整一次
+        private double growthRatio = 0.1; // 增加连接后吞吐提升低于该比例视为到达瓶颈
+    }
+
+    /**
+     * 下载校验配置
+     */
+    @Data
+    public static class Checksum {
+        private boolean enabled = true; // 边下载边计算块哈希 (指定了期望校验值的任务始终计算)
+        private int blockSize = 1024 * 1024; // 块大小，续传时只重新校验分片边界所在的块
+    }
+
+    /**
+     * 分片重试配置
+     */
+    @Data
+    public static class Retry {
+        private int maxAttempts = 5; // 单个工作器连续失败次数上限，达到后分片交回任务
+        private long baseDelayMs = 500; // 指数退避的初始等待
+        private long maxDelayMs = 30000; // 退避等待上限
+        private long maxRetryAfterMs = 300000; // 服务器 Retry-After 的采纳上限
+        private int maxRounds = 3; // 分片交回任务的次数上限，超过后任务失败
+    }
+
+    /**
+     * 按主机熔断配置
+     */
+    @Data
+    public static class Breaker {
+        private boolean enabled = true;
+        private int failureThreshold = 5; // 同一主机连续失败次数达到后熔断
+        private long openMs = 5000; // 首次熔断时长，连续熔断时翻倍
+        private long maxOpenMs = 60000; // 熔断时长上限
+    }
+
+    /**
+     * 边下边读：/file/{id} 返回下载中任务已写盘的内容
+     */
+    @Data
+    public static class Serve {
+        private boolean progressive = true; // 关闭后未完成的任务返回 404
+        private long waitTimeoutMs = 30000; // 等待缺失数据的最长时间，超时断开连接
+        private long pollIntervalMs = 100; // 等待期间检查下载进度的间隔
+    }
+
+    /**
+     * 下载缓存：相同内容的任务链接或复制已下载的文件，不再下载
+     */
+    @Data
+    public static class Cache {
+        private boolean enabled = false;
+        private String dir = "db/cache"; // 与下载目录在同一文件系统时可以 reflink 或硬链接，不占用额外空间
+        private long maxSize = 10L * 1024 * 1024 * 1024; // 缓存文件总大小上限，超出时淘汰最久未使用的文件
+        private boolean hardlink = false; // 加入缓存时优先硬链接 (与下载的文件共享内容)，命中时始终 reflink 或复制
+    }
+}
@@ -1,28 +1,40 @@
 package com.example.downloader.controller;
 
+import com.example.downloader.config.DownloaderProperties;
+import com.example.downloader.core.BandwidthGovernor;
+import com.example.downloader.core.ChecksumManifest;
+import com.example.downloader.core.ChecksumTracker;
+import com.example.downloader.core.DownloadCache;
 import com.example.downloader.core.DownloadTaskContext;
+import com.example.downloader.core.HttpClientFactory;
+import com.example.downloader.entity.BlockHash;
+import com.example.downloader.entity.ChunkRecord;
 import com.example.downloader.entity.DownloadRecord;
 import com.example.downloader.model.ChunkInfo;
 import com.example.downloader.model.DownloadStatus;
+import com.example.downloader.repo.BlockHashRepository;
+import com.example.downloader.repo.ChunkRepository;
 import com.example.downloader.repo.DownloadRepository;
+import com.example.downloader.repo.RecordSummary;
+import com.example.downloader.service.BatchSubmitService;
+import com.example.downloader.service.DownloadScheduler;
+import com.example.downloader.service.FileServingService;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.FileSystemResource;
-import org.springframework.core.io.Resource;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 
 import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.File;
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
+import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import com.alibaba.fastjson.JSON;
 import lombok.extern.slf4j.Slf4j;
@@ -36,26 +48,81 @@ public class DownloadController {
     @Autowired
     private DownloadRepository repository;
     @Autowired
-    private SimpMessagingTemplate messagingTemplate;
-
-    // 内存中活跃的任务 Context
-    private final Map<String, DownloadTaskContext> activeContexts = new ConcurrentHashMap<>();
+    private BandwidthGovernor bandwidthGovernor;
+    @Autowired
+    private DownloadScheduler scheduler;
+    @Autowired
+    private ChunkRepository chunkRepository;
+    @Autowired
+    private BlockHashRepository blockHashRepository;
+    @Autowired
+    private HttpClientFactory httpClientFactory;
+    @Autowired
+    private DownloaderProperties properties;
+    @Autowired
+    private FileServingService fileServingService;
+    @Autowired
+    private BatchSubmitService batchSubmitService;
+    @Autowired
+    private DownloadCache downloadCache;
 
     @PostConstruct
     public void init() {
-        // 系统重启后，可以加载状态为 DOWNLOADING 的任务并恢复(此处简化为只加载状态，需手动点开始)
+        // 系统重启后，把中断的任务重新排队，由调度器按运行数上限逐个启动
+        if (properties.getScheduler().isRecoverOnStartup()) {
+            int recovered = scheduler.recover();
+            if (recovered > 0)
+                log.info("已恢复 {} 个中断的下载任务", recovered);
+        }
     }
 
     @PostMapping("/start")
     public String createTask(@RequestBody Map<String, Object> params) {
         String url = (String) params.get("url");
         String path = (String) params.get("path");
-        int threads = (Integer) params.get("threads");
+        // 连接数：0、"auto" 或不传时自适应
+        Object threadsParam = params.get("threads");
+        int threads = threadsParam instanceof Number ? ((Number) threadsParam).intValue() : 0;
 
         // 获取代理设置
         String proxyType = (String) params.get("proxyType");
         String proxyHost = (String) params.get("proxyHost");
         Integer proxyPort = params.get("proxyPort") != null ? (Integer) params.get("proxyPort") : null;
+        // 可选：任务限速 (bytes/s)
+        Number bandwidthLimit = (Number) params.get("bandwidthLimit");
+        // 可选：调度优先级，越大越先执行
+        Number priority = (Number) params.get("priority");
+        // 可选：分片下载引擎 BLOCKING / ASYNC，为空时使用全局配置
+        String engine = (String) params.get("engine");
+        // 可选：多镜像下载，urls 第一个为主地址；mirrors 为主地址之外的等价地址
+        List<String> mirrors = new ArrayList<>();
+        if (params.get("urls") instanceof List) {
+            for (Object u : (List<?>) params.get("urls")) {
+                if (u != null && !u.toString().trim().isEmpty())
+                    mirrors.add(u.toString().trim());
+            }
+            if (url == null && !mirrors.isEmpty())
+                url = mirrors.get(0);
+        }
+        if (params.get("mirrors") instanceof List) {
+            for (Object u : (List<?>) params.get("mirrors")) {
+                if (u != null && !u.toString().trim().isEmpty())
+                    mirrors.add(u.toString().trim());
+            }
+        }
+        if (url == null || url.trim().isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "url 不能为空");
+        }
+        // 可选：期望校验值 sha256:hex 或 sha256-tree:hex，下载完成后比较，不一致时任务出错
+        String expectedChecksum = (String) params.get("checksum");
+        String[] checksum = null;
+        if (expectedChecksum != null && !expectedChecksum.trim().isEmpty()) {
+            checksum = ChecksumTracker.parseExpected(expectedChecksum);
+            if (checksum == null)
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "不支持的校验值: " + expectedChecksum);
+        }
+        final String primary = url;
+        mirrors.removeIf(u -> u.equals(primary));
 
         DownloadRecord record = new DownloadRecord();
         record.setId(UUID.randomUUID().toString());
@@ -68,43 +135,213 @@ public class DownloadController {
         record.setProxyType(proxyType);
         record.setProxyHost(proxyHost);
         record.setProxyPort(proxyPort);
+        record.setPriority(priority != null ? priority.intValue() : 0);
+        record.setThreads(Math.max(threads, 0));
+        record.setExpectedChecksum(checksum != null ? checksum[0] + ":" + checksum[1] : null);
+        record.setEngine(engine != null && !engine.isEmpty() ? engine.toUpperCase() : null);
+        record.setMirrors(mirrors.isEmpty() ? null : String.join("\n", new LinkedHashSet<>(mirrors)));
 
         repository.save(record);
+        if (bandwidthLimit != null) {
+            bandwidthGovernor.setTaskLimit(record.getId(), bandwidthLimit.longValue());
+        }
 
         log.info("创建新下载任务: {}, URL: {}, 线程数: {}, 代理: {}://{}:{}",
                 record.getId(), url, threads, proxyType, proxyHost, proxyPort);
-        DownloadTaskContext context = new DownloadTaskContext(record, repository, threads);
-        activeContexts.put(record.getId(), context);
-        context.start();
+        scheduler.submit(record, threads);
 
         return record.getId();
     }
 
-    // 分页获取列表
+    /**
+     * 批量创建任务
+     * <p>
+     * urls 为地址列表 (字符串或 {url, path, checksum})，manifest 为清单文本 (每行 url [path] [checksum])，可同时提供；
+     * path、threads、priority、engine 和代理设置作用于整个批次，probe 为 false 时不在提交时探测
+     * </p>
+     */
+    @PostMapping(value = "/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public Map<String, Object> createBatch(@RequestBody Map<String, Object> params) throws IOException {
+        List<BatchSubmitService.Entry> entries = new ArrayList<>();
+        if (params.get("urls") instanceof List) {
+            for (Object u : (List<?>) params.get("urls")) {
+                if (u instanceof Map) {
+                    Map<?, ?> item = (Map<?, ?>) u;
+                    entries.add(new BatchSubmitService.Entry((String) item.get("url"), (String) item.get("path"),
+                            (String) item.get("checksum")));
+                } else if (u != null) {
+                    entries.add(new BatchSubmitService.Entry(u.toString(), null, null));
+                }
+            }
+        }
+        if (params.get("manifest") instanceof String) {
+            entries.addAll(BatchSubmitService.parseManifest((String) params.get("manifest")));
+        }
+        return submitBatch(entries, params);
+    }
+
+    // 批量创建任务：请求体为清单文件内容，批次设置放在查询参数中
+    @PostMapping(value = "/batch", consumes = MediaType.TEXT_PLAIN_VALUE)
+    public Map<String, Object> createBatchFromManifest(@RequestBody String manifest,
+            @RequestParam Map<String, String> params) throws IOException {
+        return submitBatch(BatchSubmitService.parseManifest(manifest), params);
+    }
+
+    private Map<String, Object> submitBatch(List<BatchSubmitService.Entry> entries, Map<String, ?> params)
+            throws IOException {
+        BatchSubmitService.Options options = new BatchSubmitService.Options();
+        options.setPath(params.get("path") != null ? params.get("path").toString() : null);
+        // 连接数：0、"auto" 或不传时自适应
+        options.setThreads(intParam(params.get("threads"), 0));
+        options.setPriority(intParam(params.get("priority"), 0));
+        options.setEngine(params.get("engine") != null ? params.get("engine").toString() : null);
+        options.setProxyType(params.get("proxyType") != null ? params.get("proxyType").toString() : null);
+        options.setProxyHost(params.get("proxyHost") != null ? params.get("proxyHost").toString() : null);
+        options.setProxyPort(params.get("proxyPort") != null ? intParam(params.get("proxyPort"), 0) : null);
+        options.setProbe(params.get("probe") == null || !"false".equals(params.get("probe").toString()));
+        try {
+            return batchSubmitService.submit(entries, options);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    private static int intParam(Object value, int defaultValue) {
+        if (value instanceof Number)
+            return ((Number) value).intValue();
+        try {
+            return value != null ? Integer.parseInt(value.toString().trim()) : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    // 分页获取列表 (chunks=true 时附带分片详情)
     @GetMapping("/list")
     public Page<Map<String, Object>> list(@RequestParam(defaultValue = "0") int page,
-            @RequestParam(defaultValue = "5") int size) {
-        Page<DownloadRecord> pageData = repository.findAllByOrderByCreatedTimeDesc(PageRequest.of(page, size));
-        return pageData.map(this::enrichRecordData);
+            @RequestParam(defaultValue = "5") int size, @RequestParam(defaultValue = "false") boolean chunks) {
+        Page<RecordSummary> pageData = repository.findSummariesByOrderByCreatedTimeDescIdDesc(PageRequest.of(page, size));
+        return pageData.map(r -> enrichRecordData(r, chunks));
+    }
+
+    // 游标分页：cursor 为上一页返回的 nextCursor，深翻页不需要 OFFSET 扫描和 COUNT
+    @GetMapping("/list/seek")
+    public Map<String, Object> seek(@RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") int size, @RequestParam(defaultValue = "false") boolean chunks) {
+        PageRequest limit = PageRequest.of(0, Math.max(1, Math.min(size, 500)));
+        List<RecordSummary> rows;
+        if (cursor == null || cursor.isEmpty()) {
+            rows = repository.readSummariesByOrderByCreatedTimeDescIdDesc(limit);
+        } else {
+            int sep = cursor.indexOf(':');
+            if (sep <= 0)
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "无效的 cursor");
+            Date createdTime;
+            try {
+                createdTime = new Date(Long.parseLong(cursor.substring(0, sep)));
+            } catch (NumberFormatException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "无效的 cursor");
+            }
+            rows = repository.findSummariesAfter(createdTime, cursor.substring(sep + 1), limit);
+        }
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("content", rows.stream().map(r -> enrichRecordData(r, chunks)).collect(Collectors.toList()));
+        if (rows.size() == limit.getPageSize()) {
+            RecordSummary last = rows.get(rows.size() - 1);
+            result.put("nextCursor", last.getCreatedTime().getTime() + ":" + last.getId());
+        }
+        return result;
+    }
+
+    // 单个任务的分片详情 (区块视图按需加载)
+    @GetMapping("/{id}/chunks")
+    public Collection<?> chunks(@PathVariable String id) {
+        return loadChunks(id);
+    }
+
+    // 已完成任务的块校验清单，可作为其它任务增量修复的 manifest
+    @GetMapping("/{id}/manifest")
+    public Map<String, Object> manifest(@PathVariable String id) {
+        DownloadRecord record = repository.findById(id)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "任务不存在"));
+        if (!"FINISHED".equals(record.getStatus()) || record.getBlockSize() == null || record.getTreeHash() == null) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "任务未完成或没有块校验值");
+        }
+        Map<Integer, String> hashes = new HashMap<>();
+        for (BlockHash row : blockHashRepository.findByTaskId(id)) {
+            hashes.put(row.getBlockIndex(), row.getHash());
+        }
+        int count = (int) ((record.getTotalSize() + record.getBlockSize() - 1) / record.getBlockSize());
+        List<String> blocks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String hash = hashes.get(i);
+            if (hash == null)
+                throw new ResponseStatusException(HttpStatus.CONFLICT, "块校验值不完整");
+            blocks.add(hash);
+        }
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("size", record.getTotalSize());
+        map.put("blockSize", record.getBlockSize());
+        map.put("sha256Tree", record.getTreeHash());
+        map.put("blocks", blocks);
+        return map;
+    }
+
+    // 增量修复：manifest 为校验清单，或 manifestUrl 为清单地址；url 可选，为文件的新下载地址
+    @PostMapping("/{id}/repair")
+    public Map<String, Object> repair(@PathVariable String id, @RequestBody Map<String, Object> params) {
+        DownloadRecord record = repository.findById(id)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "任务不存在"));
+        String url = (String) params.get("url");
+        String manifestUrl = (String) params.get("manifestUrl");
+        try {
+            ChecksumManifest manifest;
+            if (params.get("manifest") != null) {
+                Object raw = params.get("manifest");
+                manifest = ChecksumManifest.parse(raw instanceof String ? (String) raw : JSON.toJSONString(raw));
+            } else if (manifestUrl != null && !manifestUrl.isEmpty()) {
+                manifest = ChecksumManifest.fetch(httpClientFactory.getHttpClient(record), manifestUrl);
+            } else {
+                throw new IllegalArgumentException("需要 manifest 或 manifestUrl");
+            }
+            int changed = scheduler.repair(id, manifest, url);
+            Map<String, Object> result = new HashMap<>();
+            result.put("blocks", manifest.getBlocks().size());
+            result.put("changedBlocks", changed);
+            return result;
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        } catch (IllegalStateException e) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage());
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_GATEWAY, e.getMessage());
+        }
     }
 
-    // 下载到本地 (浏览器下载)
+    // 下载到本地 (浏览器下载)，支持 Range 和 HEAD；未完成的任务边下边读
     @GetMapping("/file/{id}")
-    public ResponseEntity<Resource> downloadToLocal(@PathVariable String id) throws UnsupportedEncodingException {
+    public ResponseEntity<Void> downloadToLocal(@PathVariable String id, HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
         DownloadRecord record = repository.findById(id).orElse(null);
-        if (record == null || !"FINISHED".equals(record.getStatus()))
+        if (record == null)
             return ResponseEntity.notFound().build();
 
+        if (!"FINISHED".equals(record.getStatus())) {
+            // 排队、下载中和暂停的任务返回已下载的部分，缺失的部分优先下载并等待
+            DownloadTaskContext context = scheduler.get(id);
+            if (context == null || !properties.getServe().isProgressive()
+                    || context.getStatus() == DownloadStatus.CANCELED)
+                return ResponseEntity.notFound().build();
+            fileServingService.serve(context, request, response);
+            return null;
+        }
+
         File file = new File(record.getSavePath(), record.getFileName());
-        if (!file.exists())
+        if (!file.isFile())
             return ResponseEntity.notFound().build();
-
-        Resource resource = new FileSystemResource(file);
-        return ResponseEntity.ok()
-                .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                .header(HttpHeaders.CONTENT_DISPOSITION,
-                        "attachment; filename=\"" + URLEncoder.encode(file.getName(), "UTF-8") + "\"")
-                .body(resource);
+        fileServingService.serveFile(record, file, request, response);
+        return null;
     }
 
     @DeleteMapping("/{id}")
@@ -113,68 +350,71 @@ public class DownloadController {
         DownloadRecord record = repository.findById(id).orElse(null);
         if (record != null) {
             // 停止任务
-            DownloadTaskContext ctx = activeContexts.get(id);
-            if (ctx != null) {
-                ctx.cancel();
-                activeContexts.remove(id);
-            }
+            scheduler.cancel(id);
             // 删除文件
             if (deleteFile && record.getFileName() != null) {
                 new File(record.getSavePath(), record.getFileName()).delete();
             }
             // 删除记录
+            bandwidthGovernor.setTaskLimit(id, 0);
+            chunkRepository.deleteByTaskId(id);
+            blockHashRepository.deleteByTaskId(id);
             repository.deleteById(id);
         }
     }
 
+    // 查询限速配置与各任务实际分配
+    @GetMapping("/bandwidth")
+    public Map<String, Object> getBandwidth() {
+        return bandwidthGovernor.snapshot();
+    }
+
+    /**
+     * 运行时调整限速 (bytes/s，0 表示不限速)
+     * <p>
+     * 参数: globalLimit, taskLimits {taskId: limit}, hostLimits {host: limit}，均为可选
+     * </p>
+     */
+    @PutMapping("/bandwidth")
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> updateBandwidth(@RequestBody Map<String, Object> params) {
+        if (params.get("globalLimit") != null) {
+            bandwidthGovernor.setGlobalLimit(((Number) params.get("globalLimit")).longValue());
+        }
+        Map<String, Number> taskLimits = (Map<String, Number>) params.get("taskLimits");
+        if (taskLimits != null) {
+            taskLimits.forEach((id, limit) -> bandwidthGovernor.setTaskLimit(id, limit.longValue()));
+        }
+        Map<String, Number> hostLimits = (Map<String, Number>) params.get("hostLimits");
+        if (hostLimits != null) {
+            hostLimits.forEach((host, limit) -> bandwidthGovernor.setHostLimit(host, limit.longValue()));
+        }
+        return bandwidthGovernor.snapshot();
+    }
+
+    // 下载缓存命中率与占用
+    @GetMapping("/cache")
+    public Map<String, Object> cacheStats() {
+        return downloadCache.stats();
+    }
+
+    // 清空下载缓存，已下载的文件不受影响
+    @DeleteMapping("/cache")
+    public Map<String, Object> clearCache() {
+        downloadCache.clear();
+        return downloadCache.stats();
+    }
+
     @PostMapping("/{id}/{action}")
     public void control(@PathVariable String id, @PathVariable String action) {
         if ("pause".equals(action)) {
-            DownloadTaskContext ctx = activeContexts.get(id);
-            if (ctx != null) {
-                ctx.pause();
-            }
+            scheduler.pause(id);
         } else if ("resume".equals(action)) {
-            DownloadTaskContext ctx = activeContexts.get(id);
-            if (ctx != null) {
-                ctx.start();
-            } else {
-                DownloadRecord record = repository.findById(id).orElse(null);
-                // 允许 PAUSED 或 DOWNLOADING (服务重启导致的僵尸状态) 恢复
-                if (record != null
-                        && ("PAUSED".equals(record.getStatus()) || "DOWNLOADING".equals(record.getStatus()))) {
-                    log.info("恢复下载任务: {}, 原状态: {}", id, record.getStatus());
-                    // 如果是 DOWNLOADING 状态恢复，先修正为 PAUSED，确保 start() 能正常处理
-                    if ("DOWNLOADING".equals(record.getStatus())) {
-                        record.setStatus("PAUSED");
-                        repository.save(record);
-                    }
-
-                    DownloadTaskContext newCtx = new DownloadTaskContext(record, repository, 8);
-                    activeContexts.put(id, newCtx);
-                    newCtx.start();
-                }
-            }
+            scheduler.resume(id);
         }
     }
 
-    // 定时推送数据
-    @Scheduled(fixedRate = 800)
-    public void pushProgress() {
-        try {
-            List<Map<String, Object>> updates = new ArrayList<>();
-            for (DownloadTaskContext ctx : activeContexts.values()) {
-                updates.add(enrichRecordData(ctx.getRecord()));
-            }
-            if (!updates.isEmpty()) {
-                messagingTemplate.convertAndSend("/topic/progress", updates);
-            }
-        } catch (Exception e) {
-            e.printStackTrace(); // 打印错误堆栈，防止定时任务终止
-        }
-    }
-
-    private Map<String, Object> enrichRecordData(DownloadRecord r) {
+    private Map<String, Object> enrichRecordData(RecordSummary r, boolean withChunks) {
         Map<String, Object> map = new HashMap<>();
         map.put("id", r.getId());
         map.put("fileName", r.getFileName());
@@ -182,59 +422,73 @@ public class DownloadController {
         map.put("status", r.getStatus());
         map.put("totalSize", r.getTotalSize());
         map.put("createdTime", r.getCreatedTime());
+        map.put("chunkCount", r.getChunkCount());
+        map.put("checksum", r.getChecksum());
+        map.put("treeHash", r.getTreeHash());
 
-        DownloadTaskContext ctx = activeContexts.get(r.getId());
+        DownloadTaskContext ctx = scheduler.get(r.getId());
         if (ctx != null) {
             map.put("status", ctx.getStatus()); // 实时状态
             map.put("speed", ctx.getGlobalSpeed()); // 实时速度
             map.put("supportRange", ctx.getRecord().getSupportRange() != null ? ctx.getRecord().getSupportRange() : true);
+            // 运行中的任务 totalSize、文件名可能刚探测出来，尚未入库
+            map.put("fileName", ctx.getRecord().getFileName());
+            map.put("totalSize", ctx.getRecord().getTotalSize());
 
             long downloaded = 0;
             for (ChunkInfo c : ctx.getChunkMap().values()) {
                 downloaded += (c.getCurrent().get() - c.getStart());
             }
             map.put("downloaded", downloaded);
-            // 仅传输 ChunkInfo 必要的字段给前端绘图
-            map.put("chunks", ctx.getChunkMap().values());
+            map.put("chunkCount", ctx.getChunkMap().size());
+            map.put("connections", ctx.getThreadCount()); // 目标连接数 (自适应模式下动态变化)
+            if (ctx.getMirrorSet() != null) {
+                map.put("mirrors", ctx.getMirrorSet().snapshot());
+            }
         } else {
-            // 离线/历史任务
+            // 离线/历史任务：使用保存进度时同步更新的列，不读取分片
             map.put("speed", 0);
             map.put("supportRange", r.getSupportRange() != null ? r.getSupportRange() : true);
+            if ("FINISHED".equals(r.getStatus())) {
+                map.put("downloaded", r.getTotalSize() == null ? 0 : r.getTotalSize());
+            } else {
+                map.put("downloaded", r.getDownloadedBytes() != null ? r.getDownloadedBytes() : 0);
+            }
+        }
+        if (withChunks) {
+            map.put("chunks", loadChunks(r.getId()));
+        }
+        return map;
+    }
 
-            long downloaded = 0;
-            boolean chunksLoaded = false;
-
-            // 从数据库恢复chunks信息
-            if (r.getChunksJson() != null && !r.getChunksJson().isEmpty()) {
+    private Collection<?> loadChunks(String id) {
+        DownloadTaskContext ctx = scheduler.get(id);
+        if (ctx != null) {
+            // 仅传输 ChunkInfo 必要的字段给前端绘图
+            return ctx.getChunkMap().values();
+        }
+        List<Map<String, Object>> chunkList = new ArrayList<>();
+        for (ChunkRecord row : chunkRepository.findByTaskId(id)) {
+            Map<String, Object> chunk = new HashMap<>();
+            chunk.put("id", row.getChunkId());
+            chunk.put("start", row.getStartPos());
+            chunk.put("end", row.getEndPos());
+            chunk.put("current", row.getCurrentPos());
+            chunk.put("colorIndex", row.getColorIndex());
+            chunk.put("finished", row.isFinished());
+            chunkList.add(chunk);
+        }
+        if (chunkList.isEmpty()) {
+            // 旧版本保存的 JSON
+            DownloadRecord record = repository.findById(id).orElse(null);
+            if (record != null && record.getChunksJson() != null && !record.getChunksJson().isEmpty()) {
                 try {
-                    List<Map<String, Object>> chunkList = JSON.parseObject(r.getChunksJson(), List.class);
-                    map.put("chunks", chunkList);
-
-                    // 计算已下载大小
-                    for (Map<String, Object> chunk : chunkList) {
-                        long start = ((Number) chunk.get("start")).longValue();
-                        // 兼容 current 和 currentPos
-                        Object currentObj = chunk.get("current");
-                        if (currentObj == null)
-                            currentObj = chunk.get("currentPos");
-                        long current = currentObj != null ? ((Number) currentObj).longValue() : start;
-
-                        downloaded += (current - start);
-                    }
-                    chunksLoaded = true;
+                    return JSON.parseObject(record.getChunksJson(), List.class);
                 } catch (Exception e) {
                     // 解析失败
                 }
             }
-
-            if ("FINISHED".equals(r.getStatus())) {
-                map.put("downloaded", r.getTotalSize() == null ? 0 : r.getTotalSize());
-            } else {
-                // 如果没有chunks信息或者解析失败，且不是完成状态，则显示0（或者之前保存的值，但这里没有保存字段）
-                // 改进：如果有chunksJson，用计算值；否则为0
-                map.put("downloaded", downloaded);
-            }
         }
-        return map;
+        return chunkList;
     }
 }
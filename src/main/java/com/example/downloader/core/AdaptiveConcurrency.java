@@ -0,0 +1,94 @@
+package com.example.downloader.core;
+
+import com.example.downloader.config.DownloaderProperties;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 自适应并发连接数 (AIMD)
+ * <p>
+ * 从少量连接开始，每个评估窗口比较平均吞吐：吞吐随上次加连接明显上升则再加一个 (加性增)；
+ * 吞吐没有上升说明已到瓶颈 (带宽、限速或服务器)，撤回上次增加的连接并保持一段时间后再试探；
+ * 窗口内出现 429/503 则连接数减半 (乘性减)，并在保持期内不超过减半后的值。
+ * 由任务的监控线程每秒调用 {@link #update}，线程不安全。
+ * </p>
+ */
+@Slf4j
+public class AdaptiveConcurrency {
+    private static final int HOLD_WINDOWS = 5; // 撤回或减半后保持的窗口数
+
+    private final String taskId;
+    private final int min;
+    private final int max;
+    private final int windowTicks;
+    private final double growthRatio;
+
+    private int target;
+    private int ticks;
+    private long speedSum;
+    private boolean throttled;
+    private long lastRate = -1; // 上一窗口的平均吞吐
+    private boolean probing; // 上一窗口是否增加了连接
+    private int hold; // 剩余保持窗口数
+
+    public AdaptiveConcurrency(String taskId, DownloaderProperties.Concurrency config) {
+        this.taskId = taskId;
+        this.min = Math.max(1, config.getMin());
+        this.max = Math.max(min, Math.min(config.getMax(), 32));
+        this.windowTicks = Math.max(1, config.getWindowSeconds());
+        this.growthRatio = config.getGrowthRatio();
+        this.target = Math.max(min, Math.min(config.getInitial(), max));
+    }
+
+    public int getTarget() {
+        return target;
+    }
+
+    /**
+     * 记录一秒的采样，窗口结束时调整目标连接数
+     *
+     * @param speed     任务本秒的总吞吐 (bytes/s)
+     * @param active    本秒实际运行的连接数
+     * @param throttled 本秒是否有分片收到 429/503
+     * @return 新的目标连接数
+     */
+    public int update(long speed, int active, boolean throttled) {
+        speedSum += speed;
+        this.throttled |= throttled;
+        if (++ticks < windowTicks)
+            return target;
+
+        long rate = speedSum / ticks;
+        boolean wasThrottled = this.throttled;
+        ticks = 0;
+        speedSum = 0;
+        this.throttled = false;
+
+        int old = target;
+        if (wasThrottled) {
+            target = Math.max(min, target / 2);
+            hold = HOLD_WINDOWS;
+            probing = false;
+        } else if (active < target) {
+            // 剩余区间不足以拆出更多分片，连接数没有达到目标，不再继续增加
+            probing = false;
+        } else if (hold > 0) {
+            hold--;
+        } else if (probing && lastRate >= 0 && rate <= lastRate * (1 + growthRatio)) {
+            // 上次增加的连接没有带来明显提升：撤回并保持
+            target = Math.max(min, target - 1);
+            hold = HOLD_WINDOWS;
+            probing = false;
+        } else if (target < max) {
+            target++;
+            probing = true;
+        } else {
+            probing = false;
+        }
+        lastRate = rate;
+        if (target != old) {
+            log.info("任务 {} 自适应并发: {} -> {} (吞吐 {} KB/s{})", taskId, old, target, rate / 1024,
+                    wasThrottled ? ", 服务器限流" : "");
+        }
+        return target;
+    }
+}
@@ -0,0 +1,278 @@
+package com.example.downloader.core;
+
+import com.example.downloader.entity.DownloadRecord;
+import com.example.downloader.model.ChunkInfo;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.methods.AsyncByteConsumer;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * 非阻塞分片下载
+ * <p>
+ * ASYNC 引擎下 {@link ChunkWorker} 的替代实现：请求由 HttpAsyncClient 的 IO 事件循环驱动，
+ * 响应数据在回调中交给 {@link ChunkSink} (写入流水线)，不占用任何线程等待网络或磁盘。进度、重试、
+ * 区间缩短 (重分配) 和退出回调与 ChunkWorker 保持一致。限速或写入缓冲区用尽时暂停读取事件，
+ * 到期后由调度线程恢复，事件循环线程从不睡眠。
+ * </p>
+ */
+@Slf4j
+public class AsyncChunkTransfer {
+    private static final int BUFFER_SIZE = 16384;
+    private static final long SATURATED_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(10); // 缓冲区用尽时检查间隔
+
+    private final ChunkInfo chunkInfo;
+    private final DownloadRecord record;
+    private final AtomicBoolean running;
+    private final ChunkSink sink;
+    private final HttpClientFactory httpClientFactory;
+    private final BandwidthGovernor bandwidthGovernor;
+    private final DownloadMetrics metrics;
+    private final RetryPolicy retryPolicy;
+    private final HostCircuitBreaker breaker;
+    private final ScheduledExecutorService timer; // 完成回调、重试延迟与限速恢复 (引擎的 transferTimer)
+    private final Consumer<ChunkInfo> onExit;
+    private final AtomicBoolean exited = new AtomicBoolean(false);
+    private volatile Exception lastError;
+
+    public AsyncChunkTransfer(ChunkInfo chunkInfo, DownloadRecord record, AtomicBoolean running,
+                              ChunkSink sink, HttpClientFactory httpClientFactory,
+                              BandwidthGovernor bandwidthGovernor, DownloadMetrics metrics, RetryPolicy retryPolicy,
+                              HostCircuitBreaker breaker, ScheduledExecutorService timer, Consumer<ChunkInfo> onExit) {
+        this.chunkInfo = chunkInfo;
+        this.record = record;
+        this.running = running;
+        this.sink = sink;
+        this.httpClientFactory = httpClientFactory;
+        this.bandwidthGovernor = bandwidthGovernor;
+        this.metrics = metrics;
+        this.retryPolicy = retryPolicy;
+        this.breaker = breaker;
+        this.timer = timer;
+        this.onExit = onExit;
+    }
+
+    public void start() {
+        next();
+    }
+
+    /**
+     * 发起下一次请求，或在完成、停止、连续失败达到上限 (交回任务) 时退出
+     */
+    private void next() {
+        int maxAttempts = retryPolicy.getMaxAttempts();
+        if (!running.get() || chunkInfo.isFinished() || chunkInfo.getErrorCount() >= maxAttempts) {
+            if (chunkInfo.getErrorCount() >= maxAttempts) {
+                log.warn("任务 [{}] Chunk {} 连续失败 {} 次，交回任务", record.getId(), chunkInfo.getId(), maxAttempts);
+                metrics.chunkFailed(chunkInfo, lastError);
+            }
+            exit();
+            return;
+        }
+        if (!breaker.tryAcquire(sourceUrl())) {
+            // 主机熔断中：不占用连接，分片交回任务，熔断期满后由监控线程恢复
+            log.debug("任务 [{}] Chunk {} 的主机熔断中，暂停下载", record.getId(), chunkInfo.getId());
+            exit();
+            return;
+        }
+
+        boolean supportRange = record.getSupportRange() != null ? record.getSupportRange() : true;
+        boolean ranged = supportRange && record.getTotalSize() > 0;
+        long requestedEnd = chunkInfo.getEnd();
+        HttpGet request = new HttpGet(sourceUrl());
+        sink.begin(chunkInfo.getCurrent().get());
+        if (ranged) {
+            request.addHeader("Range", "bytes=" + chunkInfo.getCurrent().get() + "-" + requestedEnd);
+        }
+
+        try {
+            httpClientFactory.getAsyncClient(record).execute(HttpAsyncMethods.create(request),
+                    new ChunkConsumer(ranged, requestedEnd), new FutureCallback<Boolean>() {
+                        @Override
+                        public void completed(Boolean result) {
+                            onCompleted(ranged);
+                        }
+
+                        @Override
+                        public void failed(Exception ex) {
+                            onFailed(ranged, ex);
+                        }
+
+                        @Override
+                        public void cancelled() {
+                            onFailed(ranged, new InterruptedIOException("请求已取消"));
+                        }
+                    });
+        } catch (RuntimeException e) {
+            onFailed(ranged, e);
+        }
+    }
+
+    /**
+     * 响应结束或失败后先等待已接收的数据写完 (current 才准确)，再在调度线程上判定完成、续传或重试
+     */
+    private void onCompleted(boolean ranged) {
+        sink.drainAsync(error -> timer.execute(() -> {
+            if (error != null) {
+                afterFailed(ranged, error);
+            } else {
+                afterCompleted(ranged);
+            }
+        }));
+    }
+
+    private void onFailed(boolean ranged, Exception e) {
+        sink.drainAsync(error -> timer.execute(() -> afterFailed(ranged, e)));
+    }
+
+    private void afterCompleted(boolean ranged) {
+        // 判定完成 (end 为闭区间)
+        if (ranged) {
+            if (chunkInfo.getCurrent().get() > chunkInfo.getEnd())
+                chunkInfo.setFinished(true);
+        } else {
+            // 流读完就是完成
+            chunkInfo.setFinished(true);
+            record.setTotalSize(chunkInfo.getCurrent().get());
+        }
+        // 未写满时 (连接提前结束) 从当前位置继续请求
+        next();
+    }
+
+    private void afterFailed(boolean ranged, Exception e) {
+        if (ranged && chunkInfo.getCurrent().get() > chunkInfo.getEnd()) {
+            // 区间已写满后主动中止的响应
+            chunkInfo.setFinished(true);
+            exit();
+            return;
+        }
+        if (!running.get()) {
+            exit();
+            return;
+        }
+        chunkInfo.setErrorCount(chunkInfo.getErrorCount() + 1);
+        lastError = e;
+        breaker.onFailure(sourceUrl(), e);
+        metrics.retry(chunkInfo, e);
+        if (chunkInfo.getErrorCount() >= retryPolicy.getMaxAttempts()) {
+            next();
+            return;
+        }
+        long delay = retryPolicy.delayMillis(chunkInfo.getErrorCount(), e);
+        log.warn("任务 [{}] Chunk {} 下载出错, {} ms 后重试 {}/{}: {}", record.getId(), chunkInfo.getId(), delay,
+                chunkInfo.getErrorCount(), retryPolicy.getMaxAttempts(), e.toString());
+        timer.schedule(this::next, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 分片分配的镜像地址，未分配时使用任务地址
+     */
+    private String sourceUrl() {
+        return chunkInfo.getSourceUrl() != null ? chunkInfo.getSourceUrl() : record.getUrl();
+    }
+
+    private void exit() {
+        if (exited.compareAndSet(false, true)) {
+            onExit.accept(chunkInfo);
+        }
+    }
+
+    /**
+     * 响应体消费者，运行在 IO 事件循环线程上
+     */
+    private class ChunkConsumer extends AsyncByteConsumer<Boolean> {
+        private final boolean ranged;
+        private final long requestedEnd;
+        private final BandwidthGovernor.Throttle throttle;
+        private final long requestStart = System.nanoTime();
+
+        ChunkConsumer(boolean ranged, long requestedEnd) {
+            super(BUFFER_SIZE);
+            this.ranged = ranged;
+            this.requestedEnd = requestedEnd;
+            this.throttle = bandwidthGovernor.newThrottle(record.getId(), sourceUrl());
+        }
+
+        @Override
+        protected void onResponseReceived(HttpResponse response) throws IOException {
+            metrics.recordTtfb(System.nanoTime() - requestStart);
+            int code = response.getStatusLine().getStatusCode();
+            if (code >= 300) {
+                chunkInfo.setHttpStatus(code);
+                throw new HttpStatusException(response);
+            }
+            breaker.onSuccess(sourceUrl());
+            if (!ranged) {
+                // 流式下载不支持续传，每次都从 0 覆盖
+                chunkInfo.getCurrent().set(0);
+                sink.begin(0);
+            }
+        }
+
+        @Override
+        protected void onByteReceived(ByteBuffer buf, IOControl ioctrl) throws IOException {
+            if (!running.get()) {
+                throw new InterruptedIOException("分片已停止");
+            }
+            int len = buf.remaining();
+            long waitNanos = throttle.reserve(len);
+            if (ranged) {
+                // end 可能被重分配缩短，超出部分丢弃并中止响应
+                long remaining = chunkInfo.getEnd() + 1 - sink.position();
+                if (remaining <= 0)
+                    throw new RangeFilledException();
+                if (len > remaining)
+                    buf.limit(buf.position() + (int) remaining);
+            }
+            sink.write(buf);
+            if (ranged && sink.position() > chunkInfo.getEnd() && chunkInfo.getEnd() < requestedEnd)
+                throw new RangeFilledException(); // 区间被缩短，不再读取剩余响应；正常读完则保留连接复用
+
+            if (waitNanos > 0 || sink.isSaturated()) {
+                // 令牌不足或写入缓冲区用尽：暂停读取事件，到期后恢复，不阻塞事件循环
+                ioctrl.suspendInput();
+                timer.schedule(() -> resumeInput(ioctrl), waitNanos > 0 ? waitNanos : SATURATED_POLL_NANOS,
+                        TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private void resumeInput(IOControl ioctrl) {
+            if (running.get() && sink.isSaturated()) {
+                timer.schedule(() -> resumeInput(ioctrl), SATURATED_POLL_NANOS, TimeUnit.NANOSECONDS);
+            } else {
+                ioctrl.requestInput();
+            }
+        }
+
+        @Override
+        protected Boolean buildResult(HttpContext context) {
+            return Boolean.TRUE;
+        }
+    }
+
+    /**
+     * 区间已写满，中止剩余响应 (连接随之关闭，不归还连接池)
+     */
+    private static class RangeFilledException extends IOException {
+        RangeFilledException() {
+            super("分片区间已写满");
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.example.downloader.core;
+
+import com.example.downloader.config.DownloaderProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 全局带宽调控器
+ * <p>
+ * 由全局、单任务、单主机三级令牌桶组成。全局预算按 max-min 公平原则分给活跃任务：
+ * 有上限或实际用不满份额的任务只拿需要的部分，余下的平均分给其它任务；
+ * 任务暂停或结束后其份额立即重新分配。
+ * </p>
+ */
+@Slf4j
+@Component
+public class BandwidthGovernor {
+
+    private final int batchSize;
+    private final TokenBucket globalBucket;
+    private final Map<String, TaskShare> activeTasks = new ConcurrentHashMap<>();
+    private final Map<String, Long> taskLimits = new ConcurrentHashMap<>();
+    private final Map<String, TokenBucket> hostBuckets = new ConcurrentHashMap<>();
+
+    public BandwidthGovernor(DownloaderProperties properties) {
+        DownloaderProperties.Bandwidth config = properties.getBandwidth();
+        this.batchSize = config.getBatchSize();
+        this.globalBucket = new TokenBucket(config.getGlobalLimit());
+        config.getHostLimits().forEach(this::setHostLimit);
+    }
+
+    /**
+     * 任务开始下载时登记
+     */
+    public void register(String taskId) {
+        activeTasks.computeIfAbsent(taskId, id -> new TaskShare());
+        redistribute();
+    }
+
+    /**
+     * 任务暂停、完成或取消时注销，释放的带宽分给其它任务
+     */
+    public void unregister(String taskId) {
+        if (activeTasks.remove(taskId) != null) {
+            redistribute();
+        }
+    }
+
+    /**
+     * 为一次分片请求创建限速器 (每个工作器线程独享)
+     */
+    public Throttle newThrottle(String taskId, String url) {
+        TaskShare share = activeTasks.get(taskId);
+        TokenBucket host = hostBuckets.get(hostOf(url));
+        return new Throttle(share != null ? share.bucket : null, host);
+    }
+
+    public long getGlobalLimit() {
+        return globalBucket.getRate();
+    }
+
+    public void setGlobalLimit(long limit) {
+        globalBucket.setRate(Math.max(0, limit));
+        redistribute();
+        log.info("全局限速调整为 {} B/s", limit);
+    }
+
+    public void setTaskLimit(String taskId, long limit) {
+        if (limit > 0) {
+            taskLimits.put(taskId, limit);
+        } else {
+            taskLimits.remove(taskId);
+        }
+        redistribute();
+    }
+
+    public void setHostLimit(String host, long limit) {
+        if (limit > 0) {
+            hostBuckets.computeIfAbsent(host, h -> new TokenBucket(limit)).setRate(limit);
+        } else {
+            hostBuckets.remove(host);
+        }
+    }
+
+    /**
+     * 当前限速配置与各任务实际分配
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("globalLimit", globalBucket.getRate());
+        map.put("taskLimits", new HashMap<>(taskLimits));
+        Map<String, Long> hosts = new HashMap<>();
+        hostBuckets.forEach((h, b) -> hosts.put(h, b.getRate()));
+        map.put("hostLimits", hosts);
+        Map<String, Object> tasks = new HashMap<>();
+        activeTasks.forEach((id, share) -> {
+            Map<String, Object> t = new HashMap<>();
+            t.put("allocated", share.bucket.getRate());
+            t.put("speed", share.lastSpeed);
+            tasks.put(id, t);
+        });
+        map.put("tasks", tasks);
+        return map;
+    }
+
+    /**
+     * 每秒根据各任务实际用量重新分配全局预算
+     */
+    @Scheduled(fixedRate = 1000)
+    public void redistribute() {
+        synchronized (this) {
+            List<Map.Entry<String, TaskShare>> entries = new ArrayList<>(activeTasks.entrySet());
+            long global = globalBucket.getRate();
+            // 计算每个任务的需求：显式上限，或者按实际用量判断为网络受限时的用量 × 1.5
+            Map<String, Long> demands = new HashMap<>();
+            for (Map.Entry<String, TaskShare> e : entries) {
+                TaskShare share = e.getValue();
+                share.sample();
+                long demand = taskLimits.getOrDefault(e.getKey(), Long.MAX_VALUE);
+                long allocated = share.bucket.getRate();
+                if (global > 0 && allocated > 0 && share.lastSpeed < allocated * 8 / 10) {
+                    demand = Math.min(demand, Math.max(share.lastSpeed * 3 / 2, batchSize));
+                }
+                demands.put(e.getKey(), demand);
+            }
+
+            if (global <= 0) {
+                // 不限全局，仅应用任务自身上限
+                for (Map.Entry<String, TaskShare> e : entries) {
+                    long demand = demands.get(e.getKey());
+                    e.getValue().bucket.setRate(demand == Long.MAX_VALUE ? 0 : demand);
+                }
+                return;
+            }
+
+            // 注水算法：按需求从小到大分配，满足不了的任务平分剩余预算
+            entries.sort(Comparator.comparingLong(e -> demands.get(e.getKey())));
+            long remaining = global;
+            for (int i = 0; i < entries.size(); i++) {
+                long fairShare = remaining / (entries.size() - i);
+                long alloc = Math.max(1, Math.min(demands.get(entries.get(i).getKey()), fairShare));
+                entries.get(i).getValue().bucket.setRate(alloc);
+                remaining -= alloc;
+            }
+        }
+    }
+
+    private static String hostOf(String url) {
+        try {
+            String host = URI.create(url).getHost();
+            return host != null ? host : "";
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+    }
+
+    private static class TaskShare {
+        final TokenBucket bucket = new TokenBucket(0);
+        long lastConsumed;
+        long lastSampleNanos = System.nanoTime();
+        volatile long lastSpeed;
+
+        void sample() {
+            long now = System.nanoTime();
+            long consumed = bucket.getConsumed();
+            long elapsed = now - lastSampleNanos;
+            if (elapsed >= 500_000_000L) {
+                lastSpeed = (consumed - lastConsumed) * 1_000_000_000L / elapsed;
+                lastConsumed = consumed;
+                lastSampleNanos = now;
+            }
+        }
+    }
+
+    /**
+     * 单个工作器的限速器
+     * <p>
+     * 一次从各级令牌桶批量领取 batchSize 个令牌，之后在本地额度内消费，
+     * 热路径上大部分读取不需要访问共享的令牌桶。
+     * </p>
+     */
+    public class Throttle {
+        private final TokenBucket taskBucket;
+        private final TokenBucket hostBucket;
+        private long allowance;
+
+        Throttle(TokenBucket taskBucket, TokenBucket hostBucket) {
+            this.taskBucket = taskBucket;
+            this.hostBucket = hostBucket;
+        }
+
+        /**
+         * 记录已读取 n 字节，额度用尽时按批领取令牌 (可能阻塞)
+         */
+        public void consume(int n) throws InterruptedException {
+            allowance -= n;
+            while (allowance < 0) {
+                globalBucket.acquire(batchSize);
+                if (taskBucket != null)
+                    taskBucket.acquire(batchSize);
+                if (hostBucket != null)
+                    hostBucket.acquire(batchSize);
+                allowance += batchSize;
+            }
+        }
+
+        /**
+         * consume 的非阻塞版本：领取令牌但不等待，返回需要暂停读取的纳秒数
+         */
+        public long reserve(int n) {
+            allowance -= n;
+            long waitNanos = 0;
+            while (allowance < 0) {
+                waitNanos = Math.max(waitNanos, globalBucket.reserve(batchSize));
+                if (taskBucket != null)
+                    waitNanos = Math.max(waitNanos, taskBucket.reserve(batchSize));
+                if (hostBucket != null)
+                    waitNanos = Math.max(waitNanos, hostBucket.reserve(batchSize));
+                allowance += batchSize;
+            }
+            return waitNanos;
+        }
+    }
+}
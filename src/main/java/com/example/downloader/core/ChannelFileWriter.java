@@ -0,0 +1,70 @@
+package com.example.downloader.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * FileChannel 定位写入器
+ * <p>
+ * 使用 write(ByteBuffer, long) 定位写入，不修改通道位置，多个线程可并发写入不同区域而无需加锁。
+ * FileChannel 没有定位的聚集写入，聚集写入使用另一个通道先设置位置再写入 (只有写入线程使用，竞争很少)
+ * </p>
+ */
+class ChannelFileWriter implements ChunkFileWriter {
+    private final FileChannel channel;
+    private final FileChannel gather; // 聚集写入专用，访问时以自身加锁
+
+    ChannelFileWriter(File file) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            this.gather = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void write(byte[] buf, int off, int len, long position) throws IOException {
+        write(ByteBuffer.wrap(buf, off, len), position);
+    }
+
+    @Override
+    public void write(ByteBuffer src, long position) throws IOException {
+        while (src.hasRemaining()) {
+            position += channel.write(src, position);
+        }
+    }
+
+    @Override
+    public void write(ByteBuffer[] srcs, long position) throws IOException {
+        long remaining = 0;
+        for (ByteBuffer src : srcs) {
+            remaining += src.remaining();
+        }
+        synchronized (gather) {
+            gather.position(position);
+            while (remaining > 0) {
+                remaining -= gather.write(srcs);
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        // fsync 作用于文件本身，也包含经 gather 通道写入的数据
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            gather.close();
+        } finally {
+            channel.close();
+        }
+    }
+}
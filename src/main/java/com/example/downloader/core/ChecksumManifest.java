@@ -0,0 +1,86 @@
+package com.example.downloader.core;
+
+import com.alibaba.fastjson.JSON;
+import lombok.Data;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+
+/**
+ * 块校验清单
+ * <p>
+ * 描述一个文件按固定大小切块后每块的 SHA-256，用于增量修复：只重新下载与清单不一致的块。
+ * 已完成任务的清单可从 /api/download/{id}/manifest 获取，与 {@link ChecksumTracker} 的块划分一致。
+ * </p>
+ * <pre>
+ * {"size": 文件大小, "blockSize": 块大小, "blocks": ["块0 SHA-256 十六进制", ...], "sha256Tree": "可选，哈希树根"}
+ * </pre>
+ */
+@Data
+public class ChecksumManifest {
+    private static final int MAX_LENGTH = 64 * 1024 * 1024; // 清单最大字节数
+
+    private long size;
+    private int blockSize;
+    private List<String> blocks;
+    private String sha256Tree;
+
+    /**
+     * 解析并校验清单
+     *
+     * @throws IllegalArgumentException 清单格式错误
+     */
+    public static ChecksumManifest parse(String json) {
+        ChecksumManifest manifest;
+        try {
+            manifest = JSON.parseObject(json, ChecksumManifest.class);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("清单不是有效的 JSON: " + e.getMessage());
+        }
+        if (manifest == null || manifest.size < 0 || manifest.blockSize <= 0 || manifest.blocks == null)
+            throw new IllegalArgumentException("清单缺少 size、blockSize 或 blocks");
+        long count = (manifest.size + manifest.blockSize - 1) / manifest.blockSize;
+        if (manifest.blocks.size() != count)
+            throw new IllegalArgumentException("清单块数 " + manifest.blocks.size() + " 与文件大小不符，应为 " + count);
+        for (int i = 0; i < manifest.blocks.size(); i++) {
+            String hash = manifest.blocks.get(i);
+            if (hash == null || !hash.toLowerCase().matches("[0-9a-f]{64}"))
+                throw new IllegalArgumentException("清单第 " + i + " 块的哈希无效");
+            manifest.blocks.set(i, hash.toLowerCase());
+        }
+        if (manifest.sha256Tree != null && !manifest.sha256Tree.equalsIgnoreCase(manifest.treeHash()))
+            throw new IllegalArgumentException("清单的 sha256Tree 与块哈希不一致");
+        return manifest;
+    }
+
+    /**
+     * 从旁路地址 (如 file.iso.manifest.json) 获取清单
+     */
+    public static ChecksumManifest fetch(CloseableHttpClient client, String url) throws IOException {
+        try (CloseableHttpResponse response = client.execute(new HttpGet(url))) {
+            int code = response.getStatusLine().getStatusCode();
+            if (code != 200)
+                throw new IOException("获取清单失败: HTTP " + code);
+            if (response.getEntity().getContentLength() > MAX_LENGTH)
+                throw new IOException("清单过大");
+            return parse(EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * 哈希树根：各块哈希按顺序拼接后的 SHA-256
+     */
+    public String treeHash() {
+        MessageDigest tree = ChecksumTracker.newDigest();
+        for (String hash : blocks) {
+            tree.update(ChecksumTracker.fromHex(hash));
+        }
+        return ChecksumTracker.toHex(tree.digest());
+    }
+}
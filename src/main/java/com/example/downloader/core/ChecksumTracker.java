@@ -0,0 +1,382 @@
+package com.example.downloader.core;
+
+import com.example.downloader.model.ChunkInfo;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 下载校验
+ * <p>
+ * 文件按固定大小切块，数据写入文件后立即更新所在块的 SHA-256，块写满时得到该块的哈希。
+ * 同一块的数据必须连续写入才能边写边算，从块中间开始写入的块 (拆分点不在块边界) 在完成时从磁盘补算，
+ * 每个分片边界最多两块。完成时把各块哈希按顺序拼接后再做一次 SHA-256 得到哈希树根 (sha256-tree)，不需要重读文件。
+ * </p>
+ * <p>
+ * 整文件 SHA-256 无法由块哈希合成，只在期望校验值为 sha256 时计算：顺序摘要在下载过程中跟随已连续下载完成的前缀
+ * 从磁盘读取 (刚写入的数据通常还在页缓存中)，完成时只需补读尾部。
+ * </p>
+ */
+@Slf4j
+public class ChecksumTracker {
+    public static final String SHA256 = "sha256";
+    public static final String SHA256_TREE = "sha256-tree";
+    private static final int READ_BUFFER = 1024 * 1024;
+
+    private final String taskId;
+    @Getter
+    private final int blockSize;
+    private final Map<Integer, byte[]> leaves = new ConcurrentHashMap<>(); // 块序号 -> 块哈希
+    private final Set<Integer> unsaved = ConcurrentHashMap.newKeySet(); // 尚未写入数据库的块
+    private final Map<Integer, OpenBlock> open = new ConcurrentHashMap<>(); // 正在写入的块
+
+    private final MessageDigest fileDigest; // 整文件顺序摘要，不需要时为空
+    private volatile long digested; // 顺序摘要已读到的位置
+    private final AtomicBoolean digesting = new AtomicBoolean(false);
+
+    public ChecksumTracker(String taskId, int blockSize, boolean fileDigest) {
+        this.taskId = taskId;
+        this.blockSize = blockSize;
+        this.fileDigest = fileDigest ? newDigest() : null;
+    }
+
+    /**
+     * 包装写入器：每次写入成功后更新所在块的摘要
+     */
+    public ChunkFileWriter wrap(ChunkFileWriter writer) {
+        return new ChunkFileWriter() {
+            @Override
+            public void write(byte[] buf, int off, int len, long position) throws IOException {
+                writer.write(buf, off, len, position);
+                update(ByteBuffer.wrap(buf, off, len), position);
+            }
+
+            @Override
+            public void write(ByteBuffer src, long position) throws IOException {
+                ByteBuffer data = src.duplicate();
+                writer.write(src, position);
+                update(data, position);
+            }
+
+            @Override
+            public void write(ByteBuffer[] srcs, long position) throws IOException {
+                ByteBuffer[] data = new ByteBuffer[srcs.length];
+                for (int i = 0; i < srcs.length; i++) {
+                    data[i] = srcs[i].duplicate();
+                }
+                writer.write(srcs, position);
+                for (ByteBuffer d : data) {
+                    int len = d.remaining();
+                    update(d, position);
+                    position += len;
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                writer.flush();
+            }
+
+            @Override
+            public void checkpoint(boolean sync) throws IOException {
+                writer.checkpoint(sync);
+            }
+
+            @Override
+            public void close() throws IOException {
+                writer.close();
+            }
+        };
+    }
+
+    void update(ByteBuffer data, long position) {
+        while (data.hasRemaining()) {
+            int index = (int) (position / blockSize);
+            long blockStart = (long) index * blockSize;
+            long blockEnd = blockStart + blockSize;
+            int n = (int) Math.min(data.remaining(), blockEnd - position);
+            OpenBlock block;
+            if (position == blockStart) {
+                block = new OpenBlock(newDigest(), blockStart);
+                open.put(index, block);
+            } else {
+                block = open.get(index);
+            }
+            if (block != null) {
+                synchronized (block) {
+                    if (block.next == position) {
+                        ByteBuffer part = data.duplicate();
+                        part.limit(part.position() + n);
+                        block.digest.update(part);
+                        block.next += n;
+                        if (block.next == blockEnd) {
+                            leaves.put(index, block.digest.digest());
+                            unsaved.add(index);
+                            open.remove(index, block);
+                        }
+                    } else {
+                        // 不连续 (另一个分片在块中间开始写入)，完成时从磁盘补算
+                        open.remove(index, block);
+                    }
+                }
+            }
+            position += n;
+            data.position(data.position() + n);
+        }
+    }
+
+    /**
+     * 载入数据库中保存的块哈希
+     */
+    public void restore(Map<Integer, String> hashes) {
+        for (Map.Entry<Integer, String> e : hashes.entrySet()) {
+            leaves.put(e.getKey(), fromHex(e.getValue()));
+        }
+    }
+
+    /**
+     * 取出自上次调用以来新计算的块哈希
+     */
+    public Map<Integer, String> drainUnsaved() {
+        Map<Integer, String> result = new HashMap<>();
+        for (Iterator<Integer> it = unsaved.iterator(); it.hasNext();) {
+            Integer index = it.next();
+            it.remove();
+            byte[] hash = leaves.get(index);
+            if (hash != null)
+                result.put(index, toHex(hash));
+        }
+        return result;
+    }
+
+    /**
+     * 续传前校验：每个未完成分片只校验 current 之前最后一个完整块，不一致时 current 回退到该块起点；
+     * current 所在的不完整块从磁盘读入摘要，之后的写入接着计算
+     *
+     * @return 回退的分片数
+     */
+    public int verifyOnResume(Collection<ChunkInfo> chunks, File file) throws IOException {
+        if (!file.exists())
+            return 0;
+        int rolledBack = 0;
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            for (ChunkInfo c : chunks) {
+                long current = c.getCurrent().get();
+                if (c.isFinished() || current <= c.getStart())
+                    continue;
+                int index = (int) (current / blockSize);
+                long blockStart = (long) index * blockSize;
+                long prevStart = blockStart - blockSize;
+                byte[] expected = leaves.get(index - 1);
+                if (index > 0 && prevStart >= c.getStart() && expected != null) {
+                    if (!Arrays.equals(expected, hashRange(ch, prevStart, blockStart))) {
+                        log.warn("任务 {} 分片 {} 块 {} 校验不一致，从 {} 重新下载", taskId, c.getId(), index - 1, prevStart);
+                        leaves.remove(index - 1);
+                        c.getCurrent().set(prevStart);
+                        c.setLastRecordBytes(prevStart);
+                        current = prevStart;
+                        index--;
+                        blockStart = prevStart;
+                        rolledBack++;
+                    }
+                }
+                if (current > blockStart && blockStart >= c.getStart()) {
+                    OpenBlock block = new OpenBlock(newDigest(), blockStart);
+                    digestRange(ch, block.digest, blockStart, current);
+                    block.next = current;
+                    open.put(index, block);
+                }
+            }
+        }
+        return rolledBack;
+    }
+
+    /**
+     * 在 executor 上把整文件顺序摘要推进到 limit (已连续下载完成的前缀)，已有推进在运行时忽略
+     */
+    public void advanceFileDigest(Executor executor, File file, long limit) {
+        if (fileDigest == null || limit <= digested || !digesting.compareAndSet(false, true))
+            return;
+        executor.execute(() -> {
+            try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                digestFileTo(ch, limit);
+            } catch (IOException e) {
+                log.warn("任务 {} 计算文件摘要失败", taskId, e);
+            } finally {
+                digesting.set(false);
+            }
+        });
+    }
+
+    /**
+     * 已连续下载完成的前缀长度
+     */
+    public static long contiguousPrefix(Collection<ChunkInfo> chunks) {
+        List<ChunkInfo> sorted = new ArrayList<>(chunks);
+        sorted.sort(Comparator.comparingLong(ChunkInfo::getStart));
+        long prefix = 0;
+        for (ChunkInfo c : sorted) {
+            if (c.getStart() > prefix)
+                break;
+            if (!c.isFinished()) {
+                prefix = Math.max(prefix, c.getCurrent().get());
+                break;
+            }
+            prefix = Math.max(prefix, c.getEnd() + 1);
+        }
+        return prefix;
+    }
+
+    /**
+     * 下载完成时计算结果：补算缺失的块哈希，得到哈希树根，需要时补完整文件 SHA-256
+     */
+    public Result finish(File file, long totalSize) throws IOException {
+        int count = (int) ((totalSize + blockSize - 1) / blockSize);
+        // 已连续写到文件末尾的最后一块 (不足一块) 直接结束
+        for (Map.Entry<Integer, OpenBlock> e : open.entrySet()) {
+            OpenBlock block = e.getValue();
+            synchronized (block) {
+                if (block.next == totalSize && e.getKey() == count - 1) {
+                    leaves.put(e.getKey(), block.digest.digest());
+                    unsaved.add(e.getKey());
+                }
+            }
+        }
+        open.clear();
+
+        Result result = new Result();
+        int computed = 0;
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MessageDigest tree = newDigest();
+            for (int i = 0; i < count; i++) {
+                byte[] hash = leaves.get(i);
+                if (hash == null) {
+                    hash = hashRange(ch, (long) i * blockSize, Math.min((long) (i + 1) * blockSize, totalSize));
+                    leaves.put(i, hash);
+                    unsaved.add(i);
+                    computed++;
+                }
+                tree.update(hash);
+            }
+            result.treeHash = toHex(tree.digest());
+            if (fileDigest != null) {
+                digestFileTo(ch, totalSize);
+                result.sha256 = toHex(fileDigest.digest());
+            }
+        }
+        log.info("任务 {} 校验值计算完成: {} 块，从磁盘补算 {} 块", taskId, count, computed);
+        return result;
+    }
+
+    private synchronized void digestFileTo(FileChannel ch, long limit) throws IOException {
+        if (limit > digested) {
+            digestRange(ch, fileDigest, digested, limit);
+            digested = limit;
+        }
+    }
+
+    static byte[] hashRange(FileChannel ch, long from, long to) throws IOException {
+        MessageDigest md = newDigest();
+        digestRange(ch, md, from, to);
+        return md.digest();
+    }
+
+    private static void digestRange(FileChannel ch, MessageDigest md, long from, long to) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate((int) Math.min(READ_BUFFER, Math.max(to - from, 1)));
+        long pos = from;
+        while (pos < to) {
+            buf.clear();
+            if (to - pos < buf.capacity())
+                buf.limit((int) (to - pos));
+            int n = ch.read(buf, pos);
+            if (n < 0)
+                throw new IOException("文件长度不足: " + pos);
+            md.update(buf.array(), 0, n);
+            pos += n;
+        }
+    }
+
+    /**
+     * 解析期望校验值，支持 "sha256:hex"、"sha256-tree:hex" 和不带前缀的 64 位十六进制 (sha256)
+     *
+     * @return {算法, 小写十六进制}，格式不支持时返回 null
+     */
+    public static String[] parseExpected(String expected) {
+        if (expected == null)
+            return null;
+        String value = expected.trim().toLowerCase();
+        String algorithm = SHA256;
+        int colon = value.indexOf(':');
+        if (colon >= 0) {
+            algorithm = value.substring(0, colon);
+            value = value.substring(colon + 1);
+        }
+        if (!(SHA256.equals(algorithm) || SHA256_TREE.equals(algorithm)) || !value.matches("[0-9a-f]{64}"))
+            return null;
+        return new String[] { algorithm, value };
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+    /**
+     * 校验结果
+     */
+    @Getter
+    public static class Result {
+        private String treeHash; // 哈希树根
+        private String sha256; // 整文件 SHA-256，未计算时为空
+
+        /**
+         * 与期望校验值比较
+         */
+        public boolean matches(String expected) {
+            String[] parsed = parseExpected(expected);
+            if (parsed == null)
+                return false;
+            return parsed[1].equals(SHA256_TREE.equals(parsed[0]) ? treeHash : sha256);
+        }
+    }
+
+    private static class OpenBlock {
+        final MessageDigest digest;
+        long next; // 下一个应写入的位置
+
+        OpenBlock(MessageDigest digest, long next) {
+            this.digest = digest;
+            this.next = next;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.downloader.core;
+
+import com.example.downloader.config.DownloaderProperties;
+import com.example.downloader.model.WriteMode;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 分片文件写入器
+ * <p>
+ * 每个任务共享一个写入器，各分片按绝对位置写入。分片之间范围不重叠，
+ * 因此实现类只需保证单次写入的原子性。
+ * </p>
+ */
+public interface ChunkFileWriter extends Closeable {
+
+    /**
+     * 将 buf[off, off+len) 写入文件的 position 处
+     */
+    void write(byte[] buf, int off, int len, long position) throws IOException;
+
+    /**
+     * 将 src 的剩余数据写入文件的 position 处，返回时 src 已读完。
+     * 默认实现经过堆数组，实现类应直接写入以免直接内存缓冲区多一次拷贝
+     */
+    default void write(ByteBuffer src, long position) throws IOException {
+        int len = src.remaining();
+        if (src.hasArray()) {
+            write(src.array(), src.arrayOffset() + src.position(), len, position);
+            src.position(src.limit());
+        } else {
+            byte[] copy = new byte[len];
+            src.get(copy);
+            write(copy, 0, len, position);
+        }
+    }
+
+    /**
+     * 聚集写入：srcs 依次写入文件从 position 开始的连续区域，返回时全部读完。
+     * 默认实现逐个写入，实现类可合并为一次系统调用
+     */
+    default void write(ByteBuffer[] srcs, long position) throws IOException {
+        for (ByteBuffer src : srcs) {
+            int len = src.remaining();
+            write(src, position);
+            position += len;
+        }
+    }
+
+    /**
+     * 将已写入的数据刷到磁盘
+     */
+    void flush() throws IOException;
+
+    /**
+     * 进度日志检查点，在日志写入之前调用。sync 为 true 时日志会 fsync，数据必须先刷盘
+     */
+    default void checkpoint(boolean sync) throws IOException {
+        if (sync)
+            flush();
+    }
+
+    /**
+     * 按写入策略打开目标文件
+     * <p>
+     * MMAP 仅适用于已预分配大小的文件，大小未知或映射失败时退化为 CHANNEL
+     * </p>
+     */
+    static ChunkFileWriter open(File file, DownloaderProperties.Io config, DownloadMetrics metrics) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists())
+            parent.mkdirs();
+        WriteMode mode = config.getWriteMode();
+        if (mode == WriteMode.LOCKED) {
+            return new LockedFileWriter(file, metrics);
+        }
+        if (mode == WriteMode.MMAP && file.length() > 0) {
+            try {
+                return new MappedFileWriter(file, config.getMmapSegmentSize(), config.getMmapMaxSegments());
+            } catch (IOException | RuntimeException e) {
+                LoggerFactory.getLogger(ChunkFileWriter.class).warn("文件 {} 内存映射失败，退化为 CHANNEL 写入", file, e);
+            }
+        }
+        return new ChannelFileWriter(file);
+    }
+}
@@ -1,8 +1,12 @@
 package com.example.downloader.core;
 
+import com.example.downloader.config.DownloaderProperties;
+import com.example.downloader.entity.BlockHash;
+import com.example.downloader.entity.ChunkRecord;
 import com.example.downloader.entity.DownloadRecord;
 import com.example.downloader.model.ChunkInfo;
-import com.example.downloader.repo.DownloadRepository;
+import com.example.downloader.repo.BlockHashRepository;
+import com.example.downloader.repo.ChunkRepository;
 import com.example.downloader.util.FileUtils;
 import com.alibaba.fastjson.JSON;
 import lombok.extern.slf4j.Slf4j;
@@ -13,82 +17,166 @@ import org.apache.http.client.methods.HttpHead;
 import org.apache.http.impl.client.CloseableHttpClient;
 
 import java.io.File;
+import java.io.Flushable;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 分片管理器
  * <p>
- * 负责分片的创建、恢复、保存和重分配逻辑
+ * 负责分片的创建、恢复、保存和重分配逻辑。分片进度按行保存在 download_chunks 表，下载过程中定期把进度追加到 {@link ProgressJournal}，
+ * 恢复时先读取数据库快照，再回放日志中更新的进度。块哈希 ({@link ChecksumTracker}) 保存在 download_blocks 表，随分片进度一起写入。
  * </p>
  */
 @Slf4j
 public class ChunkManager {
     private final DownloadRecord record;
-    private final DownloadRepository repository;
+    private final ChunkRepository chunkRepository;
+    private final BlockHashRepository blockHashRepository;
+    private final ChecksumTracker checksum; // 未启用校验时为空
     private final Map<String, ChunkInfo> chunkMap = new ConcurrentHashMap<>();
+    private final Map<String, ChunkRecord> persisted = new HashMap<>(); // 上次写入数据库的分片状态
     private final HttpClientFactory httpClientFactory;
+    private final DownloaderProperties.Journal journalConfig;
+    private ProgressJournal journal;
+    private boolean journalActive; // 关闭后迟到的定时检查点不能重新创建日志
 
-    public ChunkManager(DownloadRecord record, DownloadRepository repository, HttpClientFactory httpClientFactory) {
+    public ChunkManager(DownloadRecord record, ChunkRepository chunkRepository,
+            BlockHashRepository blockHashRepository, HttpClientFactory httpClientFactory,
+            DownloaderProperties.Journal journalConfig, DownloaderProperties.Checksum checksumConfig) {
         this.record = record;
-        this.repository = repository;
+        this.chunkRepository = chunkRepository;
+        this.blockHashRepository = blockHashRepository;
         this.httpClientFactory = httpClientFactory;
+        this.journalConfig = journalConfig;
+        String[] expected = ChecksumTracker.parseExpected(record.getExpectedChecksum());
+        if (checksumConfig.isEnabled() || expected != null) {
+            boolean fileDigest = expected != null && ChecksumTracker.SHA256.equals(expected[0]);
+            // 块大小随任务保存，配置修改后已有的块哈希仍然有效
+            if (record.getBlockSize() == null)
+                record.setBlockSize(Math.max(checksumConfig.getBlockSize(), 4096));
+            this.checksum = new ChecksumTracker(record.getId(), record.getBlockSize(), fileDigest);
+        } else {
+            this.checksum = null;
+        }
     }
 
     public Map<String, ChunkInfo> getChunkMap() {
         return chunkMap;
     }
 
+    public ChecksumTracker getChecksum() {
+        return checksum;
+    }
+
     /**
-     * 预处理：处理文件名、大小、重定向
+     * 预处理：处理文件名、大小、重定向，校验镜像
      */
     public void prepare() throws IOException {
-        try (CloseableHttpClient client = httpClientFactory.createHttpClient(record)) {
-            // 1. 尝试 HEAD
-            HttpHead head = new HttpHead(record.getUrl());
-            try (CloseableHttpResponse response = client.execute(head)) {
-                if (response.getStatusLine().getStatusCode() == 200) {
-                    parseResponseHeaders(response);
-                }
-            } catch (Exception e) {
-                // HEAD 失败尝试 GET (部分服务器禁用了 HEAD)
+        // 共享连接池中的客户端，不能关闭
+        CloseableHttpClient client = httpClientFactory.getHttpClient(record);
+        Probe probe = probe(client, record.getUrl());
+        if (probe.size > 0)
+            record.setTotalSize(probe.size);
+        if (probe.ranged)
+            record.setSupportRange(true);
+        record.setEtag(probe.etag);
+        record.setLastModified(probe.lastModified);
+
+        // 3. 确定文件名
+        if (record.getFileName() == null) {
+            String name = FileUtils.getUniqueFileName(record.getSavePath(), record.getUrl());
+            record.setFileName(name);
+        }
+
+        // 4. 占位 (只有已知大小才占位)
+        if (record.getTotalSize() != null && record.getTotalSize() > 0) {
+            File file = new File(record.getSavePath(), record.getFileName());
+            if (!file.getParentFile().exists())
+                file.getParentFile().mkdirs();
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(record.getTotalSize());
             }
+        } else {
+            // 未知大小时，标记为 -1
+            if (record.getTotalSize() == null)
+                record.setTotalSize(-1L);
+            record.setSupportRange(false); // 未知大小强制不支持 Range
+        }
 
-            // 2. 如果 HEAD 没拿到大小，尝试 GET (Range: 0-0) 探测
-            if (record.getTotalSize() == null || record.getTotalSize() <= 0) {
-                HttpGet get = new HttpGet(record.getUrl());
-                get.addHeader("Range", "bytes=0-0");
-                try (CloseableHttpResponse response = client.execute(get)) {
-                    parseResponseHeaders(response);
+        if (record.getMirrors() != null) {
+            validateMirrors(client);
+        }
+    }
+
+    /**
+     * 校验镜像：必须支持 Range 且大小与主地址一致，双方都给出强 ETag 时 ETag 也必须一致。
+     * 不一致或无法访问的镜像被剔除，不影响任务本身
+     */
+    private void validateMirrors(CloseableHttpClient client) {
+        List<String> accepted = new ArrayList<>();
+        boolean ranged = record.getSupportRange() != null && record.getSupportRange() && record.getTotalSize() > 0;
+        for (String url : MirrorSet.parse(record.getMirrors())) {
+            if (!ranged) {
+                log.warn("任务 {} 主地址不支持 Range，忽略镜像 {}", record.getId(), url);
+                continue;
+            }
+            try {
+                Probe probe = probe(client, url);
+                if (probe.size != record.getTotalSize()) {
+                    log.warn("任务 {} 镜像 {} 大小不一致: {} != {}", record.getId(), url, probe.size, record.getTotalSize());
+                } else if (!probe.ranged) {
+                    log.warn("任务 {} 镜像 {} 不支持 Range", record.getId(), url);
+                } else if (isStrong(probe.etag) && isStrong(record.getEtag()) && !probe.etag.equals(record.getEtag())) {
+                    log.warn("任务 {} 镜像 {} ETag 不一致: {} != {}", record.getId(), url, probe.etag, record.getEtag());
+                } else {
+                    accepted.add(url);
                 }
+            } catch (IOException e) {
+                log.warn("任务 {} 镜像 {} 无法访问: {}", record.getId(), url, e.toString());
             }
+        }
+        log.info("任务 {} 可用镜像 {} 个", record.getId(), accepted.size());
+        record.setMirrors(accepted.isEmpty() ? null : String.join("\n", accepted));
+    }
+
+    private static boolean isStrong(String etag) {
+        return etag != null && !etag.startsWith("W/");
+    }
 
-            // 3. 确定文件名
-            if (record.getFileName() == null) {
-                String name = FileUtils.getUniqueFileName(record.getSavePath(), record.getUrl());
-                record.setFileName(name);
+    /**
+     * 探测地址的大小、Range 支持和校验信息
+     */
+    private Probe probe(CloseableHttpClient client, String url) throws IOException {
+        Probe probe = new Probe();
+        // 1. 尝试 HEAD
+        HttpHead head = new HttpHead(url);
+        try (CloseableHttpResponse response = client.execute(head)) {
+            if (response.getStatusLine().getStatusCode() == 200) {
+                parseResponseHeaders(response, probe);
             }
+        } catch (Exception e) {
+            // HEAD 失败尝试 GET (部分服务器禁用了 HEAD)
+        }
 
-            // 4. 占位 (只有已知大小才占位)
-            if (record.getTotalSize() != null && record.getTotalSize() > 0) {
-                File file = new File(record.getSavePath(), record.getFileName());
-                if (!file.getParentFile().exists())
-                    file.getParentFile().mkdirs();
-                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
-                    raf.setLength(record.getTotalSize());
-                }
-            } else {
-                // 未知大小时，标记为 -1
-                if (record.getTotalSize() == null)
-                    record.setTotalSize(-1L);
-                record.setSupportRange(false); // 未知大小强制不支持 Range
+        // 2. 如果 HEAD 没拿到大小，尝试 GET (Range: 0-0) 探测
+        if (probe.size <= 0) {
+            HttpGet get = new HttpGet(url);
+            get.addHeader("Range", "bytes=0-0");
+            try (CloseableHttpResponse response = client.execute(get)) {
+                parseResponseHeaders(response, probe);
+                if (response.getStatusLine().getStatusCode() == 206)
+                    probe.ranged = true;
             }
         }
+        return probe;
     }
 
-    private void parseResponseHeaders(CloseableHttpResponse response) {
+    private void parseResponseHeaders(CloseableHttpResponse response, Probe probe) {
         Header lenHeader = response.getFirstHeader("Content-Length");
         Header rangeHeader = response.getFirstHeader("Accept-Ranges");
 
@@ -103,14 +191,27 @@ public class ChunkManager {
                     if (slash > 0)
                         len = Long.parseLong(val.substring(slash + 1));
                 }
-                record.setTotalSize(len);
+                probe.size = len;
             } catch (NumberFormatException ignored) {
             }
         }
 
         if (rangeHeader != null && "bytes".equalsIgnoreCase(rangeHeader.getValue())) {
-            record.setSupportRange(true);
+            probe.ranged = true;
         }
+        Header etag = response.getFirstHeader("ETag");
+        if (etag != null)
+            probe.etag = etag.getValue();
+        Header lastModified = response.getFirstHeader("Last-Modified");
+        if (lastModified != null)
+            probe.lastModified = lastModified.getValue();
+    }
+
+    private static class Probe {
+        long size = -1;
+        boolean ranged;
+        String etag;
+        String lastModified;
     }
 
     /**
@@ -122,6 +223,109 @@ public class ChunkManager {
         chunkMap.put(chunk.getId(), chunk);
     }
 
+    /**
+     * 整个文件已就绪 (命中下载缓存)：记录一个已完成的分片
+     */
+    public void markComplete(long size) {
+        ChunkInfo chunk = new ChunkInfo(UUID.randomUUID().toString(), 0, size - 1, size, 0);
+        chunk.setFinished(true);
+        chunkMap.put(chunk.getId(), chunk);
+    }
+
+    /**
+     * 增量修复：按校验清单逐块比较本地文件，只有不一致的块需要重新下载
+     * <p>
+     * 块大小与清单一致时直接使用下载时保存的块哈希，其余块从磁盘计算。连续的一致块和不一致块各自合并为一个分片，
+     * 一致的分片标记为已完成，之后按普通续传流程只下载未完成的分片；期望校验值设为清单的哈希树根。
+     * 只比较对齐的块，内容整体平移 (插入、删除) 的文件会被判定为大部分块不一致。
+     * </p>
+     *
+     * @return 需要重新下载的块数
+     */
+    public synchronized int planRepair(ChecksumManifest manifest) throws IOException {
+        if (record.getSupportRange() == null || !record.getSupportRange())
+            throw new IllegalStateException("下载地址不支持 Range，无法增量修复");
+        int blockSize = manifest.getBlockSize();
+        long size = manifest.getSize();
+        Map<Integer, String> saved = new HashMap<>();
+        if (Objects.equals(record.getBlockSize(), blockSize)) {
+            for (BlockHash row : blockHashRepository.findByTaskId(record.getId())) {
+                saved.put(row.getBlockIndex(), row.getHash());
+            }
+        }
+
+        File file = new File(record.getSavePath(), record.getFileName());
+        if (!file.getParentFile().exists())
+            file.getParentFile().mkdirs();
+        DownloadCache.detach(file); // 文件可能是下载缓存的硬链接
+        long oldSize;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            oldSize = raf.length();
+            raf.setLength(size);
+        }
+
+        // 逐块比较，得到每块是否一致
+        List<String> blocks = manifest.getBlocks();
+        boolean[] same = new boolean[blocks.size()];
+        int changed = 0;
+        int computed = 0;
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            for (int i = 0; i < blocks.size(); i++) {
+                long start = (long) i * blockSize;
+                long end = Math.min(start + blockSize, size);
+                // 保存的块哈希只在该块的范围没有因文件大小变化而改变时可用
+                String local = end <= oldSize && end == Math.min(start + blockSize, oldSize) ? saved.get(i) : null;
+                if (local == null) {
+                    local = ChecksumTracker.toHex(ChecksumTracker.hashRange(ch, start, end));
+                    computed++;
+                }
+                same[i] = local.equals(blocks.get(i));
+                if (!same[i])
+                    changed++;
+            }
+        }
+
+        // 相邻且状态相同的块合并为一个分片
+        chunkRepository.deleteByTaskId(record.getId());
+        chunkMap.clear();
+        persisted.clear();
+        int colorIndex = 0;
+        for (int i = 0; i < blocks.size();) {
+            int j = i;
+            while (j + 1 < blocks.size() && same[j + 1] == same[i])
+                j++;
+            long start = (long) i * blockSize;
+            long end = Math.min((long) (j + 1) * blockSize, size) - 1;
+            ChunkInfo chunk = new ChunkInfo(UUID.randomUUID().toString(), start, end, same[i] ? end + 1 : start,
+                    colorIndex++);
+            chunk.setFinished(same[i]);
+            chunkMap.put(chunk.getId(), chunk);
+            i = j + 1;
+        }
+
+        // 一致块的哈希即清单中的哈希；不一致的块下载时重新计算
+        blockHashRepository.deleteByTaskId(record.getId());
+        Map<Integer, String> hashes = new HashMap<>();
+        for (int i = 0; i < blocks.size(); i++) {
+            if (same[i])
+                hashes.put(i, blocks.get(i));
+        }
+        blockHashRepository.upsertAll(record.getId(), hashes);
+        File journalFile = journalFile();
+        if (journalFile.exists() && !journalFile.delete())
+            log.warn("删除进度日志 {} 失败", journalFile);
+
+        record.setTotalSize(size);
+        record.setBlockSize(blockSize);
+        record.setExpectedChecksum(ChecksumTracker.SHA256_TREE + ":" + manifest.treeHash());
+        record.setChecksum(null);
+        record.setTreeHash(changed == 0 ? manifest.treeHash() : null);
+        saveChunks();
+        log.info("任务 {} 增量修复: {} 块中 {} 块不一致，需下载 {} 字节 (从磁盘计算 {} 块)", record.getId(), blocks.size(),
+                changed, size - record.getDownloadedBytes(), computed);
+        return changed;
+    }
+
     /**
      * 分片文件
      */
@@ -139,31 +343,72 @@ public class ChunkManager {
 
     /**
      * 保存分片信息到数据库
+     * <p>
+     * 只批量写入自上次保存以来 end、进度或完成状态有变化的分片，
+     * 同时更新记录上的已下载字节数和分片数 (由调用方持久化)
+     * </p>
      */
-    public void saveChunks() {
-        if (!chunkMap.isEmpty()) {
-            // 将chunkMap转换为JSON字符串保存
-            List<Map<String, Object>> chunkList = new ArrayList<>();
-            for (ChunkInfo chunk : chunkMap.values()) {
-                Map<String, Object> chunkData = new HashMap<>();
-                chunkData.put("id", chunk.getId());
-                chunkData.put("start", chunk.getStart());
-                chunkData.put("end", chunk.getEnd());
-                chunkData.put("current", chunk.getCurrentPos());
-                chunkData.put("colorIndex", chunk.getColorIndex());
-                chunkData.put("finished", chunk.isFinished());
-                chunkList.add(chunkData);
+    public synchronized void saveChunks() {
+        if (chunkMap.isEmpty())
+            return;
+        List<ChunkRecord> changed = new ArrayList<>();
+        long downloaded = 0;
+        for (ChunkInfo chunk : chunkMap.values()) {
+            downloaded += chunk.getCurrentPos() - chunk.getStart();
+            ChunkRecord row = toRecord(chunk);
+            ChunkRecord last = persisted.get(chunk.getId());
+            if (last == null || last.getEndPos() != row.getEndPos() || last.getCurrentPos() != row.getCurrentPos()
+                    || last.isFinished() != row.isFinished()) {
+                changed.add(row);
             }
-            String jsonStr = JSON.toJSONString(chunkList);
-            record.setChunksJson(jsonStr);
-            log.info("保存 {} 个chunks，JSON长度: {}", chunkList.size(), jsonStr.length());
         }
+        chunkRepository.upsertAll(changed);
+        if (checksum != null) {
+            blockHashRepository.upsertAll(record.getId(), checksum.drainUnsaved());
+        }
+        record.setDownloadedBytes(downloaded);
+        record.setChunkCount(chunkMap.size());
+        record.setChunksJson(null); // 旧版 JSON 已迁移到分片表
+        for (ChunkRecord row : changed) {
+            persisted.put(row.getChunkId(), row);
+        }
+        log.info("保存 {} 个chunks，其中变化 {} 个", chunkMap.size(), changed.size());
     }
 
     /**
      * 从数据库恢复分片信息
      */
     public void restoreChunks() {
+        List<ChunkRecord> rows = chunkRepository.findByTaskId(record.getId());
+        for (ChunkRecord row : rows) {
+            ChunkInfo chunk = new ChunkInfo(row.getChunkId(), row.getStartPos(), row.getEndPos(), row.getCurrentPos(),
+                    row.getColorIndex());
+            chunk.setFinished(row.isFinished());
+            chunkMap.put(chunk.getId(), chunk);
+            persisted.put(row.getChunkId(), row);
+        }
+        if (!rows.isEmpty()) {
+            log.info("恢复 {} 个chunk信息", rows.size());
+        } else {
+            restoreLegacyChunks();
+        }
+        if (checksum != null) {
+            Map<Integer, String> hashes = new HashMap<>();
+            for (BlockHash row : blockHashRepository.findByTaskId(record.getId())) {
+                hashes.put(row.getBlockIndex(), row.getHash());
+            }
+            checksum.restore(hashes);
+        }
+        // 日志比数据库快照新 (崩溃前最后几秒的进度)，覆盖快照
+        if (journalConfig.isEnabled()) {
+            ProgressJournal.replay(journalFile(), chunkMap);
+        }
+    }
+
+    /**
+     * 兼容旧版本保存在 chunksJson 中的分片信息，下次保存时迁移到分片表
+     */
+    private void restoreLegacyChunks() {
         String chunksJson = record.getChunksJson();
         if (chunksJson != null && !chunksJson.isEmpty()) {
             try {
@@ -180,33 +425,190 @@ public class ChunkManager {
                     chunk.setFinished(finished);
                     chunkMap.put(id, chunk);
                 }
-                log.info("恢复 {} 个chunk信息", chunkMap.size());
+                log.info("从旧版 chunksJson 恢复 {} 个chunk信息", chunkMap.size());
             } catch (Exception e) {
                 log.error("恢复chunk信息失败", e);
             }
         }
     }
 
+    private ChunkRecord toRecord(ChunkInfo chunk) {
+        ChunkRecord row = new ChunkRecord();
+        row.setTaskId(record.getId());
+        row.setChunkId(chunk.getId());
+        row.setStartPos(chunk.getStart());
+        row.setEndPos(chunk.getEnd());
+        row.setCurrentPos(chunk.getCurrentPos());
+        row.setColorIndex(chunk.getColorIndex());
+        row.setFinished(chunk.isFinished());
+        return row;
+    }
+
+    /**
+     * 开始记录进度日志
+     */
+    public synchronized void openJournal() {
+        journalActive = journalConfig.isEnabled();
+    }
+
     /**
-     * 动态重分配逻辑
+     * 将分片进度变化追加到进度日志 (数据文件已刷盘或无需刷盘)
      */
-    public void tryRebalance() {
-        // 这里可以添加动态重分配逻辑
-        // 需要根据 colorIndex 传递给新分片
+    public void checkpoint() {
+        checkpoint(null);
+    }
+
+    /**
+     * 将分片进度变化追加到进度日志
+     * <p>
+     * 与 performSplit 互斥，保证拆分产生的新分片和缩短的 end 在同一批次中记录。
+     * dataSync 在读取进度之后、写入日志之前调用，用于先把数据文件刷盘
+     * </p>
+     */
+    public synchronized void checkpoint(Flushable dataSync) {
+        if (!journalActive || chunkMap.isEmpty())
+            return;
+        try {
+            if (journal == null) {
+                journal = new ProgressJournal(journalFile(), journalConfig.isSync(), journalConfig.getCompactThreshold());
+            }
+            journal.append(chunkMap.values(), dataSync);
+        } catch (IOException e) {
+            log.warn("任务 {} 写入进度日志失败", record.getId(), e);
+        }
+    }
+
+    /**
+     * 关闭进度日志，任务完成或取消时同时删除
+     */
+    public synchronized void closeJournal(boolean delete) {
+        journalActive = false;
+        if (delete) {
+            if (journal != null) {
+                journal.delete();
+            } else if (journalConfig.isEnabled()) {
+                new ProgressJournal(journalFile(), false, 0).delete();
+            }
+        } else if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                log.warn("任务 {} 关闭进度日志失败", record.getId(), e);
+            }
+        }
+        journal = null;
+    }
+
+    private File journalFile() {
+        return new File(journalConfig.getDir(), record.getId() + ".journal");
+    }
+
+    /**
+     * 动态重分配逻辑 (Work Stealing)
+     * <p>
+     * 在仍有工作器运行的分片中，选出预计剩余时间最长的分片 (速度未知时按剩余字节)，
+     * 将其剩余区间的后半段拆出作为新分片返回，由空闲线程接手。
+     * </p>
+     *
+     * @param activeIds    正在运行的分片 ID
+     * @param minSplitSize 拆分后每段的最小字节数
+     * @return 新分片，没有可拆分的分片时返回 null
+     */
+    public ChunkInfo tryRebalance(Set<String> activeIds, long minSplitSize) {
+        ChunkInfo victim = null;
+        long worstEta = -1;
+        for (ChunkInfo c : chunkMap.values()) {
+            if (c.isFinished() || !activeIds.contains(c.getId()))
+                continue;
+            long remaining = c.getEnd() + 1 - c.getCurrent().get();
+            if (remaining < 2 * minSplitSize)
+                continue;
+            long eta = remaining / Math.max(c.getSpeed(), 1);
+            if (eta > worstEta) {
+                worstEta = eta;
+                victim = c;
+            }
+        }
+        return victim == null ? null : performSplit(victim, minSplitSize);
     }
 
     /**
      * 执行分片拆分
+     * <p>
+     * 只缩短父分片的 end，不重启其工作器：工作器每次写入前都会重新读取 end，写入流水线写盘时也按 end 截断，
+     * 因此不会写入新分片的区间。
+     * </p>
+     *
+     * @return 新分片，剩余区间不足两倍 minSplitSize 时返回 null
      */
-    public synchronized void performSplit(ChunkInfo parent) {
-        long mid = parent.getCurrent().get() + (parent.getEnd() - parent.getCurrent().get()) / 2;
-        long oldEnd = parent.getEnd();
+    public synchronized ChunkInfo performSplit(ChunkInfo parent, long minSplitSize) {
+        long current = parent.getCurrent().get();
+        long remaining = parent.getEnd() + 1 - current;
+        if (parent.isFinished() || remaining < 2 * minSplitSize)
+            return null;
+        return splitAt(parent, current + remaining / 2);
+    }
 
-        parent.setEnd(mid);
-        // 新分片赋予新的 ColorIndex (简单累加)
-        ChunkInfo newChunk = new ChunkInfo(UUID.randomUUID().toString(), mid + 1, oldEnd, mid + 1,
-                parent.getColorIndex() + 1);
+    /**
+     * 在指定位置拆分分片：父分片保留 at 之前的区间，新分片从 at 开始
+     *
+     * @return 新分片，at 不在父分片尚未下载的区间内时返回 null
+     */
+    public synchronized ChunkInfo splitAt(ChunkInfo parent, long at) {
+        long oldEnd = parent.getEnd();
+        if (parent.isFinished() || at <= parent.getCurrent().get() || at > oldEnd)
+            return null;
 
+        parent.setEnd(at - 1);
+        ChunkInfo newChunk = new ChunkInfo(UUID.randomUUID().toString(), at, oldEnd, at, nextColorIndex());
         chunkMap.put(newChunk.getId(), newChunk);
+        log.info("任务 {} 拆分分片 {}: 剩余 {} 字节，新分片 {} [{}-{}]", record.getId(), parent.getId(),
+                oldEnd + 1 - parent.getCurrent().get(), newChunk.getId(), at, oldEnd);
+        return newChunk;
+    }
+
+    /**
+     * 区间包含 offset 的分片，流式分片 (end 为 -1) 包含 start 之后的所有位置
+     */
+    public ChunkInfo findChunk(long offset) {
+        for (ChunkInfo c : chunkMap.values()) {
+            if (c.getStart() <= offset && (c.getEnd() < 0 || offset <= c.getEnd()))
+                return c;
+        }
+        return null;
+    }
+
+    /**
+     * 从 offset 开始已写入文件的连续字节数 (边下边读)
+     * <p>
+     * 已完成分片的整个区间和未完成分片的 [start, current) 都已写盘 (current 只在写盘后推进)。
+     * 与拆分并发时可能暂时少算，调用方稍后重试即可。
+     * </p>
+     */
+    public long availableFrom(long offset) {
+        List<ChunkInfo> sorted = new ArrayList<>(chunkMap.values());
+        sorted.sort(Comparator.comparingLong(ChunkInfo::getStart));
+        long next = offset;
+        for (ChunkInfo c : sorted) {
+            if (c.getStart() > next)
+                break;
+            if (c.getEnd() >= 0 && c.getEnd() < next)
+                continue;
+            if (!c.isFinished() || c.getEnd() < 0) {
+                // 流式分片完成时 end 仍为 -1，以 current 为准
+                next = Math.max(next, c.getCurrent().get());
+                break;
+            }
+            next = c.getEnd() + 1;
+        }
+        return next - offset;
+    }
+
+    private int nextColorIndex() {
+        int max = -1;
+        for (ChunkInfo c : chunkMap.values()) {
+            max = Math.max(max, c.getColorIndex());
+        }
+        return max + 1;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,54 @@
+package com.example.downloader.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * 分片数据的写入端
+ * <p>
+ * 每个分片工作器持有一个，按接收顺序追加响应数据，由它写盘并推进分片进度 (current)。
+ * 流水线模式下数据先进入缓冲区、由写入线程异步写盘，current 只包含已写入文件的数据，
+ * 读取方应使用 {@link #position()} 判断接收位置，并在重新请求或退出前调用 drain。
+ * </p>
+ */
+public interface ChunkSink {
+
+    /**
+     * 开始接收一次响应，数据从文件的 position 处开始追加 (须等于已写入的 current)
+     */
+    void begin(long position);
+
+    /**
+     * 下一个接收字节在文件中的位置
+     */
+    long position();
+
+    /**
+     * 追加 src 的剩余数据，返回时 src 已读完
+     *
+     * @throws IOException 之前提交的数据写盘失败
+     */
+    void write(ByteBuffer src) throws IOException;
+
+    default void write(byte[] buf, int off, int len) throws IOException {
+        write(ByteBuffer.wrap(buf, off, len));
+    }
+
+    /**
+     * 缓冲池已用尽，非阻塞读取方应暂停读取直到恢复 (阻塞读取方在 write 中等待)
+     */
+    boolean isSaturated();
+
+    /**
+     * 提交未满的缓冲区并等待已提交的数据全部写入
+     *
+     * @throws IOException 写盘失败
+     */
+    void drain() throws IOException;
+
+    /**
+     * 非阻塞的 drain：全部写入后在写入线程上回调，参数为写盘错误 (没有错误时为 null)
+     */
+    void drainAsync(Consumer<IOException> then);
+}
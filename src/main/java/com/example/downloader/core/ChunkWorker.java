@@ -6,32 +6,49 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.conn.EofSensorInputStream;
 
 import java.io.*;
 import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 /**
  * 分片下载工作器
  * <p>
- * 负责单个分片的下载执行，支持错误重试和进度跟踪
+ * 负责单个分片的下载执行，支持错误重试 (按 {@link RetryPolicy} 退避) 和进度跟踪
  * </p>
  */
 @Slf4j
 public class ChunkWorker extends RecursiveAction {
+    // 读取缓冲区按线程复用，不在每次请求时分配
+    private static final ThreadLocal<byte[]> READ_BUFFER = ThreadLocal.withInitial(() -> new byte[64 * 1024]);
+
     private final ChunkInfo chunkInfo;
     private final DownloadRecord record;
     private final AtomicBoolean running;
-    private final Object fileLock;
+    private final ChunkSink sink; // 写入端，流水线模式下由写入线程写盘并推进进度
     private final HttpClientFactory httpClientFactory;
+    private final BandwidthGovernor bandwidthGovernor;
+    private final DownloadMetrics metrics;
+    private final RetryPolicy retryPolicy;
+    private final HostCircuitBreaker breaker;
+    private final Consumer<ChunkInfo> onExit; // 工作器退出回调，用于触发重分配
 
     public ChunkWorker(ChunkInfo chunkInfo, DownloadRecord record, AtomicBoolean running,
-                      Object fileLock, HttpClientFactory httpClientFactory) {
+                      ChunkSink sink, HttpClientFactory httpClientFactory,
+                      BandwidthGovernor bandwidthGovernor, DownloadMetrics metrics, RetryPolicy retryPolicy,
+                      HostCircuitBreaker breaker, Consumer<ChunkInfo> onExit) {
         this.chunkInfo = chunkInfo;
         this.record = record;
         this.running = running;
-        this.fileLock = fileLock;
+        this.sink = sink;
         this.httpClientFactory = httpClientFactory;
+        this.bandwidthGovernor = bandwidthGovernor;
+        this.metrics = metrics;
+        this.retryPolicy = retryPolicy;
+        this.breaker = breaker;
+        this.onExit = onExit;
     }
 
     public void stopWork() {
@@ -40,80 +57,163 @@ public class ChunkWorker extends RecursiveAction {
 
     @Override
     protected void compute() {
-        // 错误重试循环（最多5次）
-        while (running.get() && !chunkInfo.isFinished() && chunkInfo.getErrorCount() < 5) {
+        try {
+            runWithRetry();
+        } finally {
+            onExit.accept(chunkInfo);
+        }
+    }
+
+    private void runWithRetry() {
+        // 错误重试循环，连续失败达到上限后分片交回任务
+        int maxAttempts = retryPolicy.getMaxAttempts();
+        Exception lastError = null;
+        while (running.get() && !chunkInfo.isFinished() && chunkInfo.getErrorCount() < maxAttempts) {
+            // 多镜像下载时使用分配给分片的镜像
+            String url = chunkInfo.getSourceUrl() != null ? chunkInfo.getSourceUrl() : record.getUrl();
+            if (!breaker.tryAcquire(url)) {
+                // 主机熔断中：不占用连接，分片交回任务，熔断期满后由监控线程恢复
+                log.debug("任务 [{}] Chunk {} 的主机熔断中，暂停下载", record.getId(), chunkInfo.getId());
+                return;
+            }
             try {
-                download();
+                download(url);
             } catch (Exception e) {
+                if (!running.get())
+                    break; // 被停止时中止连接引起的异常
+                lastError = e;
                 chunkInfo.setErrorCount(chunkInfo.getErrorCount() + 1);
-                log.warn("任务 [{}] Chunk {} 下载出错, 重试 {}/5",
-                        record.getId(), chunkInfo.getId(), chunkInfo.getErrorCount());
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException ignored) {
-                }
+                breaker.onFailure(url, e);
+                metrics.retry(chunkInfo, e);
+                if (chunkInfo.getErrorCount() >= maxAttempts)
+                    break;
+                long delay = retryPolicy.delayMillis(chunkInfo.getErrorCount(), e);
+                log.warn("任务 [{}] Chunk {} 下载出错, {} ms 后重试 {}/{}: {}",
+                        record.getId(), chunkInfo.getId(), delay, chunkInfo.getErrorCount(), maxAttempts, e.toString());
+                if (!backoff(delay))
+                    break;
             }
         }
 
-        // 如果错误太多
-        if (chunkInfo.getErrorCount() >= 5) {
-            log.error("任务 [{}] Chunk {} 失败次数过多，已停止", record.getId(), chunkInfo.getId());
+        if (chunkInfo.getErrorCount() >= maxAttempts) {
+            log.warn("任务 [{}] Chunk {} 连续失败 {} 次，交回任务", record.getId(), chunkInfo.getId(), maxAttempts);
+            metrics.chunkFailed(chunkInfo, lastError);
         }
     }
 
-    private void download() throws IOException {
-        CloseableHttpClient client = httpClientFactory.createHttpClient(record);
-        HttpGet request = new HttpGet(record.getUrl());
+    /**
+     * 退避等待，分段睡眠以便及时响应停止 (Retry-After 可能长达数分钟)
+     *
+     * @return 等待结束后是否仍需继续
+     */
+    private boolean backoff(long millis) {
+        long deadline = System.currentTimeMillis() + millis;
+        try {
+            long left;
+            while (running.get() && (left = deadline - System.currentTimeMillis()) > 0) {
+                Thread.sleep(Math.min(left, 200));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return running.get();
+    }
+
+    private void download(String url) throws IOException {
+        // 共享连接池客户端，仅关闭 Response 以归还连接
+        CloseableHttpClient client = httpClientFactory.getHttpClient(record);
+        HttpGet request = new HttpGet(url);
 
         long startPos = chunkInfo.getCurrent().get();
+        long requestedEnd = chunkInfo.getEnd();
         boolean supportRange = record.getSupportRange() != null ? record.getSupportRange() : true;
+        boolean ranged = supportRange && record.getTotalSize() > 0;
 
         // 如果是普通 Range 下载
-        if (supportRange && record.getTotalSize() > 0) {
-            request.addHeader("Range", "bytes=" + startPos + "-" + chunkInfo.getEnd());
+        if (ranged) {
+            request.addHeader("Range", "bytes=" + startPos + "-" + requestedEnd);
         }
         // 如果是不支持 Range 的流式下载，不加 Range 头，直接读
 
-        File targetFile = new File(record.getSavePath(), record.getFileName());
-
-        try (CloseableHttpResponse response = client.execute(request);
-                InputStream is = response.getEntity().getContent();
-                RandomAccessFile raf = new RandomAccessFile(targetFile, "rw")) {
-
-            if (supportRange && record.getTotalSize() > 0) {
-                raf.seek(startPos);
-            } else {
-                // 流式追加模式：如果是刚开始，seek 0；否则（断网重连）其实是不支持的
-                // 这里简化：流式下载每次都覆盖
-                raf.seek(0);
-                chunkInfo.getCurrent().set(0);
+        sink.begin(startPos);
+        boolean eof = false;
+        long requestStart = System.nanoTime();
+        try (CloseableHttpResponse response = client.execute(request)) {
+            metrics.recordTtfb(System.nanoTime() - requestStart);
+            int code = response.getStatusLine().getStatusCode();
+            if (code >= 300) {
+                // 错误响应体不能写入文件；429/503 由监控线程用于下调并发数
+                chunkInfo.setHttpStatus(code);
+                throw new HttpStatusException(response);
             }
+            breaker.onSuccess(url);
+            try (InputStream is = response.getEntity().getContent()) {
+                if (!ranged) {
+                    // 流式追加模式：断网重连其实是不支持的，这里简化：流式下载每次都从 0 覆盖
+                    chunkInfo.getCurrent().set(0);
+                    sink.begin(0);
+                }
 
-            byte[] buf = new byte[16384]; // 16KB buffer
-            int len;
-            while (running.get() && (len = is.read(buf)) != -1) {
-                synchronized (fileLock) {
-                    if (supportRange && record.getTotalSize() > 0) {
-                        raf.seek(chunkInfo.getCurrent().get());
-                    } else {
-                        // 简单的追加写入位置维护
-                        raf.seek(chunkInfo.getCurrent().get());
+                BandwidthGovernor.Throttle throttle = bandwidthGovernor.newThrottle(record.getId(), url);
+                byte[] buf = READ_BUFFER.get();
+                int len;
+                while (running.get()) {
+                    if ((len = is.read(buf)) == -1) {
+                        eof = true;
+                        break;
+                    }
+                    try {
+                        throttle.consume(len);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("限速等待被中断");
+                    }
+                    if (ranged) {
+                        // end 可能被重分配缩短，每次读取后重新检查，超出部分丢弃
+                        long remaining = chunkInfo.getEnd() + 1 - sink.position();
+                        if (remaining <= 0)
+                            break;
+                        if (len > remaining)
+                            len = (int) remaining;
                     }
-                    raf.write(buf, 0, len);
+                    sink.write(buf, 0, len);
+                    if (ranged && sink.position() > chunkInfo.getEnd())
+                        break; // 已收满 (可能已被缩短的) 区间，不再读取剩余响应
                 }
-                chunkInfo.getCurrent().addAndGet(len);
+                if (ranged ? sink.position() <= requestedEnd : !eof) {
+                    // 响应还有未读数据 (被停止或区间被缩短)：关闭流会读完剩余数据才归还连接，直接中止连接
+                    abort(is, request);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // 重试或退出前等待已接收的数据写完，current 才是准确的续传位置
+            try {
+                sink.drain();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
             }
+            throw e;
+        }
+        sink.drain();
 
-            // 判定完成
-            if (supportRange && record.getTotalSize() > 0) {
-                if (chunkInfo.getCurrent().get() >= chunkInfo.getEnd())
-                    chunkInfo.setFinished(true);
-            } else {
-                // 流读完就是完成
+        // 判定完成 (end 为闭区间)
+        if (ranged) {
+            if (chunkInfo.getCurrent().get() > chunkInfo.getEnd())
                 chunkInfo.setFinished(true);
-                // 更新总大小和状态
-                record.setTotalSize(chunkInfo.getCurrent().get());
-            }
+        } else if (eof) {
+            // 流读完就是完成
+            chunkInfo.setFinished(true);
+            // 更新总大小和状态
+            record.setTotalSize(chunkInfo.getCurrent().get());
+        }
+    }
+
+    private static void abort(InputStream is, HttpGet request) throws IOException {
+        if (is instanceof EofSensorInputStream) {
+            ((EofSensorInputStream) is).abortConnection();
+        } else {
+            request.abort();
         }
     }
-}
\ No newline at end of file
+}
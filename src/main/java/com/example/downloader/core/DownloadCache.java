@@ -0,0 +1,327 @@
+package com.example.downloader.core;
+
+import com.example.downloader.config.DownloaderProperties;
+import com.example.downloader.entity.CacheEntry;
+import com.example.downloader.entity.DownloadRecord;
+import com.example.downloader.repo.CacheEntryRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 下载缓存
+ * <p>
+ * 下载完成的文件以 reflink 或复制 (开启 hardlink 时优先硬链接) 放入缓存目录，按地址 + 校验信息 (强 ETag，否则 Last-Modified) + 大小，
+ * 以及整文件 SHA-256 和哈希树根建立索引。新任务探测后先查缓存：指定了期望校验值的任务按校验值匹配，
+ * 其余任务按地址和校验信息匹配 (源站没有 ETag 和 Last-Modified 时不使用缓存)。命中时把缓存文件 reflink 或复制到保存位置，
+ * 不再下载。缓存文件总大小超过上限时按最近使用时间淘汰。
+ * </p>
+ * <p>
+ * 命中时从不硬链接，每个保存位置都是独立的文件。加入缓存时的硬链接与下载的文件共享内容，文件被原地修改后缓存随之改变：
+ * 每次命中前比较缓存文件的大小和修改时间，不一致时丢弃该缓存。
+ * </p>
+ */
+@Slf4j
+@Component
+public class DownloadCache {
+    private static final boolean REFLINK = !System.getProperty("os.name", "").toLowerCase().startsWith("windows");
+
+    private final CacheEntryRepository repository;
+    private final DownloaderProperties.Cache config;
+    private final File objects;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong(); // 命中时省去的下载字节数
+    private final AtomicLong evictions = new AtomicLong();
+
+    public DownloadCache(CacheEntryRepository repository, DownloaderProperties properties) {
+        this.repository = repository;
+        this.config = properties.getCache();
+        this.objects = new File(config.getDir(), "objects");
+    }
+
+    public boolean isEnabled() {
+        return config.isEnabled();
+    }
+
+    /**
+     * 地址 + 校验信息 + 大小的摘要，源站没有给出 ETag (强) 和 Last-Modified 或大小未知时返回 null
+     */
+    static String urlKey(DownloadRecord record) {
+        String etag = record.getEtag();
+        String validator;
+        if (etag != null && !etag.startsWith("W/"))
+            validator = "etag:" + etag;
+        else if (record.getLastModified() != null)
+            validator = "lm:" + record.getLastModified();
+        else
+            return null;
+        if (record.getTotalSize() == null || record.getTotalSize() <= 0)
+            return null;
+        MessageDigest digest = ChecksumTracker.newDigest();
+        String key = record.getUrl() + "\n" + validator + "\n" + record.getTotalSize();
+        return ChecksumTracker.toHex(digest.digest(key.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * 查找与任务内容相同的缓存文件
+     *
+     * @return 未启用、未命中或缓存文件已失效时返回 null
+     */
+    public CacheEntry lookup(DownloadRecord record) {
+        if (!config.isEnabled())
+            return null;
+        CacheEntry entry;
+        String[] expected = ChecksumTracker.parseExpected(record.getExpectedChecksum());
+        if (expected != null) {
+            entry = ChecksumTracker.SHA256.equals(expected[0]) ? repository.findFirstBySha256(expected[1])
+                    : repository.findFirstByTreeHashAndBlockSize(expected[1], record.getBlockSize());
+        } else {
+            String key = urlKey(record);
+            entry = key != null ? repository.findFirstByUrlKey(key) : null;
+        }
+        if (entry != null && !isValid(entry)) {
+            log.info("缓存文件 {} 已被修改或删除，丢弃", entry.getId());
+            remove(entry);
+            entry = null;
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        return entry;
+    }
+
+    private boolean isValid(CacheEntry entry) {
+        File file = new File(objects, entry.getId());
+        return file.isFile() && file.length() == entry.getSize() && file.lastModified() == entry.getModifiedTime();
+    }
+
+    /**
+     * 把缓存文件放到任务的保存位置，替换预分配的占位文件
+     * <p>
+     * 先在同一目录生成临时文件再改名，失败时占位文件保持不变，任务照常下载
+     * </p>
+     */
+    public void materialize(CacheEntry entry, DownloadRecord record, File target) throws IOException {
+        Path source = new File(objects, entry.getId()).toPath();
+        Path temp = new File(target.getParentFile(), "." + target.getName() + ".cache").toPath();
+        Files.deleteIfExists(temp);
+        String method;
+        try {
+            // 不硬链接：保存位置与缓存、其它命中的任务互不影响
+            method = place(source, temp, false);
+            Files.move(temp, target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        hits.incrementAndGet();
+        bytesSaved.addAndGet(entry.getSize());
+        entry.setLastAccess(System.currentTimeMillis());
+        String key = urlKey(record);
+        if (key != null)
+            entry.setUrlKey(key);
+        repository.save(entry);
+        log.info("任务 {} 命中缓存 {} ({}, {} bytes)", record.getId(), entry.getId(), method, entry.getSize());
+    }
+
+    /**
+     * 下载完成后加入缓存。内容已在缓存中时只更新索引，否则链接或复制到缓存目录，并按 LRU 淘汰到上限以内
+     */
+    public synchronized void store(DownloadRecord record, File file) {
+        if (!config.isEnabled() || !file.isFile())
+            return;
+        long size = file.length();
+        String key = urlKey(record);
+        String sha256 = record.getChecksum() != null && record.getChecksum().startsWith(ChecksumTracker.SHA256 + ":")
+                ? record.getChecksum().substring(ChecksumTracker.SHA256.length() + 1) : null;
+        if (size <= 0 || size > config.getMaxSize() || (key == null && sha256 == null && record.getTreeHash() == null))
+            return;
+
+        CacheEntry existing = sha256 != null ? repository.findFirstBySha256(sha256) : null;
+        if (existing == null && record.getTreeHash() != null)
+            existing = repository.findFirstByTreeHashAndBlockSize(record.getTreeHash(), record.getBlockSize());
+        if (existing == null && key != null)
+            existing = repository.findFirstByUrlKey(key);
+        if (existing != null && isValid(existing) && existing.getSize() == size) {
+            if (key != null)
+                existing.setUrlKey(key);
+            if (existing.getSha256() == null)
+                existing.setSha256(sha256);
+            if (existing.getTreeHash() == null && record.getTreeHash() != null) {
+                existing.setTreeHash(record.getTreeHash());
+                existing.setBlockSize(record.getBlockSize());
+            }
+            existing.setLastAccess(System.currentTimeMillis());
+            repository.save(existing);
+            return;
+        }
+        if (existing != null)
+            remove(existing);
+
+        CacheEntry entry = new CacheEntry();
+        entry.setId(UUID.randomUUID().toString());
+        File object = new File(objects, entry.getId());
+        try {
+            if (!objects.exists())
+                objects.mkdirs();
+            String method = place(file.toPath(), object.toPath(), config.isHardlink());
+            entry.setUrlKey(key);
+            entry.setSha256(sha256);
+            entry.setTreeHash(record.getTreeHash());
+            entry.setBlockSize(record.getBlockSize());
+            entry.setUrl(record.getUrl());
+            entry.setFileName(record.getFileName());
+            entry.setSize(size);
+            entry.setModifiedTime(object.lastModified());
+            entry.setLastAccess(System.currentTimeMillis());
+            repository.save(entry);
+            log.info("任务 {} 已加入缓存 {} ({}, {} bytes)", record.getId(), entry.getId(), method, size);
+        } catch (IOException e) {
+            log.warn("任务 {} 加入缓存失败: {}", record.getId(), e.toString());
+            object.delete();
+            return;
+        }
+        evict();
+    }
+
+    /**
+     * 按最近使用时间淘汰，直到总大小不超过上限
+     */
+    private void evict() {
+        long total = repository.totalSize();
+        while (total > config.getMaxSize()) {
+            List<CacheEntry> oldest = repository.findTop100ByOrderByLastAccessAsc();
+            if (oldest.isEmpty())
+                return;
+            for (CacheEntry entry : oldest) {
+                if (total <= config.getMaxSize())
+                    break;
+                remove(entry);
+                total -= entry.getSize();
+                evictions.incrementAndGet();
+                log.info("淘汰缓存 {} ({} bytes)", entry.getId(), entry.getSize());
+            }
+        }
+    }
+
+    private void remove(CacheEntry entry) {
+        new File(objects, entry.getId()).delete();
+        repository.delete(entry);
+    }
+
+    /**
+     * 原地修改文件 (增量修复) 前解除硬链接：文件有多个链接时复制一份替换，避免同时修改缓存和其它任务的文件
+     */
+    public static void detach(File file) throws IOException {
+        Path path = file.toPath();
+        try {
+            if (!file.isFile() || ((Number) Files.getAttribute(path, "unix:nlink")).intValue() <= 1)
+                return;
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            return; // 不支持 unix 属性的平台
+        }
+        Path temp = new File(file.getParentFile(), "." + file.getName() + ".detach").toPath();
+        try {
+            Files.copy(path, temp, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * 依次尝试硬链接 (hardlink 为 true 时)、reflink 和复制，target 不能已存在
+     *
+     * @return 实际使用的方式
+     */
+    private String place(Path source, Path target, boolean hardlink) throws IOException {
+        if (hardlink) {
+            try {
+                Files.createLink(target, source);
+                return "hardlink";
+            } catch (IOException | UnsupportedOperationException e) {
+                // 跨文件系统等，继续尝试 reflink
+            }
+        }
+        if (REFLINK && reflink(source, target))
+            return "reflink";
+        Files.copy(source, target, StandardCopyOption.COPY_ATTRIBUTES);
+        return "copy";
+    }
+
+    /**
+     * JDK 没有 reflink 接口，使用 GNU cp：文件系统不支持 (非 Btrfs/XFS 等) 时立即失败，不会退化为复制
+     */
+    private static boolean reflink(Path source, Path target) {
+        try {
+            File devNull = new File("/dev/null");
+            Process process = new ProcessBuilder("cp", "--reflink=always", source.toString(), target.toString())
+                    .redirectOutput(devNull).redirectError(devNull).start();
+            if (process.waitFor(30, TimeUnit.SECONDS) && process.exitValue() == 0)
+                return true;
+            process.destroy();
+        } catch (IOException e) {
+            // 没有 cp 命令
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            Files.deleteIfExists(target);
+        } catch (IOException ignored) {
+        }
+        return false;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long totalSize() {
+        return repository.totalSize();
+    }
+
+    public Map<String, Object> stats() {
+        long hit = hits.get();
+        long miss = misses.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", config.isEnabled());
+        stats.put("hits", hit);
+        stats.put("misses", miss);
+        stats.put("hitRate", hit + miss == 0 ? 0 : Math.round(hit * 1000.0 / (hit + miss)) / 1000.0);
+        stats.put("bytesSaved", bytesSaved.get());
+        stats.put("evictions", evictions.get());
+        stats.put("entries", repository.count());
+        stats.put("size", repository.totalSize());
+        stats.put("maxSize", config.getMaxSize());
+        return stats;
+    }
+
+    /**
+     * 清空缓存，已下载的文件不受影响 (硬链接只删除缓存目录中的一份)
+     */
+    public synchronized int clear() {
+        List<CacheEntry> entries = repository.findAll();
+        for (CacheEntry entry : entries) {
+            remove(entry);
+        }
+        log.info("已清空下载缓存，共 {} 个文件", entries.size());
+        return entries.size();
+    }
+}
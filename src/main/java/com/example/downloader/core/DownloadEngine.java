@@ -0,0 +1,94 @@
+package com.example.downloader.core;
+
+import com.example.downloader.config.DownloaderProperties;
+import com.example.downloader.repo.BlockHashRepository;
+import com.example.downloader.repo.ChunkRepository;
+import com.example.downloader.repo.DownloadRepository;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 下载引擎
+ * <p>
+ * 持有所有任务共享的基础设施：HTTP 连接池、带宽调控器、重试策略、按主机熔断、写入流水线和下载缓存，以及有界的分片线程池、
+ * 任务启动线程池、监控线程和 ASYNC 分片的定时器线程。任务数量增加时线程数保持不变。
+ * </p>
+ */
+@Slf4j
+@Getter
+@Component
+public class DownloadEngine {
+
+    private final DownloadRepository repository;
+    private final ChunkRepository chunkRepository;
+    private final BlockHashRepository blockHashRepository;
+    private final HttpClientFactory httpClientFactory;
+    private final BandwidthGovernor bandwidthGovernor;
+    private final DownloaderProperties properties;
+    private final DownloadMetrics metrics;
+    private final RetryPolicy retryPolicy;
+    private final HostCircuitBreaker circuitBreaker; // 所有任务共享
+    private final WritePipeline writePipeline; // 网络读取与写盘分离
+    private final DownloadCache cache;
+
+    private final ForkJoinPool chunkPool; // 所有任务的分片共用
+    private final ExecutorService controlExecutor; // 任务启动 (探测、预分配)
+    private final ScheduledExecutorService monitorExecutor; // 速度统计、完成检测与进度日志检查点
+    private final ScheduledExecutorService transferTimer; // ASYNC 分片的完成回调、重试延迟与限速恢复，不受检查点刷盘影响
+    private final ExecutorService probeExecutor; // 批量创建任务时的并行探测
+
+    public DownloadEngine(DownloadRepository repository, ChunkRepository chunkRepository,
+            BlockHashRepository blockHashRepository, HttpClientFactory httpClientFactory,
+            BandwidthGovernor bandwidthGovernor, DownloaderProperties properties, DownloadMetrics metrics,
+            RetryPolicy retryPolicy, HostCircuitBreaker circuitBreaker, WritePipeline writePipeline,
+            DownloadCache cache) {
+        this.repository = repository;
+        this.chunkRepository = chunkRepository;
+        this.blockHashRepository = blockHashRepository;
+        this.httpClientFactory = httpClientFactory;
+        this.bandwidthGovernor = bandwidthGovernor;
+        this.properties = properties;
+        this.metrics = metrics;
+        this.retryPolicy = retryPolicy;
+        this.circuitBreaker = circuitBreaker;
+        this.writePipeline = writePipeline;
+        this.cache = cache;
+
+        DownloaderProperties.Scheduler config = properties.getScheduler();
+        AtomicInteger workerSeq = new AtomicInteger();
+        this.chunkPool = new ForkJoinPool(config.getWorkerThreads(), pool -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            t.setName("chunk-worker-" + workerSeq.incrementAndGet());
+            return t;
+        }, null, true);
+        this.controlExecutor = Executors.newFixedThreadPool(config.getControlThreads(), namedThreads("task-control"));
+        this.monitorExecutor = Executors.newSingleThreadScheduledExecutor(namedThreads("task-monitor"));
+        this.transferTimer = Executors.newScheduledThreadPool(Math.max(1, properties.getEngine().getIoThreads()),
+                namedThreads("transfer-timer"));
+        this.probeExecutor = Executors.newFixedThreadPool(Math.max(1, config.getProbeThreads()), namedThreads("task-probe"));
+        log.info("下载引擎已启动，分片线程数: {}, 启动线程数: {}", config.getWorkerThreads(), config.getControlThreads());
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger seq = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + "-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        monitorExecutor.shutdownNow();
+        transferTimer.shutdownNow();
+        controlExecutor.shutdownNow();
+        probeExecutor.shutdownNow();
+        chunkPool.shutdownNow();
+    }
+}
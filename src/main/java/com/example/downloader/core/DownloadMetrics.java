@@ -0,0 +1,196 @@
+package com.example.downloader.core;
+
+import com.example.downloader.model.ChunkInfo;
+import io.micrometer.core.instrument.*;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 下载引擎指标
+ * <p>
+ * 通过 Actuator 以 Prometheus 格式暴露 (/actuator/prometheus)，用于判断慢下载的瓶颈在网络、磁盘还是锁竞争：
+ * </p>
+ * <ul>
+ * <li>downloader.bytes.received / downloader.speed / downloader.task.speed：全局累计字节数、全局和每个任务的速度</li>
+ * <li>downloader.chunk.ttfb：分片请求从发出到收到响应头的时间 (含从连接池获取连接)</li>
+ * <li>downloader.chunk.retries / downloader.chunk.errors：分片重试次数、重试用尽的分片数，按原因分类</li>
+ * <li>downloader.chunks.active / downloader.connections.leased：运行中的分片数、连接池已借出的连接数</li>
+ * <li>downloader.hosts.open：处于熔断中的主机数</li>
+ * <li>downloader.buffers.in.use / downloader.write.queue：占用中的写入缓冲区、等待写盘的缓冲区 (持续接近缓冲池容量说明磁盘是瓶颈)</li>
+ * <li>downloader.write.latency / downloader.write.lock.wait：单次写入文件的耗时、LOCKED 写入器的锁等待时间</li>
+ * <li>downloader.progress.push：单个任务进度帧的比较、序列化和发送耗时</li>
+ * <li>downloader.cache.hits / downloader.cache.misses / downloader.cache.size：下载缓存命中、未命中次数和缓存文件总大小</li>
+ * </ul>
+ */
+@Component
+public class DownloadMetrics {
+    private final MeterRegistry registry;
+    private final Counter bytesReceived;
+    private final Timer ttfb;
+    private final Timer writeLatency;
+    private final Timer lockWait;
+    private final Timer progressPush;
+    private final AtomicInteger activeChunks = new AtomicInteger();
+    private final Map<String, AtomicLong> taskSpeeds = new ConcurrentHashMap<>();
+    private final Map<String, Gauge> taskGauges = new ConcurrentHashMap<>();
+
+    public DownloadMetrics(MeterRegistry registry, HttpClientFactory httpClientFactory, HostCircuitBreaker breaker,
+            WritePipeline pipeline, DownloadCache cache) {
+        this.registry = registry;
+        this.bytesReceived = Counter.builder("downloader.bytes.received").baseUnit("bytes")
+                .description("写入文件的下载字节数").register(registry);
+        this.ttfb = histogram("downloader.chunk.ttfb", "分片请求首字节时间", Duration.ofMillis(1), Duration.ofSeconds(30));
+        this.writeLatency = histogram("downloader.write.latency", "单次文件写入耗时", Duration.ofNanos(1000),
+                Duration.ofSeconds(1));
+        this.lockWait = histogram("downloader.write.lock.wait", "写入锁等待时间", Duration.ofNanos(1000),
+                Duration.ofSeconds(1));
+        this.progressPush = histogram("downloader.progress.push", "进度帧比较、序列化与发送耗时", Duration.ofNanos(1000),
+                Duration.ofMillis(100));
+        Gauge.builder("downloader.speed", taskSpeeds, m -> m.values().stream().mapToLong(AtomicLong::get).sum())
+                .baseUnit("bytes").description("全局下载速度 (bytes/s)").register(registry);
+        Gauge.builder("downloader.chunks.active", activeChunks, AtomicInteger::get)
+                .description("运行中的分片数").register(registry);
+        Gauge.builder("downloader.connections.leased", httpClientFactory, HttpClientFactory::leasedConnections)
+                .description("连接池已借出的连接数").register(registry);
+        Gauge.builder("downloader.hosts.open", breaker, HostCircuitBreaker::openCount)
+                .description("熔断中的主机数").register(registry);
+        Gauge.builder("downloader.buffers.in.use", pipeline, WritePipeline::buffersInUse)
+                .description("正在填充或等待写盘的流水线缓冲区数").register(registry);
+        Gauge.builder("downloader.write.queue", pipeline, WritePipeline::queuedWrites)
+                .description("等待写盘的缓冲区数").register(registry);
+        FunctionCounter.builder("downloader.cache.hits", cache, DownloadCache::getHits)
+                .description("命中下载缓存的任务数").register(registry);
+        FunctionCounter.builder("downloader.cache.misses", cache, DownloadCache::getMisses)
+                .description("未命中下载缓存的任务数").register(registry);
+        Gauge.builder("downloader.cache.size", cache, DownloadCache::totalSize).baseUnit("bytes")
+                .description("缓存文件总大小").register(registry);
+    }
+
+    private Timer histogram(String name, String description, Duration min, Duration max) {
+        return Timer.builder(name).description(description).publishPercentileHistogram()
+                .minimumExpectedValue(min).maximumExpectedValue(max).register(registry);
+    }
+
+    public void recordTtfb(long nanos) {
+        ttfb.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordLockWait(long nanos) {
+        lockWait.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordProgressPush(long nanos) {
+        progressPush.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 分片下载出错，即将重试
+     */
+    public void retry(ChunkInfo chunk, Throwable cause) {
+        registry.counter("downloader.chunk.retries", "reason", reason(chunk, cause)).increment();
+    }
+
+    /**
+     * 分片重试次数用尽
+     */
+    public void chunkFailed(ChunkInfo chunk, Throwable lastError) {
+        registry.counter("downloader.chunk.errors", "reason", reason(chunk, lastError)).increment();
+    }
+
+    public void chunkStarted() {
+        activeChunks.incrementAndGet();
+    }
+
+    public void chunkExited() {
+        activeChunks.decrementAndGet();
+    }
+
+    /**
+     * 任务的监控线程每秒更新任务速度
+     */
+    public void taskSpeed(String taskId, long speed) {
+        taskSpeeds.computeIfAbsent(taskId, id -> {
+            AtomicLong value = new AtomicLong();
+            taskGauges.put(id, Gauge.builder("downloader.task.speed", value, AtomicLong::get).tag("task", id)
+                    .baseUnit("bytes").description("任务下载速度 (bytes/s)").register(registry));
+            return value;
+        }).set(speed);
+    }
+
+    /**
+     * 任务停止时移除任务速度指标，避免已结束的任务一直保留在指标中
+     */
+    public void removeTask(String taskId) {
+        taskSpeeds.remove(taskId);
+        Gauge gauge = taskGauges.remove(taskId);
+        if (gauge != null)
+            registry.remove(gauge);
+    }
+
+    /**
+     * 给写入器加上写入耗时和字节数统计
+     */
+    public ChunkFileWriter wrap(ChunkFileWriter writer) {
+        return new ChunkFileWriter() {
+            @Override
+            public void write(byte[] buf, int off, int len, long position) throws IOException {
+                long start = System.nanoTime();
+                writer.write(buf, off, len, position);
+                writeLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                bytesReceived.increment(len);
+            }
+
+            @Override
+            public void write(ByteBuffer src, long position) throws IOException {
+                int len = src.remaining();
+                long start = System.nanoTime();
+                writer.write(src, position);
+                writeLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                bytesReceived.increment(len);
+            }
+
+            @Override
+            public void write(ByteBuffer[] srcs, long position) throws IOException {
+                long len = 0;
+                for (ByteBuffer src : srcs) {
+                    len += src.remaining();
+                }
+                long start = System.nanoTime();
+                writer.write(srcs, position);
+                writeLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                bytesReceived.increment(len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                writer.flush();
+            }
+
+            @Override
+            public void checkpoint(boolean sync) throws IOException {
+                writer.checkpoint(sync);
+            }
+
+            @Override
+            public void close() throws IOException {
+                writer.close();
+            }
+        };
+    }
+
+    private static String reason(ChunkInfo chunk, Throwable cause) {
+        if (cause instanceof HttpStatusException)
+            return "http_" + ((HttpStatusException) cause).getStatus();
+        if (chunk.getHttpStatus() > 0)
+            return "http_" + chunk.getHttpStatus();
+        return cause != null ? cause.getClass().getSimpleName() : "unknown";
+    }
+}
@@ -1,23 +1,33 @@
 package com.example.downloader.core;
 
+import com.example.downloader.config.DownloaderProperties;
+import com.example.downloader.entity.CacheEntry;
 import com.example.downloader.entity.DownloadRecord;
 import com.example.downloader.model.ChunkInfo;
 import com.example.downloader.model.DownloadStatus;
+import com.example.downloader.model.EngineMode;
 import com.example.downloader.repo.DownloadRepository;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 /**
  * 下载任务上下文
  * <p>
  * 负责管理单个文件的所有分片任务、状态流转、断点续传和动态重分配。
- * 支持智能文件名处理和 Range 检测降级。
+ * 支持智能文件名处理和 Range 检测降级。分片、启动和监控均运行在 {@link DownloadEngine} 的共享线程池上，
+ * 任务本身不创建线程。
  * </p>
  */
 @Slf4j
@@ -30,19 +40,40 @@ public class DownloadTaskContext {
     private volatile DownloadStatus status = DownloadStatus.IDLE;
     private long globalSpeed = 0; // 全局速度
 
-    private ForkJoinPool chunkExecutor;
-    private final Map<String, AtomicBoolean> activeWorkers = new ConcurrentHashMap<>();
-    private final Object fileLock = new Object();
+    private volatile int threadCount; // 目标并发分片数，自适应模式下由监控线程调整
+    private final AdaptiveConcurrency concurrency; // 自适应连接数，固定连接数时为空
+    private final EngineMode engineMode; // BLOCKING 或 ASYNC
+    private volatile ScheduledFuture<?> monitorFuture;
+    private volatile ScheduledFuture<?> journalFuture;
+    private final Map<String, AtomicBoolean> activeWorkers = new ConcurrentHashMap<>(); // 已开始运行的工作器
+    private final Map<String, AtomicBoolean> queuedWorkers = new ConcurrentHashMap<>(); // 已提交到分片线程池、尚未开始运行
+    private volatile ChunkFileWriter fileWriter; // 任务共享的文件写入器
+    private volatile MirrorSet mirrorSet; // 多镜像下载时的镜像分配器，单地址任务为空
+    private boolean completing; // 所有分片已完成，正在启动线程池上校验收尾 (以 this 加锁访问)
+    private boolean pauseRequested; // 准备期间收到的暂停请求，prepare 结束后处理 (以 this 加锁访问)
 
     private final ChunkManager chunkManager;
+    private final DownloadEngine engine;
     private final HttpClientFactory httpClientFactory;
+    private final DownloaderProperties properties;
+    private final BandwidthGovernor bandwidthGovernor;
+    private final Consumer<DownloadTaskContext> onStopped; // 离开 DOWNLOADING 状态时通知调度器
 
-    public DownloadTaskContext(DownloadRecord record, DownloadRepository repo, int threads) {
+    public DownloadTaskContext(DownloadRecord record, DownloadEngine engine, int threads,
+            Consumer<DownloadTaskContext> onStopped) {
         this.record = record;
-        this.repository = repo;
-        this.chunkExecutor = new ForkJoinPool(Math.min(threads + 1, 32));
-        this.httpClientFactory = new HttpClientFactory();
-        this.chunkManager = new ChunkManager(record, repository, httpClientFactory);
+        this.engine = engine;
+        this.repository = engine.getRepository();
+        this.httpClientFactory = engine.getHttpClientFactory();
+        this.properties = engine.getProperties();
+        this.bandwidthGovernor = engine.getBandwidthGovernor();
+        // threads <= 0 表示自适应连接数
+        this.concurrency = threads <= 0 ? new AdaptiveConcurrency(record.getId(), properties.getConcurrency()) : null;
+        this.threadCount = concurrency != null ? concurrency.getTarget() : Math.max(1, Math.min(threads, 32));
+        this.onStopped = onStopped;
+        this.engineMode = resolveEngineMode();
+        this.chunkManager = new ChunkManager(record, engine.getChunkRepository(), engine.getBlockHashRepository(),
+                httpClientFactory, properties.getJournal(), properties.getChecksum());
         // 恢复chunks信息
         this.chunkManager.restoreChunks();
     }
@@ -65,7 +96,7 @@ public class DownloadTaskContext {
     }
 
     public int getThreadCount() {
-        return chunkExecutor.getParallelism() - 1;
+        return threadCount;
     }
 
     public DownloadRecord getRecord() {
@@ -76,6 +107,17 @@ public class DownloadTaskContext {
         return chunkManager.getChunkMap();
     }
 
+    /**
+     * 进入调度队列等待执行
+     */
+    public void markQueued() {
+        status = DownloadStatus.QUEUED;
+        updateStatusInDb("QUEUED");
+    }
+
+    /**
+     * 由调度器调用，在共享的启动线程池中异步启动
+     */
     public void start() {
         if (status == DownloadStatus.DOWNLOADING || status == DownloadStatus.FINISHED) {
             log.warn("任务 {} 已在运行或已完成，跳过启动", record.getId());
@@ -83,23 +125,25 @@ public class DownloadTaskContext {
         }
 
         log.info("开始启动下载任务：{}, URL: {}, 当前状态: {}", record.getId(), record.getUrl(), status);
-        // 异步启动防止阻塞Controller
-        new Thread(() -> {
-            try {
-                // 如果是从暂停恢复，需要重新创建线程池
-                if (status == DownloadStatus.PAUSED && (chunkExecutor == null || chunkExecutor.isShutdown())) {
-                    int threads = chunkManager.getChunkMap().isEmpty() ? 8 : chunkManager.getChunkMap().size();
-                    chunkExecutor = new ForkJoinPool(Math.min(threads + 1, 32));
-                    log.info("从暂停状态恢复，重新创建线程池，并发数: {}", threads);
+        // 异步启动防止阻塞调度器
+        engine.getControlExecutor().execute(() -> {
+            synchronized (this) {
+                // 排队期间可能已被暂停或取消
+                if (status != DownloadStatus.QUEUED) {
+                    notifyStopped();
+                    return;
                 }
-
-                // 只有IDLE状态才需要prepare
-                if (status == DownloadStatus.IDLE) {
+                status = DownloadStatus.PREPARING;
+                pauseRequested = false;
+            }
+            try {
+                // 尚未探测过文件信息的新任务才需要prepare
+                if (record.getFileName() == null || record.getTotalSize() == null) {
                     chunkManager.prepare();
                     saveRecord(); // 保存入库
-                } else if (status == DownloadStatus.PAUSED) {
-                    // PAUSED状态恢复，不需要prepare
-                    log.info("从暂停状态恢复任务 {}, chunks数量: {}", record.getId(), chunkManager.getChunkMap().size());
+                } else {
+                    // 暂停后恢复或批量创建时已探测，不需要prepare
+                    log.info("任务 {} 已有文件信息，跳过探测, chunks数量: {}", record.getId(), chunkManager.getChunkMap().size());
                     // 确保从数据库重新加载最新的chunk进度
                     if (chunkManager.getChunkMap().isEmpty()) {
                         chunkManager.restoreChunks();
@@ -107,15 +151,36 @@ public class DownloadTaskContext {
                     }
                 }
 
-                status = DownloadStatus.DOWNLOADING;
+                synchronized (this) {
+                    // 准备期间被暂停：探测结果已保存，恢复时跳过探测
+                    if (status == DownloadStatus.PREPARING && pauseRequested)
+                        status = DownloadStatus.PAUSED;
+                }
+                if (status == DownloadStatus.PAUSED) {
+                    updateStatusInDb("PAUSED");
+                    log.info("任务 {} 准备完成，按请求暂停", record.getId());
+                    notifyStopped();
+                    return;
+                }
+
+                // 新任务先查下载缓存，命中时不再下载
+                if (chunkManager.getChunkMap().isEmpty() && completeFromCache())
+                    return;
+
+                synchronized (this) {
+                    // 准备期间被取消
+                    if (status != DownloadStatus.PREPARING)
+                        return;
+                    status = DownloadStatus.DOWNLOADING;
+                }
                 updateStatusInDb("DOWNLOADING");
 
                 if (chunkManager.getChunkMap().isEmpty()) {
                     // 这种情况下是初始化分片
                     boolean supportRange = record.getSupportRange() != null ? record.getSupportRange() : true;
                     if (supportRange && record.getTotalSize() > 0) {
-                        log.info("任务 {} 支持Range，分片数: {}", record.getId(), chunkExecutor.getParallelism());
-                        chunkManager.splitChunks(chunkExecutor.getParallelism());
+                        log.info("任务 {} 支持Range，分片数: {}", record.getId(), threadCount);
+                        chunkManager.splitChunks(threadCount);
                     } else {
                         // 针对 GitHub 这种无法获取长度或不支持 Range 的
                         log.info("任务 {} 不支持Range，使用流式下载", record.getId());
@@ -123,58 +188,120 @@ public class DownloadTaskContext {
                     }
                 }
 
-                // 提交任务
-                chunkManager.getChunkMap().values().stream().filter(c -> !c.isFinished()).forEach(this::submitTask);
+                // 上次因分片失败而停止的任务重新开始时，分片重新获得完整的重试次数
+                for (ChunkInfo chunk : chunkManager.getChunkMap().values()) {
+                    chunk.setErrorCount(0);
+                    chunk.setRounds(0);
+                }
+                openWriter();
+                verifyOnResume();
+                bandwidthGovernor.register(record.getId());
+                openMirrors();
+
+                // 提交任务 (自适应模式下只启动目标连接数个分片，其余由 tryRebalance 陆续恢复)
+                chunkManager.getChunkMap().values().stream().filter(c -> !c.isFinished())
+                        .limit(concurrency != null ? threadCount : Long.MAX_VALUE).forEach(this::submitTask);
                 startMonitor();
+                startJournal();
 
             } catch (Exception e) {
                 log.error("Task start failed", e);
                 status = DownloadStatus.ERROR;
                 updateStatusInDb("ERROR");
+                stopJournal();
+                chunkManager.closeJournal(false);
+                closeWriter();
+                saveProgress();
+                bandwidthGovernor.unregister(record.getId());
+                notifyStopped();
             }
-        }).start();
+        });
     }
 
     public void pause() {
+        synchronized (this) {
+            if (status == DownloadStatus.PREPARING) {
+                // 探测请求无法中断，记录下来等 prepare 结束后暂停
+                pauseRequested = true;
+                log.info("任务 {} 正在准备，准备完成后暂停", record.getId());
+                return;
+            }
+        }
+        if (status == DownloadStatus.QUEUED) {
+            // 尚未开始执行，直接标记暂停 (调度器负责移出队列)
+            synchronized (this) {
+                status = DownloadStatus.PAUSED;
+            }
+            updateStatusInDb("PAUSED");
+            notifyStopped();
+            return;
+        }
         if (status == DownloadStatus.DOWNLOADING) {
             log.info("暂停下载任务: {}", record.getId());
-            status = DownloadStatus.PAUSED;
-
-            // 停止所有worker
-            activeWorkers.values().forEach(running -> running.set(false));
-
-            // 等待所有worker完全停止（最多等待3秒）
-            long waitStart = System.currentTimeMillis();
-            while (!activeWorkers.isEmpty() && (System.currentTimeMillis() - waitStart) < 3000) {
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {
-                    log.warn("等待worker停止时被中断", e);
-                    break;
-                }
-            }
-
-            activeWorkers.clear();
+            if (stopDownloading(DownloadStatus.PAUSED))
+                log.info("任务 {} 已暂停，进度已保存", record.getId());
+        }
+    }
 
-            // 保存当前进度到数据库
-            chunkManager.saveChunks();
-            updateStatusInDb("PAUSED");
+    /**
+     * 停止所有分片并保存进度，任务进入 target 状态 (PAUSED 或 ERROR)
+     *
+     * @return 任务已不在下载中时返回 false
+     */
+    private boolean stopDownloading(DownloadStatus target) {
+        // 与 tryRebalance 互斥，保证停止后不会再提交新分片
+        synchronized (this) {
+            // 所有分片已完成、正在收尾时不再暂停
+            if (status != DownloadStatus.DOWNLOADING || completing)
+                return false;
+            status = target;
+        }
+        // 停止所有worker
+        stopWorkers();
 
-            // 关闭线程池以完全停止下载
-            if (chunkExecutor != null && !chunkExecutor.isShutdown()) {
-                chunkExecutor.shutdown();
-                log.info("任务 {} 线程池已关闭", record.getId());
+        // 等待所有worker完全停止（最多等待3秒）
+        long waitStart = System.currentTimeMillis();
+        while ((!activeWorkers.isEmpty() || !queuedWorkers.isEmpty())
+                && (System.currentTimeMillis() - waitStart) < 3000) {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                log.warn("等待worker停止时被中断", e);
+                break;
             }
-
-            log.info("任务 {} 已暂停，进度已保存", record.getId());
         }
+
+        activeWorkers.clear();
+        queuedWorkers.clear();
+        stopJournal();
+        closeWriter();
+        bandwidthGovernor.unregister(record.getId());
+        chunkManager.checkpoint();
+        chunkManager.closeJournal(false);
+
+        // 保存当前进度到数据库
+        saveProgress();
+        updateStatusInDb(target.name());
+        stopMonitor();
+        notifyStopped();
+        return true;
     }
 
     public void cancel() {
         log.info("取消下载任务: {}", record.getId());
-        status = DownloadStatus.CANCELED;
-        activeWorkers.values().forEach(running -> running.set(false));
+        boolean wasDownloading;
+        synchronized (this) {
+            wasDownloading = status == DownloadStatus.DOWNLOADING || status == DownloadStatus.PREPARING;
+            status = DownloadStatus.CANCELED;
+        }
+        stopMonitor();
+        stopJournal();
+        stopWorkers();
         activeWorkers.clear();
+        queuedWorkers.clear();
+        closeWriter();
+        chunkManager.closeJournal(true);
+        bandwidthGovernor.unregister(record.getId());
         // 尝试删除文件
         if (record.getFileName() != null) {
             File file = new File(record.getSavePath(), record.getFileName());
@@ -183,60 +310,351 @@ public class DownloadTaskContext {
             }
         }
         updateStatusInDb("CANCELED");
+        if (wasDownloading)
+            notifyStopped();
     }
 
     private void submitTask(ChunkInfo chunkInfo) {
+        if (mirrorSet != null)
+            mirrorSet.assign(chunkInfo);
         AtomicBoolean running = new AtomicBoolean(true);
-        ChunkWorker worker = new ChunkWorker(chunkInfo, record, running, fileLock, httpClientFactory);
-        activeWorkers.put(chunkInfo.getId(), running);
-        chunkExecutor.execute(worker);
+        boolean supportRange = record.getSupportRange() != null ? record.getSupportRange() : true;
+        ChunkSink sink = engine.getWritePipeline().open(chunkInfo, fileWriter, supportRange && record.getTotalSize() > 0,
+                engineMode != EngineMode.ASYNC);
+        if (engineMode == EngineMode.ASYNC) {
+            // 由 IO 事件循环驱动，不占用分片线程，提交即开始
+            onWorkerStart(chunkInfo, running);
+            new AsyncChunkTransfer(chunkInfo, record, running, sink, httpClientFactory, bandwidthGovernor,
+                    engine.getMetrics(), engine.getRetryPolicy(), engine.getCircuitBreaker(), engine.getTransferTimer(),
+                    c -> onWorkerExit(c, running)).start();
+            return;
+        }
+        ChunkWorker worker = new ChunkWorker(chunkInfo, record, running, sink, httpClientFactory,
+                bandwidthGovernor, engine.getMetrics(), engine.getRetryPolicy(), engine.getCircuitBreaker(),
+                c -> onWorkerExit(c, running));
+        // 分片线程池由所有任务共用，可能排队：开始运行后才计为活动连接
+        queuedWorkers.put(chunkInfo.getId(), running);
+        engine.getChunkPool().execute(() -> {
+            onWorkerStart(chunkInfo, running);
+            worker.invoke();
+        });
+    }
+
+    /**
+     * 工作器开始运行：先加入 activeWorkers 再移出 queuedWorkers，保证任何时刻都能被 stopWorkers 找到。
+     * 排队期间已被停止的不再加入，以免覆盖任务恢复后同一分片的新工作器
+     */
+    private void onWorkerStart(ChunkInfo chunkInfo, AtomicBoolean running) {
+        if (running.get())
+            activeWorkers.put(chunkInfo.getId(), running);
+        queuedWorkers.remove(chunkInfo.getId(), running);
+        engine.getMetrics().chunkStarted();
+    }
+
+    /**
+     * 停止排队中和运行中的工作器，先排队中的，与 onWorkerStart 的顺序相反
+     */
+    private void stopWorkers() {
+        queuedWorkers.values().forEach(running -> running.set(false));
+        activeWorkers.values().forEach(running -> running.set(false));
     }
 
-    // 监控线程改进：聚合全局速度
+    /**
+     * 分片已有工作器 (排队中或运行中)
+     */
+    private AtomicBoolean workerOf(String chunkId) {
+        AtomicBoolean running = activeWorkers.get(chunkId);
+        return running != null ? running : queuedWorkers.get(chunkId);
+    }
+
+    private int workerCount() {
+        return activeWorkers.size() + queuedWorkers.size();
+    }
+
+    // 多镜像：主地址加上 prepare 校验通过的镜像，仅 Range 下载可用
+    private void openMirrors() {
+        List<String> mirrors = MirrorSet.parse(record.getMirrors());
+        boolean supportRange = record.getSupportRange() != null ? record.getSupportRange() : true;
+        if (mirrors.isEmpty() || !supportRange || record.getTotalSize() <= 0) {
+            mirrorSet = null;
+            return;
+        }
+        List<String> urls = new ArrayList<>();
+        urls.add(record.getUrl());
+        urls.addAll(mirrors);
+        mirrorSet = new MirrorSet(urls);
+        log.info("任务 {} 使用 {} 个下载地址", record.getId(), mirrorSet.size());
+    }
+
+    private EngineMode resolveEngineMode() {
+        EngineMode mode = properties.getEngine().getMode();
+        if (record.getEngine() != null) {
+            try {
+                mode = EngineMode.valueOf(record.getEngine().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                log.warn("任务 {} 引擎配置无效: {}，使用默认引擎 {}", record.getId(), record.getEngine(), mode);
+            }
+        }
+        if (mode == EngineMode.ASYNC && !httpClientFactory.supportsAsync(record)) {
+            log.info("任务 {} 使用 SOCKS 代理，ASYNC 引擎不可用，改用 BLOCKING", record.getId());
+            mode = EngineMode.BLOCKING;
+        }
+        return mode;
+    }
+
+    // 监控：每秒聚合全局速度，运行在引擎共享的监控线程上
     private void startMonitor() {
-        new Thread(() -> {
-            while (status == DownloadStatus.DOWNLOADING) {
-                try {
-                    Thread.sleep(1000);
-                    long sumSpeed = 0;
-                    boolean allFinished = true;
-
-                    for (ChunkInfo chunk : chunkManager.getChunkMap().values()) {
-                        if (!chunk.isFinished()) {
-                            allFinished = false;
-                            long curr = chunk.getCurrent().get();
-                            long sp = curr - chunk.getLastRecordBytes();
-                            // 修复负数bug (极少数情况)
-                            if (sp < 0)
-                                sp = 0;
-                            chunk.setSpeed(sp);
-                            chunk.setLastRecordBytes(curr);
-                            sumSpeed += sp;
-                        } else {
-                            chunk.setSpeed(0);
-                        }
-                    }
+        monitorFuture = engine.getMonitorExecutor().scheduleAtFixedRate(this::monitorTick, 1, 1, TimeUnit.SECONDS);
+    }
 
-                    this.globalSpeed = sumSpeed;
+    private void stopMonitor() {
+        ScheduledFuture<?> future = monitorFuture;
+        if (future != null)
+            future.cancel(false);
+        engine.getMetrics().removeTask(record.getId());
+    }
 
-                    if (allFinished && !chunkManager.getChunkMap().isEmpty()) {
-                        log.info("任务 {} 所有分片下载完成！文件: {}", record.getId(), record.getFileName());
-                        status = DownloadStatus.FINISHED;
-                        updateStatusInDb("FINISHED");
-                        saveRecord(); // 保存chunks信息以记录线程颜色
-                        break;
-                    }
+    // 进度日志：按配置间隔批量追加分片进度，进程崩溃后最多丢失一个间隔的进度
+    private void startJournal() {
+        if (!properties.getJournal().isEnabled())
+            return;
+        long interval = Math.max(100, properties.getJournal().getFlushIntervalMs());
+        chunkManager.openJournal();
+        journalFuture = engine.getMonitorExecutor().scheduleAtFixedRate(this::checkpoint, interval, interval,
+                TimeUnit.MILLISECONDS);
+    }
 
-                    // 仅在支持 Range 且大小已知时尝试重分配
-                    boolean supportRange = record.getSupportRange() != null ? record.getSupportRange() : true;
-                    if (supportRange && record.getTotalSize() > 0) {
-                        tryRebalance();
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
+    /**
+     * 定期检查点：写入日志前由写入器决定是否先把数据文件刷盘 (sync 时必须刷盘，
+     * 否则断电后回放的进度可能越过未落盘的数据，续传时这部分不会重新下载)
+     */
+    private void checkpoint() {
+        boolean sync = properties.getJournal().isSync();
+        chunkManager.checkpoint(() -> {
+            ChunkFileWriter writer = fileWriter;
+            if (writer != null)
+                writer.checkpoint(sync);
+        });
+    }
+
+    private void stopJournal() {
+        ScheduledFuture<?> future = journalFuture;
+        if (future != null)
+            future.cancel(false);
+    }
+
+    private void notifyStopped() {
+        if (onStopped != null)
+            onStopped.accept(this);
+    }
+
+    private void monitorTick() {
+        if (status != DownloadStatus.DOWNLOADING) {
+            stopMonitor();
+            return;
+        }
+        try {
+            long sumSpeed = 0;
+            boolean allFinished = true;
+
+            for (ChunkInfo chunk : chunkManager.getChunkMap().values()) {
+                if (!chunk.isFinished()) {
+                    allFinished = false;
+                    long curr = chunk.getCurrent().get();
+                    long sp = curr - chunk.getLastRecordBytes();
+                    // 修复负数bug (极少数情况)
+                    if (sp < 0)
+                        sp = 0;
+                    chunk.setSpeed(sp);
+                    chunk.setLastRecordBytes(curr);
+                    sumSpeed += sp;
+                } else {
+                    chunk.setSpeed(0);
                 }
             }
-        }).start();
+
+            this.globalSpeed = sumSpeed;
+            if (status == DownloadStatus.DOWNLOADING)
+                engine.getMetrics().taskSpeed(record.getId(), sumSpeed);
+
+            // 仅在支持 Range 且大小已知时调整连接数和重分配
+            boolean supportRange = record.getSupportRange() != null ? record.getSupportRange() : true;
+            boolean ranged = supportRange && record.getTotalSize() > 0;
+            if (concurrency != null && ranged) {
+                adjustConcurrency();
+            }
+
+            MirrorSet mirrors = mirrorSet;
+            if (mirrors != null) {
+                List<ChunkInfo> active = new ArrayList<>();
+                for (ChunkInfo chunk : chunkManager.getChunkMap().values()) {
+                    if (!chunk.isFinished() && activeWorkers.containsKey(chunk.getId()))
+                        active.add(chunk);
+                }
+                mirrors.sample(active);
+            }
+
+            if (allFinished && !chunkManager.getChunkMap().isEmpty()) {
+                synchronized (this) {
+                    if (status != DownloadStatus.DOWNLOADING || completing)
+                        return;
+                    completing = true;
+                }
+                log.info("任务 {} 所有分片下载完成！文件: {}", record.getId(), record.getFileName());
+                stopMonitor();
+                // 校验需要读盘并可能等待整文件摘要，不阻塞共享的监控线程
+                engine.getControlExecutor().execute(this::complete);
+                return;
+            }
+
+            ChunkInfo failed = findFailedChunk();
+            if (failed != null) {
+                // 分片交回次数用尽，任务不可能完成：停止其余分片，保存进度后标记 ERROR (可恢复重试)
+                log.error("任务 {} 分片 {} 交回 {} 次后仍然失败，任务停止", record.getId(), failed.getId(),
+                        failed.getRounds());
+                stopMonitor();
+                // 等待工作器退出需要时间，不阻塞共享的监控线程
+                engine.getControlExecutor().execute(() -> stopDownloading(DownloadStatus.ERROR));
+                return;
+            }
+
+            ChecksumTracker checksum = chunkManager.getChecksum();
+            if (checksum != null) {
+                // 整文件摘要跟随已连续下载的前缀推进
+                checksum.advanceFileDigest(engine.getControlExecutor(), new File(record.getSavePath(), record.getFileName()),
+                        ChecksumTracker.contiguousPrefix(chunkManager.getChunkMap().values()));
+            }
+
+            tryRebalance();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void openWriter() throws IOException {
+        if (fileWriter == null) {
+            ChunkFileWriter writer = ChunkFileWriter.open(new File(record.getSavePath(), record.getFileName()),
+                    properties.getIo(), engine.getMetrics());
+            log.info("任务 {} 使用写入器: {}, 引擎: {}", record.getId(), writer.getClass().getSimpleName(), engineMode);
+            ChecksumTracker checksum = chunkManager.getChecksum();
+            writer = engine.getMetrics().wrap(writer);
+            fileWriter = checksum != null ? checksum.wrap(writer) : writer;
+        }
+    }
+
+    // 续传：只重新校验每个分片 current 边界处的块，不一致时回退该块
+    private void verifyOnResume() throws IOException {
+        ChecksumTracker checksum = chunkManager.getChecksum();
+        if (checksum == null)
+            return;
+        int rolledBack = checksum.verifyOnResume(chunkManager.getChunkMap().values(),
+                new File(record.getSavePath(), record.getFileName()));
+        if (rolledBack > 0) {
+            log.warn("任务 {} 续传校验: {} 个分片回退到上一个校验通过的块", record.getId(), rolledBack);
+        }
+    }
+
+    /**
+     * 所有分片完成后在启动线程池上收尾：关闭写入器和进度日志、校验，再进入 FINISHED 或 ERROR
+     */
+    private void complete() {
+        stopJournal();
+        closeWriter();
+        chunkManager.closeJournal(true);
+        bandwidthGovernor.unregister(record.getId());
+        boolean verified = verifyChecksum();
+        synchronized (this) {
+            completing = false;
+            // 收尾期间被取消
+            if (status != DownloadStatus.DOWNLOADING)
+                return;
+            status = verified ? DownloadStatus.FINISHED : DownloadStatus.ERROR;
+        }
+        updateStatusInDb(status.name());
+        saveRecord(); // 保存chunks信息以记录线程颜色
+        notifyStopped();
+        if (verified && engine.getCache().isEnabled())
+            engine.getCache().store(record, new File(record.getSavePath(), record.getFileName()));
+    }
+
+    /**
+     * 用下载缓存中内容相同的文件完成任务
+     *
+     * @return 命中缓存且任务已结束 (完成或准备期间被取消) 时返回 true
+     */
+    private boolean completeFromCache() {
+        CacheEntry entry = engine.getCache().lookup(record);
+        if (entry == null)
+            return false;
+        File file = new File(record.getSavePath(), record.getFileName());
+        try {
+            engine.getCache().materialize(entry, record, file);
+        } catch (IOException e) {
+            log.warn("任务 {} 使用缓存失败，改为下载: {}", record.getId(), e.toString());
+            return false;
+        }
+        synchronized (this) {
+            if (status != DownloadStatus.PREPARING) {
+                // 准备期间被取消，cancel 可能在文件替换前已删除过占位文件
+                if (status == DownloadStatus.CANCELED)
+                    file.delete();
+                return true;
+            }
+            status = DownloadStatus.FINISHED;
+        }
+        record.setTotalSize(entry.getSize());
+        if (entry.getSha256() != null)
+            record.setChecksum(ChecksumTracker.SHA256 + ":" + entry.getSha256());
+        if (entry.getTreeHash() != null) {
+            record.setTreeHash(entry.getTreeHash());
+            record.setBlockSize(entry.getBlockSize());
+        }
+        chunkManager.markComplete(entry.getSize());
+        log.info("任务 {} 已从缓存完成，文件: {}", record.getId(), record.getFileName());
+        updateStatusInDb("FINISHED");
+        saveRecord();
+        notifyStopped();
+        return true;
+    }
+
+    /**
+     * 下载完成时计算校验值，与创建任务时指定的期望值比较
+     *
+     * @return 未指定期望值或校验一致时返回 true
+     */
+    private boolean verifyChecksum() {
+        ChecksumTracker checksum = chunkManager.getChecksum();
+        if (checksum == null)
+            return true;
+        try {
+            ChecksumTracker.Result result = checksum.finish(new File(record.getSavePath(), record.getFileName()),
+                    record.getTotalSize());
+            record.setTreeHash(result.getTreeHash());
+            if (result.getSha256() != null)
+                record.setChecksum(ChecksumTracker.SHA256 + ":" + result.getSha256());
+            if (record.getExpectedChecksum() != null && !result.matches(record.getExpectedChecksum())) {
+                log.error("任务 {} 校验失败: 期望 {}, 实际 sha256={} sha256-tree={}", record.getId(),
+                        record.getExpectedChecksum(), result.getSha256(), result.getTreeHash());
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            log.error("任务 {} 计算校验值失败", record.getId(), e);
+            return record.getExpectedChecksum() == null;
+        }
+    }
+
+    private void closeWriter() {
+        ChunkFileWriter writer = fileWriter;
+        fileWriter = null;
+        if (writer != null) {
+            try {
+                writer.flush();
+                writer.close();
+            } catch (IOException e) {
+                log.warn("任务 {} 关闭文件写入器失败", record.getId(), e);
+            }
+        }
     }
 
     private void saveRecord() {
@@ -245,32 +663,205 @@ public class DownloadTaskContext {
         repository.save(record);
     }
 
+    // 保存分片进度，只更新记录的进度列
+    private void saveProgress() {
+        chunkManager.saveChunks();
+        if (!chunkManager.getChunkMap().isEmpty()) {
+            repository.updateProgress(record.getId(), record.getDownloadedBytes(), record.getChunkCount());
+        }
+    }
+
     private void updateStatusInDb(String status) {
         record.setStatus(status);
-        repository.save(record);
+        repository.updateStatus(record.getId(), status);
     }
 
-    // 动态重分配逻辑略... 需要根据 colorIndex 传递给新分片
-    public void tryRebalance() {
-        // ... 省略判断逻辑 ...
-        // performSplit(slowChunk);
-    }
+    /**
+     * 自适应连接数：按本秒吞吐和 429/503 调整目标连接数。
+     * 增加时由 tryRebalance 拆分出新分片；减少时停止多余的连接，其分片保留进度，
+     * 等有连接空闲时由 tryRebalance 优先恢复，相当于并入其它连接的后续工作
+     */
+    private void adjustConcurrency() {
+        boolean throttled = false;
+        for (ChunkInfo chunk : chunkManager.getChunkMap().values()) {
+            int code = chunk.getHttpStatus();
+            if (code != 0) {
+                throttled |= code == 429 || code == 503;
+                chunk.setHttpStatus(0);
+            }
+        }
+        List<AtomicBoolean> live = new ArrayList<>();
+        for (AtomicBoolean running : activeWorkers.values()) {
+            if (running.get())
+                live.add(running);
+        }
+        threadCount = concurrency.update(globalSpeed, live.size(), throttled);
 
-    private synchronized void performSplit(ChunkInfo parent) {
-        // 停止旧的
-        AtomicBoolean running = activeWorkers.get(parent.getId());
-        if (running != null)
-            running.set(false);
+        synchronized (this) {
+            List<AtomicBoolean> queued = new ArrayList<>();
+            for (AtomicBoolean running : queuedWorkers.values()) {
+                if (running.get())
+                    queued.add(running);
+            }
+            int excess = live.size() + queued.size() - threadCount;
+            if (excess <= 0 || status != DownloadStatus.DOWNLOADING)
+                return;
+            // 先撤回还在排队的分片，它们尚未建立连接
+            for (; excess > 0 && !queued.isEmpty(); excess--)
+                queued.remove(queued.size() - 1).set(false);
+            List<ChunkInfo> candidates = new ArrayList<>();
+            for (ChunkInfo chunk : chunkManager.getChunkMap().values()) {
+                AtomicBoolean running = activeWorkers.get(chunk.getId());
+                if (!chunk.isFinished() && running != null && running.get())
+                    candidates.add(chunk);
+            }
+            // 优先停止本秒没有进度的连接 (正在重试被限流的请求)，其次是剩余区间最小的
+            candidates.sort(Comparator.comparing((ChunkInfo c) -> c.getSpeed() > 0)
+                    .thenComparingLong(c -> c.getEnd() - c.getCurrent().get()));
+            for (int i = 0; i < excess && i < candidates.size(); i++) {
+                // 工作器退出后才从 activeWorkers 移除，保证恢复前不会有两个工作器写同一分片
+                activeWorkers.get(candidates.get(i).getId()).set(false);
+            }
+        }
+    }
 
-        chunkManager.performSplit(parent);
-        submitTask(parent); // 重新提交前半段
-        // 提交后半段
-        ChunkInfo newChunk = chunkManager.getChunkMap().values().stream()
-                .filter(c -> c.getStart() == parent.getEnd() + 1)
-                .findFirst()
-                .orElse(null);
-        if (newChunk != null) {
+    /**
+     * 动态重分配：存在空闲线程时，先恢复被停下或交回的分片，再从最慢的分片拆出后半段交给空闲线程
+     */
+    public synchronized void tryRebalance() {
+        if (status != DownloadStatus.DOWNLOADING)
+            return;
+        HostCircuitBreaker breaker = engine.getCircuitBreaker();
+        int maxRounds = properties.getRetry().getMaxRounds();
+        for (ChunkInfo chunk : chunkManager.getChunkMap().values()) {
+            if (workerCount() >= threadCount)
+                return;
+            // 自适应减少连接时停下的分片、重试用尽交回的分片和主机熔断时暂停的分片 (熔断期满后才恢复)
+            if (!chunk.isFinished() && chunk.getRounds() < maxRounds && workerOf(chunk.getId()) == null
+                    && (mirrorSet != null || breaker.isAvailable(record.getUrl())))
+                submitTask(chunk);
+        }
+        // 仅在支持 Range 且大小已知时拆分
+        boolean supportRange = record.getSupportRange() != null ? record.getSupportRange() : true;
+        if (!supportRange || record.getTotalSize() <= 0 || !properties.getRebalance().isEnabled()
+                || (mirrorSet == null && !breaker.isAvailable(record.getUrl())))
+            return;
+        long minSplitSize = properties.getRebalance().getMinSplitSize();
+        while (workerCount() < threadCount) {
+            // 只从已开始运行的分片中拆分，排队中的分片速度为 0，并不慢
+            ChunkInfo newChunk = chunkManager.tryRebalance(activeWorkers.keySet(), minSplitSize);
+            if (newChunk == null)
+                break;
             submitTask(newChunk);
         }
     }
+
+    /**
+     * 边下边读：从 offset 开始已写入文件的连续字节数
+     */
+    public long availableFrom(long offset) {
+        return chunkManager.availableFrom(offset);
+    }
+
+    /**
+     * 边下边读：读取方在等待 offset 处的数据，优先下载该位置
+     * <p>
+     * offset 距所在分片的下载位置超过 minSplitSize 时从 offset 拆出新分片立即下载，否则恢复被停下的所在分片。
+     * 连接数已满时停下离读取位置最远的一个连接 (offset 之前的区间读取方已跳过，最后才需要)，其分片保留进度，
+     * 由 tryRebalance 稍后恢复。
+     * </p>
+     */
+    public synchronized void prioritize(long offset) {
+        if (status != DownloadStatus.DOWNLOADING)
+            return;
+        ChunkInfo chunk = chunkManager.findChunk(offset);
+        if (chunk == null || chunk.isFinished())
+            return;
+        if (mirrorSet == null && !engine.getCircuitBreaker().isAvailable(record.getUrl()))
+            return;
+        ChunkInfo target = null;
+        boolean supportRange = record.getSupportRange() != null ? record.getSupportRange() : true;
+        if (supportRange && record.getTotalSize() > 0
+                && offset - chunk.getCurrent().get() >= properties.getRebalance().getMinSplitSize()) {
+            target = chunkManager.splitAt(chunk, offset);
+        }
+        if (target == null && workerOf(chunk.getId()) == null
+                && chunk.getRounds() < properties.getRetry().getMaxRounds()) {
+            target = chunk;
+        }
+        if (target == null)
+            return;
+        log.info("任务 {} 优先下载读取位置 {}", record.getId(), offset);
+        submitTask(target);
+
+        long live = activeWorkers.values().stream().filter(AtomicBoolean::get).count()
+                + queuedWorkers.values().stream().filter(AtomicBoolean::get).count();
+        if (live <= threadCount)
+            return;
+        ChunkInfo victim = null;
+        long farthest = -1;
+        for (ChunkInfo c : chunkManager.getChunkMap().values()) {
+            AtomicBoolean running = workerOf(c.getId());
+            if (c == target || c.isFinished() || running == null || !running.get())
+                continue;
+            long distance = c.getStart() > offset ? c.getStart() - offset : Long.MAX_VALUE;
+            if (distance > farthest) {
+                farthest = distance;
+                victim = c;
+            }
+        }
+        if (victim != null)
+            workerOf(victim.getId()).set(false);
+    }
+
+    private void onWorkerExit(ChunkInfo chunkInfo, AtomicBoolean running) {
+        activeWorkers.remove(chunkInfo.getId(), running);
+        engine.getMetrics().chunkExited();
+        boolean exhausted = !chunkInfo.isFinished() && running.get()
+                && chunkInfo.getErrorCount() >= engine.getRetryPolicy().getMaxAttempts();
+        MirrorSet mirrors = mirrorSet;
+        if (mirrors != null) {
+            mirrors.release(chunkInfo);
+            // 重试次数用尽：暂停该镜像，换到其它镜像重新下载
+            if (exhausted && mirrors.failover(chunkInfo)) {
+                synchronized (this) {
+                    if (status == DownloadStatus.DOWNLOADING) {
+                        log.warn("任务 {} 分片 {} 在镜像 {} 上失败，切换镜像", record.getId(), chunkInfo.getId(),
+                                chunkInfo.getSourceUrl());
+                        chunkInfo.setErrorCount(0);
+                        submitTask(chunkInfo);
+                        return;
+                    }
+                }
+            }
+        }
+        boolean supportRange = record.getSupportRange() != null ? record.getSupportRange() : true;
+        boolean ranged = supportRange && record.getTotalSize() > 0;
+        if (exhausted) {
+            // 交回任务：剩余区间由下一个空闲连接 (其它分片完成时或下一次监控) 接手，而不是停在这里；
+            // 流式下载没有其它连接可以接手，直接判定失败
+            int maxRounds = properties.getRetry().getMaxRounds();
+            chunkInfo.setErrorCount(0);
+            chunkInfo.setRounds(ranged ? chunkInfo.getRounds() + 1 : maxRounds);
+            if (chunkInfo.getRounds() < maxRounds)
+                log.warn("任务 {} 分片 {} 交回任务 ({}/{})", record.getId(), chunkInfo.getId(), chunkInfo.getRounds(),
+                        maxRounds);
+        }
+        // 分片完成后线程空闲，立即恢复交回的分片或窃取其它分片的剩余区间
+        if (chunkInfo.isFinished() && ranged) {
+            tryRebalance();
+        }
+    }
+
+    /**
+     * 交回次数用尽且没有工作器在下载的分片
+     */
+    private ChunkInfo findFailedChunk() {
+        int maxRounds = properties.getRetry().getMaxRounds();
+        for (ChunkInfo chunk : chunkManager.getChunkMap().values()) {
+            if (!chunk.isFinished() && chunk.getRounds() >= maxRounds && workerOf(chunk.getId()) == null)
+                return chunk;
+        }
+        return null;
+    }
 }
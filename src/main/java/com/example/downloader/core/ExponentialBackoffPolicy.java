@@ -0,0 +1,41 @@
+package com.example.downloader.core;
+
+import com.example.downloader.config.DownloaderProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 指数退避 + 全抖动 (full jitter)
+ * <p>
+ * 第 n 次失败后在 [0, min(max, base * 2^(n-1))] 内随机等待，同时失败的大量分片不会在同一时刻一起重试。
+ * 429/503 响应带有 Retry-After 时至少等待服务器要求的时间 (上限 maxRetryAfterMs)，再加一段抖动把重试错开。
+ * </p>
+ */
+@Component
+public class ExponentialBackoffPolicy implements RetryPolicy {
+    private final DownloaderProperties.Retry config;
+
+    public ExponentialBackoffPolicy(DownloaderProperties properties) {
+        this.config = properties.getRetry();
+    }
+
+    @Override
+    public int getMaxAttempts() {
+        return config.getMaxAttempts();
+    }
+
+    @Override
+    public long delayMillis(int attempt, Exception error) {
+        long base = Math.max(1, config.getBaseDelayMs());
+        long ceiling = Math.min(config.getMaxDelayMs(), base << Math.min(Math.max(attempt - 1, 0), 20));
+        long delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        if (error instanceof HttpStatusException) {
+            long retryAfter = ((HttpStatusException) error).getRetryAfterMillis();
+            if (retryAfter > 0) {
+                delay = Math.min(retryAfter, config.getMaxRetryAfterMs()) + ThreadLocalRandom.current().nextLong(base + 1);
+            }
+        }
+        return delay;
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.downloader.core;
+
+import com.example.downloader.config.DownloaderProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按主机熔断
+ * <p>
+ * 所有任务共享。同一主机连续失败 (连接错误、超时、5xx) 达到阈值后熔断：在熔断期内工作器不再向它发起请求，
+ * 分片交回任务等待，不占用连接。熔断期满后只放行一个探测请求 (半开)，成功则恢复，失败则再次熔断且熔断期翻倍。
+ * 任意一次成功的响应都会清除该主机的失败记录。
+ * </p>
+ */
+@Slf4j
+@Component
+public class HostCircuitBreaker {
+    private final DownloaderProperties.Breaker config;
+    private final Map<String, Circuit> circuits = new ConcurrentHashMap<>();
+
+    public HostCircuitBreaker(DownloaderProperties properties) {
+        this.config = properties.getBreaker();
+    }
+
+    /**
+     * 发起请求前调用：熔断中返回 false；熔断期满时放行一个探测请求
+     */
+    public boolean tryAcquire(String url) {
+        if (!config.isEnabled())
+            return true;
+        Circuit c = circuits.get(hostOf(url));
+        return c == null || c.tryAcquire(System.currentTimeMillis());
+    }
+
+    /**
+     * 当前是否可以向该主机发起请求 (不占用探测名额)
+     */
+    public boolean isAvailable(String url) {
+        if (!config.isEnabled())
+            return true;
+        Circuit c = circuits.get(hostOf(url));
+        return c == null || c.isAvailable(System.currentTimeMillis());
+    }
+
+    /**
+     * 收到成功响应
+     */
+    public void onSuccess(String url) {
+        Circuit c = circuits.remove(hostOf(url));
+        if (c != null && c.trips > 0)
+            log.info("主机 {} 已恢复，解除熔断", c.host);
+    }
+
+    /**
+     * 请求失败；4xx (包括 429) 不是主机故障，不计入
+     */
+    public void onFailure(String url, Exception error) {
+        if (!config.isEnabled() || !(error instanceof IOException))
+            return;
+        if (error instanceof HttpStatusException && !((HttpStatusException) error).isServerError())
+            return;
+        String host = hostOf(url);
+        circuits.computeIfAbsent(host, Circuit::new).failure(System.currentTimeMillis());
+    }
+
+    /**
+     * 熔断中的主机数
+     */
+    public int openCount() {
+        long now = System.currentTimeMillis();
+        int n = 0;
+        for (Circuit c : circuits.values()) {
+            if (!c.isAvailable(now))
+                n++;
+        }
+        return n;
+    }
+
+    private static String hostOf(String url) {
+        try {
+            String authority = URI.create(url).getAuthority();
+            return authority != null ? authority : "";
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+    }
+
+    private class Circuit {
+        final String host;
+        int failures; // 连续失败次数
+        int trips; // 连续熔断次数，决定熔断时长
+        boolean open;
+        long openUntil;
+        long probeDeadline; // 半开时探测请求的截止时间，超过后允许再放行一个 (探测的工作器可能已被停止)
+
+        Circuit(String host) {
+            this.host = host;
+        }
+
+        synchronized boolean tryAcquire(long now) {
+            if (!open)
+                return true;
+            if (now < openUntil || now < probeDeadline)
+                return false;
+            probeDeadline = now + config.getMaxOpenMs();
+            return true;
+        }
+
+        synchronized boolean isAvailable(long now) {
+            return !open || (now >= openUntil && now >= probeDeadline);
+        }
+
+        synchronized void failure(long now) {
+            failures++;
+            boolean probing = open && now >= openUntil;
+            if (open && !probing)
+                return; // 熔断前已发出的请求
+            if (probing || failures >= config.getFailureThreshold()) {
+                trips++;
+                long duration = Math.min(config.getMaxOpenMs(), config.getOpenMs() << Math.min(trips - 1, 20));
+                open = true;
+                openUntil = now + duration;
+                probeDeadline = 0;
+                log.warn("主机 {} 连续失败 {} 次，熔断 {} ms", host, failures, duration);
+            }
+        }
+    }
+}
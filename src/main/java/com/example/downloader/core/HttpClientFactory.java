@@ -1,68 +1,257 @@
 package com.example.downloader.core;
 
+import com.example.downloader.config.DownloaderProperties;
 import com.example.downloader.entity.DownloadRecord;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.http.HttpHost;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.ssl.SSLContexts;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * HTTP客户端工厂
  * <p>
- * 负责创建支持代理配置的HTTP客户端
+ * 按代理配置维护长生命周期的 HttpClient，每个客户端持有一个 PoolingHttpClientConnectionManager，
+ * 所有任务的所有分片共享连接池，复用 Keep-Alive 连接，避免每次请求重新握手。
+ * ASYNC 引擎使用的 HttpAsyncClient 同样按代理共享，所有客户端共用少量 IO 事件循环线程数配置。
  * </p>
  */
 @Slf4j
+@Component
 public class HttpClientFactory {
 
+    private final DownloaderProperties.Http config;
+    private final int ioThreads;
+    private final Map<String, CloseableHttpClient> clients = new ConcurrentHashMap<>();
+    private final Map<String, CloseableHttpAsyncClient> asyncClients = new ConcurrentHashMap<>();
+    private final Map<String, PoolingHttpClientConnectionManager> managers = new ConcurrentHashMap<>();
+    private final Map<String, PoolingNHttpClientConnectionManager> asyncManagers = new ConcurrentHashMap<>();
+
+    public HttpClientFactory(DownloaderProperties properties) {
+        this.config = properties.getHttp();
+        this.ioThreads = Math.max(1, properties.getEngine().getIoThreads());
+    }
+
+    /**
+     * 获取支持代理的共享 HttpClient
+     * <p>
+     * 返回的客户端由工厂统一管理，调用方只需关闭 Response，不能关闭客户端本身
+     * </p>
+     */
+    public CloseableHttpClient getHttpClient(DownloadRecord record) {
+        return clients.computeIfAbsent(proxyKey(record), key -> buildClient(key, record));
+    }
+
+    /**
+     * 是否可以使用 ASYNC 引擎 (NIO 客户端不支持 SOCKS 代理)
+     */
+    public boolean supportsAsync(DownloadRecord record) {
+        return !"SOCKS".equalsIgnoreCase(record.getProxyType()) || record.getProxyHost() == null
+                || record.getProxyPort() == null;
+    }
+
     /**
-     * 创建支持代理的 HttpClient
+     * 获取共享的非阻塞 HttpAsyncClient，生命周期同样由工厂管理
      */
-    public CloseableHttpClient createHttpClient(DownloadRecord record) {
-        HttpClientBuilder builder = HttpClients.custom();
+    public CloseableHttpAsyncClient getAsyncClient(DownloadRecord record) {
+        if (!supportsAsync(record)) {
+            throw new IllegalStateException("ASYNC 引擎不支持 SOCKS 代理");
+        }
+        return asyncClients.computeIfAbsent(proxyKey(record), key -> buildAsyncClient(key, record));
+    }
+
+    private String proxyKey(DownloadRecord record) {
+        if (record.getProxyType() == null || record.getProxyHost() == null || record.getProxyPort() == null) {
+            return "DIRECT";
+        }
+        return record.getProxyType().toUpperCase() + "://" + record.getProxyHost() + ":" + record.getProxyPort();
+    }
+
+    /**
+     * 所有连接池已借出 (正在使用) 的连接数
+     */
+    public int leasedConnections() {
+        int leased = 0;
+        for (PoolingHttpClientConnectionManager cm : managers.values()) {
+            leased += cm.getTotalStats().getLeased();
+        }
+        for (PoolingNHttpClientConnectionManager cm : asyncManagers.values()) {
+            leased += cm.getTotalStats().getLeased();
+        }
+        return leased;
+    }
 
-        // 配置代理
+    private CloseableHttpClient buildClient(String key, DownloadRecord record) {
         String proxyType = record.getProxyType();
         String proxyHost = record.getProxyHost();
         Integer proxyPort = record.getProxyPort();
 
+        RequestConfig.Builder requestConfig = RequestConfig.custom()
+                .setConnectTimeout(config.getConnectTimeout())
+                .setSocketTimeout(config.getSocketTimeout())
+                .setRedirectsEnabled(true);
+        Registry<ConnectionSocketFactory> registry = null;
+
         if (proxyType != null && proxyHost != null && proxyPort != null) {
             if ("HTTP".equalsIgnoreCase(proxyType)) {
                 // HTTP 代理
-                HttpHost proxy = new HttpHost(proxyHost, proxyPort);
-                RequestConfig config = RequestConfig.custom()
-                        .setProxy(proxy)
-                        .setConnectTimeout(10000)
-                        .setSocketTimeout(30000)
-                        .setRedirectsEnabled(true)
-                        .build();
-                builder.setDefaultRequestConfig(config);
-                log.info("使用 HTTP 代理: {}:{}", proxyHost, proxyPort);
+                requestConfig.setProxy(new HttpHost(proxyHost, proxyPort));
+                log.info("创建 HTTP 代理连接池: {}:{}", proxyHost, proxyPort);
             } else if ("SOCKS".equalsIgnoreCase(proxyType)) {
-                // SOCKS 代理需要通过系统属性设置
-                System.setProperty("socksProxyHost", proxyHost);
-                System.setProperty("socksProxyPort", String.valueOf(proxyPort));
-                log.info("使用 SOCKS 代理: {}:{}", proxyHost, proxyPort);
-
-                RequestConfig config = RequestConfig.custom()
-                        .setConnectTimeout(10000)
-                        .setSocketTimeout(30000)
-                        .setRedirectsEnabled(true)
+                // SOCKS 代理通过自定义 Socket 工厂实现，只作用于当前连接池，不修改全局系统属性
+                Proxy proxy = new Proxy(Proxy.Type.SOCKS, new InetSocketAddress(proxyHost, proxyPort));
+                registry = RegistryBuilder.<ConnectionSocketFactory>create()
+                        .register("http", new SocksPlainSocketFactory(proxy))
+                        .register("https", new SocksSslSocketFactory(proxy))
                         .build();
-                builder.setDefaultRequestConfig(config);
+                log.info("创建 SOCKS 代理连接池: {}:{}", proxyHost, proxyPort);
             }
         } else {
-            // 无代理配置
-            RequestConfig config = RequestConfig.custom()
-                    .setConnectTimeout(10000)
-                    .setSocketTimeout(30000)
-                    .setRedirectsEnabled(true)
-                    .build();
-            builder.setDefaultRequestConfig(config);
+            log.info("创建直连连接池");
         }
 
+        PoolingHttpClientConnectionManager cm = registry != null
+                ? new PoolingHttpClientConnectionManager(registry)
+                : new PoolingHttpClientConnectionManager();
+        cm.setMaxTotal(config.getMaxTotal());
+        cm.setDefaultMaxPerRoute(config.getMaxPerRoute());
+        // 复用前校验空闲过久的连接，避免拿到被服务器关闭的半死连接
+        cm.setValidateAfterInactivity(2000);
+        managers.put(key, cm);
+
+        long defaultKeepAliveMs = TimeUnit.SECONDS.toMillis(config.getKeepAliveSeconds());
+        HttpClientBuilder builder = HttpClients.custom()
+                .setConnectionManager(cm)
+                .setDefaultRequestConfig(requestConfig.build())
+                .setKeepAliveStrategy((response, context) -> {
+                    long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE
+                            .getKeepAliveDuration(response, context);
+                    return serverKeepAlive > 0 ? serverKeepAlive : defaultKeepAliveMs;
+                })
+                // 后台线程回收过期与空闲连接
+                .evictExpiredConnections()
+                .evictIdleConnections(config.getIdleEvictSeconds(), TimeUnit.SECONDS);
         return builder.build();
     }
-}
\ No newline at end of file
+
+    private CloseableHttpAsyncClient buildAsyncClient(String key, DownloadRecord record) {
+        RequestConfig.Builder requestConfig = RequestConfig.custom()
+                .setConnectTimeout(config.getConnectTimeout())
+                .setSocketTimeout(config.getSocketTimeout())
+                .setRedirectsEnabled(true);
+        if ("HTTP".equalsIgnoreCase(record.getProxyType()) && record.getProxyHost() != null
+                && record.getProxyPort() != null) {
+            requestConfig.setProxy(new HttpHost(record.getProxyHost(), record.getProxyPort()));
+            log.info("创建 HTTP 代理异步连接池: {}:{}", record.getProxyHost(), record.getProxyPort());
+        } else {
+            log.info("创建直连异步连接池, IO 线程数: {}", ioThreads);
+        }
+
+        IOReactorConfig reactorConfig = IOReactorConfig.custom()
+                .setIoThreadCount(ioThreads)
+                .setConnectTimeout(config.getConnectTimeout())
+                .setSoTimeout(config.getSocketTimeout())
+                .build();
+        PoolingNHttpClientConnectionManager cm;
+        try {
+            cm = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(reactorConfig));
+        } catch (IOReactorException e) {
+            throw new IllegalStateException("创建 IO 事件循环失败", e);
+        }
+        cm.setMaxTotal(config.getMaxTotal());
+        cm.setDefaultMaxPerRoute(config.getMaxPerRoute());
+        asyncManagers.put(key, cm);
+
+        long defaultKeepAliveMs = TimeUnit.SECONDS.toMillis(config.getKeepAliveSeconds());
+        CloseableHttpAsyncClient client = HttpAsyncClients.custom()
+                .setConnectionManager(cm)
+                .setDefaultRequestConfig(requestConfig.build())
+                .setKeepAliveStrategy((response, context) -> {
+                    long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE
+                            .getKeepAliveDuration(response, context);
+                    return serverKeepAlive > 0 ? serverKeepAlive : defaultKeepAliveMs;
+                })
+                .build();
+        client.start();
+        return client;
+    }
+
+    /**
+     * 关闭所有连接池
+     */
+    @PreDestroy
+    public void shutdown() {
+        log.info("关闭 HTTP 连接池, 数量: {}", clients.size() + asyncClients.size());
+        for (CloseableHttpClient client : clients.values()) {
+            try {
+                client.close();
+            } catch (IOException e) {
+                log.warn("关闭 HTTP 连接池失败", e);
+            }
+        }
+        clients.clear();
+        managers.clear();
+        for (CloseableHttpAsyncClient client : asyncClients.values()) {
+            try {
+                client.close();
+            } catch (IOException e) {
+                log.warn("关闭异步连接池失败", e);
+            }
+        }
+        asyncClients.clear();
+        asyncManagers.clear();
+    }
+
+    private static class SocksPlainSocketFactory extends PlainConnectionSocketFactory {
+        private final Proxy proxy;
+
+        SocksPlainSocketFactory(Proxy proxy) {
+            this.proxy = proxy;
+        }
+
+        @Override
+        public Socket createSocket(HttpContext context) {
+            return new Socket(proxy);
+        }
+    }
+
+    private static class SocksSslSocketFactory extends SSLConnectionSocketFactory {
+        private final Proxy proxy;
+
+        SocksSslSocketFactory(Proxy proxy) {
+            super(SSLContexts.createSystemDefault());
+            this.proxy = proxy;
+        }
+
+        @Override
+        public Socket createSocket(HttpContext context) {
+            return new Socket(proxy);
+        }
+    }
+}
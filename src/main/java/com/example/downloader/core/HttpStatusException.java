@@ -0,0 +1,46 @@
+package com.example.downloader.core;
+
+import lombok.Getter;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.utils.DateUtils;
+
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * 分片请求收到错误响应 (状态码 >= 300)
+ */
+@Getter
+public class HttpStatusException extends IOException {
+    private final int status;
+    private final long retryAfterMillis; // 响应的 Retry-After，没有时为 0
+
+    public HttpStatusException(HttpResponse response) {
+        super("HTTP " + response.getStatusLine().getStatusCode());
+        this.status = response.getStatusLine().getStatusCode();
+        this.retryAfterMillis = parseRetryAfter(response.getFirstHeader("Retry-After"));
+    }
+
+    /**
+     * 服务器已过载或出错 (5xx)，用于熔断统计；4xx 是请求本身的问题，429 由退避和自适应连接数处理
+     */
+    public boolean isServerError() {
+        return status >= 500;
+    }
+
+    /**
+     * Retry-After 为秒数或 HTTP 日期
+     */
+    static long parseRetryAfter(Header header) {
+        if (header == null || header.getValue() == null)
+            return 0;
+        String value = header.getValue().trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e) {
+            Date date = DateUtils.parseDate(value);
+            return date != null ? Math.max(0, date.getTime() - System.currentTimeMillis()) : 0;
+        }
+    }
+}
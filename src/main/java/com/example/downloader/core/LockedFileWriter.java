@@ -0,0 +1,68 @@
+package com.example.downloader.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 全局锁写入器
+ * <p>
+ * 保留旧的加锁 + seek/write 写入路径，作为锁竞争对比基线，获取锁的等待时间记入 downloader.write.lock.wait
+ * </p>
+ */
+class LockedFileWriter implements ChunkFileWriter {
+    private final RandomAccessFile raf;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final DownloadMetrics metrics;
+
+    LockedFileWriter(File file, DownloadMetrics metrics) throws IOException {
+        this.raf = new RandomAccessFile(file, "rw");
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void write(byte[] buf, int off, int len, long position) throws IOException {
+        long start = System.nanoTime();
+        lock.lock();
+        try {
+            if (metrics != null)
+                metrics.recordLockWait(System.nanoTime() - start);
+            raf.seek(position);
+            raf.write(buf, off, len);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void write(ByteBuffer src, long position) throws IOException {
+        long start = System.nanoTime();
+        lock.lock();
+        try {
+            if (metrics != null)
+                metrics.recordLockWait(System.nanoTime() - start);
+            while (src.hasRemaining()) {
+                position += raf.getChannel().write(src, position);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        raf.getFD().sync();
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            raf.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.example.downloader.core;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 内存映射写入器
+ * <p>
+ * 按固定大小的段映射目标文件，写入直接拷贝进 MappedByteBuffer，省去每次写入的系统调用。
+ * 同时映射的段数有上限，超出时回收最久未使用的段 (优先没有写入进行中的段)，因此多 GB 文件也不会耗尽地址空间。
+ * 回收的段在锁外刷盘，仍有写入进行中的段保留到写入结束后的下一次回收或检查点再刷盘，不会漏刷。
+ * 数据在每个进度日志检查点、flush() 或段被回收时刷盘，脏页不会无限累积。映射失败时退化为 FileChannel 定位写入。
+ * </p>
+ */
+@Slf4j
+class MappedFileWriter implements ChunkFileWriter {
+    private final FileChannel channel;
+    private final long fileSize;
+    private final long segmentSize;
+    private final int maxSegments;
+    private final Map<Long, Segment> segments = new ConcurrentHashMap<>();
+    private final Set<Segment> retired = ConcurrentHashMap.newKeySet(); // 已回收、尚未刷盘的段
+    private volatile boolean mappingFailed = false;
+
+    MappedFileWriter(File file, long segmentSize, int maxSegments) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.fileSize = channel.size();
+        this.segmentSize = segmentSize;
+        this.maxSegments = Math.max(1, maxSegments);
+        try {
+            // 预先映射第一段，尽早发现不支持映射的情况
+            segment(0).holders.decrementAndGet();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void write(byte[] buf, int off, int len, long position) throws IOException {
+        write(ByteBuffer.wrap(buf, off, len), position);
+    }
+
+    @Override
+    public void write(ByteBuffer src, long position) throws IOException {
+        while (src.hasRemaining()) {
+            int len = src.remaining();
+            if (mappingFailed || position + len > fileSize) {
+                while (src.hasRemaining()) {
+                    position += channel.write(src, position);
+                }
+                return;
+            }
+            long index = position / segmentSize;
+            Segment segment;
+            try {
+                segment = segment(index);
+            } catch (IOException e) {
+                log.warn("内存映射失败，退化为 FileChannel 写入", e);
+                mappingFailed = true;
+                continue;
+            }
+            try {
+                int offsetInSegment = (int) (position - index * segmentSize);
+                int n = Math.min(len, segment.buffer.capacity() - offsetInSegment);
+                // duplicate() 拥有独立的 position，多个线程写不同区域互不影响
+                ByteBuffer view = segment.buffer.duplicate();
+                view.position(offsetInSegment);
+                ByteBuffer part = src.duplicate();
+                part.limit(part.position() + n);
+                view.put(part);
+                src.position(src.position() + n);
+                segment.lastAccess = System.nanoTime();
+                position += n;
+            } finally {
+                segment.holders.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 取得段并登记为写入中，调用方写完后减少 holders
+     */
+    private Segment segment(long index) throws IOException {
+        Segment segment = segments.get(index);
+        if (segment != null) {
+            segment.holders.incrementAndGet();
+            // 与回收竞争：登记前已被回收的段可能已刷盘并丢弃，改为在锁内重新取得
+            if (!segment.retired)
+                return segment;
+            segment.holders.decrementAndGet();
+        }
+        boolean evicted = false;
+        synchronized (this) {
+            segment = segments.get(index);
+            if (segment == null) {
+                if (segments.size() >= maxSegments) {
+                    evictLeastRecentlyUsed();
+                    evicted = true;
+                }
+                long start = index * segmentSize;
+                long size = Math.min(segmentSize, fileSize - start);
+                segment = new Segment(channel.map(FileChannel.MapMode.READ_WRITE, start, size));
+                segments.put(index, segment);
+            }
+            segment.holders.incrementAndGet();
+        }
+        if (evicted)
+            forceRetired(false);
+        return segment;
+    }
+
+    /**
+     * 把最久未使用的段移出映射表 (优先没有写入进行中的段)，刷盘在锁外进行
+     */
+    private void evictLeastRecentlyUsed() {
+        Long oldest = null;
+        long oldestAccess = Long.MAX_VALUE;
+        boolean oldestIdle = false;
+        for (Map.Entry<Long, Segment> e : segments.entrySet()) {
+            Segment segment = e.getValue();
+            boolean idle = segment.holders.get() == 0;
+            if ((idle && !oldestIdle) || (idle == oldestIdle && segment.lastAccess < oldestAccess)) {
+                oldestAccess = segment.lastAccess;
+                oldest = e.getKey();
+                oldestIdle = idle;
+            }
+        }
+        if (oldest != null) {
+            Segment segment = segments.remove(oldest);
+            segment.retired = true;
+            retired.add(segment);
+        }
+    }
+
+    /**
+     * 刷出已回收的段，没有写入进行中的段刷盘后丢弃 (映射在没有引用后由 GC 解除)。
+     * all 为 true 时写入中的段也刷盘 (检查点)，但仍保留到写入结束
+     */
+    private void forceRetired(boolean all) {
+        for (Segment segment : retired) {
+            if (segment.holders.get() == 0) {
+                if (retired.remove(segment))
+                    segment.buffer.force();
+            } else if (all) {
+                segment.buffer.force();
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        forceRetired(true);
+        for (Segment segment : segments.values()) {
+            segment.buffer.force();
+        }
+        channel.force(false);
+    }
+
+    /**
+     * 无论是否 sync 都刷出映射段：映射的脏页由操作系统自行决定何时回写，
+     * 不在检查点刷盘时长时间下载会积压大量未落盘数据
+     */
+    @Override
+    public void checkpoint(boolean sync) throws IOException {
+        forceRetired(true);
+        for (Segment segment : segments.values()) {
+            segment.buffer.force();
+        }
+        if (sync)
+            channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        segments.clear();
+        retired.clear();
+        channel.close();
+    }
+
+    private static class Segment {
+        final MappedByteBuffer buffer;
+        volatile long lastAccess = System.nanoTime();
+        final AtomicInteger holders = new AtomicInteger(); // 进行中的写入数
+        volatile boolean retired; // 已移出映射表
+
+        Segment(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+}
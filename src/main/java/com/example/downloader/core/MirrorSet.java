@@ -0,0 +1,207 @@
+package com.example.downloader.core;
+
+import com.example.downloader.model.ChunkInfo;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.*;
+
+/**
+ * 多镜像分配器
+ * <p>
+ * 一个任务的多个等价下载地址。新分片分配给 "单连接吞吐 / (当前连接数 + 1)" 最大的镜像，
+ * 连接数因此按各镜像的单连接吞吐量成比例分布。吞吐量由监控线程每秒根据分片速度采样 (EWMA)。
+ * 连续出错的镜像暂停使用一段时间，其分片在下次重试时切换到其它镜像；明显变慢的镜像不再分配新分片，
+ * 它的分片预计剩余时间最长，会被动态重分配优先拆分给快的镜像。
+ * </p>
+ */
+@Slf4j
+public class MirrorSet {
+    private static final int FAILURE_LIMIT = 3; // 连续失败次数达到后暂停使用
+    private static final long COOLDOWN_MS = 30_000; // 暂停时长
+    private static final double SLOW_RATIO = 0.25; // 单连接吞吐低于最快镜像的该比例视为变慢
+
+    private final List<Mirror> mirrors = new ArrayList<>();
+    private final Map<String, Integer> lastErrors = new HashMap<>(); // chunkId -> 上次采样时的错误次数
+
+    public MirrorSet(List<String> urls) {
+        for (String url : urls) {
+            mirrors.add(new Mirror(url));
+        }
+    }
+
+    /**
+     * 解析以换行分隔的镜像列表
+     */
+    public static List<String> parse(String mirrors) {
+        List<String> list = new ArrayList<>();
+        if (mirrors != null) {
+            for (String line : mirrors.split("\n")) {
+                if (!line.trim().isEmpty())
+                    list.add(line.trim());
+            }
+        }
+        return list;
+    }
+
+    public int size() {
+        return mirrors.size();
+    }
+
+    /**
+     * 为即将启动的分片分配镜像
+     */
+    public synchronized void assign(ChunkInfo chunk) {
+        Mirror m = choose(null);
+        m.connections++;
+        chunk.setSourceUrl(m.url);
+    }
+
+    /**
+     * 分片工作器退出时释放连接计数
+     */
+    public synchronized void release(ChunkInfo chunk) {
+        Mirror m = find(chunk.getSourceUrl());
+        if (m != null && m.connections > 0)
+            m.connections--;
+        lastErrors.remove(chunk.getId());
+    }
+
+    /**
+     * 分片重试次数用尽：暂停其所在镜像
+     *
+     * @return 是否还有其它可用镜像，有则可重新分配后重试
+     */
+    public synchronized boolean failover(ChunkInfo chunk) {
+        Mirror old = find(chunk.getSourceUrl());
+        if (old != null)
+            disable(old);
+        long now = System.currentTimeMillis();
+        for (Mirror m : mirrors) {
+            if (m.usable(now))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * 监控线程每秒调用：按分片速度更新各镜像的单连接吞吐，并根据错误次数变化切换镜像
+     *
+     * @param active 正在运行的分片
+     */
+    public synchronized void sample(Collection<ChunkInfo> active) {
+        long now = System.currentTimeMillis();
+        Map<Mirror, long[]> stats = new HashMap<>(); // {速度和, 连接数}
+        for (ChunkInfo c : active) {
+            Mirror m = find(c.getSourceUrl());
+            if (m == null)
+                continue;
+            long[] s = stats.computeIfAbsent(m, k -> new long[2]);
+            s[0] += c.getSpeed();
+            s[1]++;
+
+            Integer last = lastErrors.put(c.getId(), c.getErrorCount());
+            if (last != null && c.getErrorCount() > last) {
+                // 分片出错：记入镜像，镜像暂停使用时把分片换到其它镜像 (下次重试生效)
+                if (++m.failures >= FAILURE_LIMIT)
+                    disable(m);
+                if (!m.usable(now)) {
+                    Mirror next = choose(m);
+                    if (next != m) {
+                        m.connections--;
+                        next.connections++;
+                        c.setSourceUrl(next.url);
+                    }
+                }
+            } else if (c.getSpeed() > 0) {
+                m.failures = 0;
+            }
+        }
+        for (Map.Entry<Mirror, long[]> e : stats.entrySet()) {
+            long perConnection = e.getValue()[0] / e.getValue()[1];
+            Mirror m = e.getKey();
+            m.throughput = m.throughput < 0 ? perConnection : (long) (m.throughput * 0.7 + perConnection * 0.3);
+        }
+    }
+
+    /**
+     * 各镜像的状态，用于 API 展示
+     */
+    public synchronized List<Map<String, Object>> snapshot() {
+        long now = System.currentTimeMillis();
+        List<Map<String, Object>> list = new ArrayList<>();
+        for (Mirror m : mirrors) {
+            Map<String, Object> map = new HashMap<>();
+            map.put("url", m.url);
+            map.put("connections", m.connections);
+            map.put("throughput", Math.max(m.throughput, 0));
+            map.put("usable", m.usable(now));
+            list.add(map);
+        }
+        return list;
+    }
+
+    private Mirror choose(Mirror exclude) {
+        long now = System.currentTimeMillis();
+        long best = 0;
+        for (Mirror m : mirrors) {
+            best = Math.max(best, m.throughput);
+        }
+        // 尚未测速的镜像按最快镜像估计，保证每个镜像都有机会被测速
+        long unmeasured = Math.max(best, 1);
+        Mirror chosen = null;
+        double chosenScore = -1;
+        for (Mirror m : mirrors) {
+            if (m == exclude || !m.usable(now))
+                continue;
+            long weight = m.throughput < 0 ? unmeasured : m.throughput;
+            if (m.throughput >= 0 && weight < best * SLOW_RATIO)
+                weight = 0; // 变慢的镜像只在没有其它选择时使用
+            double score = (double) weight / (m.connections + 1);
+            if (score > chosenScore) {
+                chosenScore = score;
+                chosen = m;
+            }
+        }
+        if (chosen == null) {
+            // 没有可用镜像：退回暂停时间最早结束的镜像
+            chosen = exclude != null && mirrors.size() == 1 ? exclude
+                    : Collections.min(mirrors, Comparator.comparingLong(m -> m == exclude ? Long.MAX_VALUE : m.disabledUntil));
+        }
+        return chosen;
+    }
+
+    private void disable(Mirror m) {
+        if (m.usable(System.currentTimeMillis())) {
+            log.warn("镜像 {} 连续出错，暂停使用 {} 秒", m.url, COOLDOWN_MS / 1000);
+        }
+        m.disabledUntil = System.currentTimeMillis() + COOLDOWN_MS;
+        m.failures = 0;
+        m.throughput = -1; // 恢复后重新测速
+    }
+
+    private Mirror find(String url) {
+        if (url == null)
+            return null;
+        for (Mirror m : mirrors) {
+            if (m.url.equals(url))
+                return m;
+        }
+        return null;
+    }
+
+    private static class Mirror {
+        final String url;
+        long throughput = -1; // 单连接吞吐 bytes/s，-1 表示尚未测速
+        int connections;
+        int failures;
+        long disabledUntil;
+
+        Mirror(String url) {
+            this.url = url;
+        }
+
+        boolean usable(long now) {
+            return now >= disabledUntil;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package com.example.downloader.core;
+
+import com.example.downloader.model.ChunkInfo;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * 分片进度日志
+ * <p>
+ * 每个任务一个只追加的二进制文件，定期把分片状态相对上次记录的变化 (新分片、进度、
+ * 拆分缩短的 end、完成) 批量追加写入。每条记录带 CRC32，进程崩溃留下的半条记录在回放时被丢弃。
+ * 记录数超过阈值时把当前状态重写为新文件并原子替换 (压缩)。
+ * </p>
+ * <pre>
+ * 文件: MAGIC(int) 记录*
+ * 记录: type(byte) payload crc32(int)
+ *   DEFINE   index(int) id(UTF) start end current(long) colorIndex(int) finished(boolean)
+ *   PROGRESS index(int) current(long)
+ *   END      index(int) end(long)
+ *   FINISH   index(int)
+ * </pre>
+ */
+@Slf4j
+class ProgressJournal implements Closeable {
+    private static final int MAGIC = 0x444C4A31; // "DLJ1"
+    private static final byte DEFINE = 1;
+    private static final byte PROGRESS = 2;
+    private static final byte END = 3;
+    private static final byte FINISH = 4;
+
+    private final File file;
+    private final boolean sync;
+    private final int compactThreshold;
+    private final Map<String, Entry> entries = new HashMap<>(); // 已写入日志的分片状态
+    private FileChannel channel;
+    private int records; // 当前文件中的记录数
+
+    ProgressJournal(File file, boolean sync, int compactThreshold) {
+        this.file = file;
+        this.sync = sync;
+        this.compactThreshold = compactThreshold;
+    }
+
+    /**
+     * 追加分片状态相对上次记录的变化，首次调用时先压缩为全量快照
+     *
+     * @param dataSync 读取分片进度之后、写入日志之前调用 (数据文件刷盘)，可为空。
+     *                 进度只统计已写入文件的字节，因此日志记录的进度不会超过已刷盘的数据
+     */
+    void append(Collection<ChunkInfo> chunks, Flushable dataSync) throws IOException {
+        if (channel == null || records >= compactThreshold + entries.size()) {
+            compact(chunks, dataSync);
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        int count = 0;
+        // 先定义新分片，再写缩短的 end：崩溃在中间最多导致区间重叠 (重复下载)，不会遗漏
+        for (ChunkInfo c : chunks) {
+            if (!entries.containsKey(c.getId())) {
+                writeDefine(out, define(c), c);
+                count++;
+            }
+        }
+        for (ChunkInfo c : chunks) {
+            Entry e = entries.get(c.getId());
+            long end = c.getEnd();
+            long current = c.getCurrent().get();
+            if (end != e.end) {
+                writeRecord(out, END, e.index, end);
+                e.end = end;
+                count++;
+            }
+            if (current != e.current) {
+                writeRecord(out, PROGRESS, e.index, current);
+                e.current = current;
+                count++;
+            }
+            if (c.isFinished() && !e.finished) {
+                writeRecord(out, FINISH, e.index, -1);
+                e.finished = true;
+                count++;
+            }
+        }
+        if (count == 0)
+            return;
+        if (dataSync != null)
+            dataSync.flush();
+        write(channel, bytes.toByteArray());
+        records += count;
+    }
+
+    /**
+     * 以当前状态重写日志文件，写入临时文件后原子替换
+     */
+    private void compact(Collection<ChunkInfo> chunks, Flushable dataSync) throws IOException {
+        closeChannel();
+        entries.clear();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        for (ChunkInfo c : chunks) {
+            writeDefine(out, define(c), c);
+        }
+        if (dataSync != null)
+            dataSync.flush();
+
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists())
+            parent.mkdirs();
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            write(ch, bytes.toByteArray());
+            ch.force(true);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        records = chunks.size();
+    }
+
+    private Entry define(ChunkInfo c) {
+        Entry e = new Entry(entries.size(), c.getEnd(), c.getCurrent().get(), c.isFinished());
+        entries.put(c.getId(), e);
+        return e;
+    }
+
+    private void write(FileChannel ch, byte[] data) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        while (bb.hasRemaining()) {
+            ch.write(bb);
+        }
+        if (sync)
+            ch.force(false);
+    }
+
+    private static void writeDefine(DataOutputStream out, Entry e, ChunkInfo c) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream rec = new DataOutputStream(bytes);
+        rec.writeByte(DEFINE);
+        rec.writeInt(e.index);
+        rec.writeUTF(c.getId());
+        rec.writeLong(c.getStart());
+        rec.writeLong(e.end);
+        rec.writeLong(e.current);
+        rec.writeInt(c.getColorIndex());
+        rec.writeBoolean(e.finished);
+        byte[] data = bytes.toByteArray();
+        crc.update(data, 0, data.length);
+        out.write(data);
+        out.writeInt((int) crc.getValue());
+    }
+
+    private static void writeRecord(DataOutputStream out, byte type, int index, long value) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer bb = ByteBuffer.allocate(type == FINISH ? 5 : 13);
+        bb.put(type).putInt(index);
+        if (type != FINISH)
+            bb.putLong(value);
+        crc.update(bb.array(), 0, bb.position());
+        out.write(bb.array(), 0, bb.position());
+        out.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * 回放日志，日志中的分片状态覆盖 chunkMap 中的同名分片
+     *
+     * @return 回放的分片数，日志不存在或无效时返回 0
+     */
+    static int replay(File file, Map<String, ChunkInfo> chunkMap) {
+        if (!file.exists())
+            return 0;
+        CRC32 crc = new CRC32();
+        List<ChunkInfo> defined = new ArrayList<>();
+        int records = 0;
+        try (DataInputStream in = new DataInputStream(
+                new CheckedInputStream(new BufferedInputStream(new FileInputStream(file)), crc))) {
+            if (in.readInt() != MAGIC) {
+                log.warn("进度日志 {} 格式无效，忽略", file);
+                return 0;
+            }
+            while (true) {
+                crc.reset();
+                int type = in.read();
+                if (type < 0)
+                    break;
+                int index = in.readInt();
+                ChunkInfo chunk = null;
+                long value = 0;
+                if (type == DEFINE) {
+                    String id = in.readUTF();
+                    long start = in.readLong();
+                    long end = in.readLong();
+                    long current = in.readLong();
+                    int colorIndex = in.readInt();
+                    chunk = new ChunkInfo(id, start, end, current, colorIndex);
+                    chunk.setFinished(in.readBoolean());
+                } else if (type == PROGRESS || type == END) {
+                    value = in.readLong();
+                } else if (type != FINISH) {
+                    break;
+                }
+                long expected = crc.getValue();
+                if ((int) expected != in.readInt())
+                    break; // 崩溃时写了一半的记录
+
+                if (type == DEFINE) {
+                    if (index != defined.size())
+                        break;
+                    defined.add(chunk);
+                } else {
+                    if (index >= defined.size())
+                        break;
+                    ChunkInfo c = defined.get(index);
+                    if (type == PROGRESS) {
+                        c.getCurrent().set(value);
+                        c.setLastRecordBytes(value);
+                    } else if (type == END) {
+                        c.setEnd(value);
+                    } else {
+                        c.setFinished(true);
+                    }
+                }
+                records++;
+            }
+        } catch (EOFException e) {
+            // 末尾不完整的记录，到此为止
+        } catch (IOException e) {
+            log.warn("读取进度日志 {} 失败", file, e);
+        }
+        for (ChunkInfo c : defined) {
+            chunkMap.put(c.getId(), c);
+        }
+        log.info("回放进度日志 {}: {} 条记录, {} 个分片", file.getName(), records, defined.size());
+        return defined.size();
+    }
+
+    private void closeChannel() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeChannel();
+    }
+
+    /**
+     * 关闭并删除日志 (任务完成或取消)
+     */
+    void delete() {
+        try {
+            closeChannel();
+        } catch (IOException e) {
+            log.warn("关闭进度日志 {} 失败", file, e);
+        }
+        if (file.exists() && !file.delete()) {
+            log.warn("删除进度日志 {} 失败", file);
+        }
+    }
+
+    private static class Entry {
+        final int index;
+        long end;
+        long current;
+        boolean finished;
+
+        Entry(int index, long end, long current, boolean finished) {
+            this.index = index;
+            this.end = end;
+            this.current = current;
+            this.finished = finished;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.downloader.core;
+
+/**
+ * 分片重试策略
+ * <p>
+ * 决定一个分片工作器连续失败多少次后放弃，以及每次失败后等待多久再重试。默认实现为
+ * {@link ExponentialBackoffPolicy}，声明其它 {@code @Primary} 的实现即可替换。
+ * </p>
+ */
+public interface RetryPolicy {
+
+    /**
+     * 单个工作器的最大连续失败次数，达到后分片交回任务
+     */
+    int getMaxAttempts();
+
+    /**
+     * 第 attempt 次失败 (从 1 开始) 后到下次重试的等待时间
+     *
+     * @param error 本次失败的原因，{@link HttpStatusException} 可能带有服务器要求的 Retry-After
+     * @return 等待毫秒数
+     */
+    long delayMillis(int attempt, Exception error);
+}
@@ -0,0 +1,77 @@
+package com.example.downloader.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 令牌桶
+ * <p>
+ * 速率单位为 bytes/s，0 表示不限速。采用预支方式：令牌不足时先扣成负数，
+ * 调用方按欠额睡眠，锁只保护简单的算术运算，不在锁内等待。
+ * </p>
+ */
+public class TokenBucket {
+    private volatile long rate;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+    private final AtomicLong consumed = new AtomicLong(); // 累计消耗，用于统计实际速度
+
+    public TokenBucket(long rate) {
+        this.rate = rate;
+        this.tokens = rate;
+    }
+
+    public long getRate() {
+        return rate;
+    }
+
+    public synchronized void setRate(long rate) {
+        refill();
+        this.rate = rate;
+        tokens = Math.min(tokens, capacity());
+    }
+
+    public long getConsumed() {
+        return consumed.get();
+    }
+
+    /**
+     * 获取 n 个令牌，令牌不足时阻塞
+     */
+    public void acquire(long n) throws InterruptedException {
+        long waitNanos = reserve(n);
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * 预支 n 个令牌但不等待，返回调用方应推迟的纳秒数 (供非阻塞的事件循环使用)
+     */
+    public long reserve(long n) {
+        consumed.addAndGet(n);
+        if (rate <= 0)
+            return 0;
+        synchronized (this) {
+            long r = rate;
+            if (r <= 0)
+                return 0;
+            refill();
+            tokens -= n;
+            return tokens >= 0 ? 0 : (long) (-tokens * 1_000_000_000L / r);
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        if (rate > 0) {
+            tokens = Math.min(capacity(), tokens + (now - lastRefill) * rate / 1_000_000_000.0);
+        }
+        lastRefill = now;
+    }
+
+    // 最多积攒 1 秒的令牌，避免长时间空闲后的突发
+    private double capacity() {
+        return rate;
+    }
+}
@@ -0,0 +1,417 @@
+package com.example.downloader.core;
+
+import com.example.downloader.config.DownloaderProperties;
+import com.example.downloader.model.ChunkInfo;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * 读写分离的写入流水线
+ * <p>
+ * 网络读取方把连续收到的小块数据攒进缓冲池中的大块直接内存缓冲区，第一块只填到 bufferSize 的对齐边界，
+ * 此后每次写入都从对齐位置开始、整块写入；链路较慢时缓冲区等待超过 flushIntervalMs 就提前提交，
+ * 因此写入大小随链路速度自动调整。写入由专用线程完成，同一分片固定由同一线程按顺序写入并推进进度，
+ * 读取线程不再等待磁盘；写入线程每次取出队列中所有等待的缓冲区，同一分片位置相连的缓冲区合并为一次聚集写入，
+ * 磁盘越慢积压越多、单次写入越大。缓冲池有界：磁盘跟不上时读取方拿不到缓冲区，阻塞引擎停止读取 socket，
+ * ASYNC 引擎暂停读取事件，背压最终传到 TCP 窗口。
+ * </p>
+ */
+@Slf4j
+@Component
+public class WritePipeline {
+    private final DownloaderProperties.Io config;
+    private final int bufferSize;
+    private final long flushIntervalNanos;
+    private final BlockingQueue<ByteBuffer> free; // 空闲的直接内存缓冲区
+    private final AtomicInteger allocated = new AtomicInteger(); // 按需分配，不超过 bufferCount
+    private final AtomicInteger overflow = new AtomicInteger(); // 缓冲池用尽时 ASYNC 读取方临时使用的堆缓冲区
+    private final List<Lane> lanes = new ArrayList<>();
+    private final AtomicInteger nextLane = new AtomicInteger();
+
+    public WritePipeline(DownloaderProperties properties) {
+        this.config = properties.getIo();
+        this.bufferSize = Math.max(4096, config.getBufferSize());
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(config.getFlushIntervalMs());
+        this.free = new ArrayBlockingQueue<>(Math.max(1, config.getBufferCount()));
+        if (config.isPipeline()) {
+            for (int i = 0; i < Math.max(1, config.getWriterThreads()); i++) {
+                lanes.add(new Lane(i + 1));
+            }
+            log.info("写入流水线已启动，写入线程数: {}, 缓冲区: {} x {} KB", lanes.size(), config.getBufferCount(),
+                    bufferSize / 1024);
+        }
+    }
+
+    /**
+     * 为分片工作器创建写入端
+     *
+     * @param ranged   Range 下载：超出分片 end (可能被重分配缩短) 的数据丢弃
+     * @param blocking 读取方可以阻塞等待缓冲区 (BLOCKING 引擎)；ASYNC 引擎不能阻塞事件循环
+     */
+    public ChunkSink open(ChunkInfo chunk, ChunkFileWriter writer, boolean ranged, boolean blocking) {
+        if (lanes.isEmpty())
+            return new DirectSink(chunk, writer);
+        Lane lane = lanes.get(Math.floorMod(nextLane.getAndIncrement(), lanes.size()));
+        return new PipelinedSink(chunk, writer, ranged, blocking, lane);
+    }
+
+    /**
+     * 读取方正在填充或等待写入的缓冲区数
+     */
+    public int buffersInUse() {
+        return allocated.get() - free.size() + overflow.get();
+    }
+
+    /**
+     * 等待写入线程处理的缓冲区数
+     */
+    public int queuedWrites() {
+        int n = 0;
+        for (Lane lane : lanes) {
+            n += lane.queue.size();
+        }
+        return n;
+    }
+
+    private ByteBuffer poll() {
+        ByteBuffer buf = free.poll();
+        if (buf != null)
+            return buf;
+        int n = allocated.get();
+        while (n < config.getBufferCount()) {
+            if (allocated.compareAndSet(n, n + 1))
+                return ByteBuffer.allocateDirect(bufferSize);
+            n = allocated.get();
+        }
+        return null;
+    }
+
+    private boolean exhausted() {
+        return free.isEmpty() && allocated.get() >= config.getBufferCount();
+    }
+
+    private void release(ByteBuffer buf) {
+        // 缓冲池用尽时临时分配的堆缓冲区不归还
+        if (buf.isDirect()) {
+            buf.clear();
+            free.offer(buf);
+        } else {
+            overflow.decrementAndGet();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (Lane lane : lanes) {
+            lane.thread.interrupt();
+        }
+    }
+
+    /**
+     * 写入线程及其队列
+     */
+    private static class Lane {
+        private static final int MAX_BATCH = 64; // 每次最多取出的缓冲区数 (IOV_MAX 以内)
+
+        final BlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>(); // 长度受缓冲池大小限制
+        final Thread thread;
+
+        Lane(int index) {
+            thread = new Thread(this::run, "chunk-writer-" + index);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void run() {
+            List<PendingWrite> batch = new ArrayList<>(MAX_BATCH);
+            Map<PipelinedSink, List<PendingWrite>> bySink = new LinkedHashMap<>();
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    batch.add(queue.take());
+                } catch (InterruptedException e) {
+                    return;
+                }
+                queue.drainTo(batch, MAX_BATCH - 1);
+                // 按分片分组 (分片内保持提交顺序)，位置相连的缓冲区合并写入
+                for (PendingWrite w : batch) {
+                    bySink.computeIfAbsent(w.sink, k -> new ArrayList<>()).add(w);
+                }
+                for (Map.Entry<PipelinedSink, List<PendingWrite>> e : bySink.entrySet()) {
+                    List<PendingWrite> writes = e.getValue();
+                    int from = 0;
+                    for (int i = 1; i <= writes.size(); i++) {
+                        if (i == writes.size() || writes.get(i).position != writes.get(i - 1).end()) {
+                            e.getKey().complete(writes.subList(from, i));
+                            from = i;
+                        }
+                    }
+                }
+                bySink.clear();
+                batch.clear();
+            }
+        }
+    }
+
+    private static class PendingWrite {
+        final PipelinedSink sink;
+        final ByteBuffer buffer;
+        final long position;
+
+        PendingWrite(PipelinedSink sink, ByteBuffer buffer, long position) {
+            this.sink = sink;
+            this.buffer = buffer;
+            this.position = position;
+        }
+
+        long end() {
+            return position + buffer.remaining();
+        }
+    }
+
+    /**
+     * 流水线关闭时在读取线程上直接写入
+     */
+    private static class DirectSink implements ChunkSink {
+        private final ChunkInfo chunk;
+        private final ChunkFileWriter writer;
+        private long position;
+
+        DirectSink(ChunkInfo chunk, ChunkFileWriter writer) {
+            this.chunk = chunk;
+            this.writer = writer;
+        }
+
+        @Override
+        public void begin(long position) {
+            this.position = position;
+        }
+
+        @Override
+        public long position() {
+            return position;
+        }
+
+        @Override
+        public void write(ByteBuffer src) throws IOException {
+            int len = src.remaining();
+            // 分片之间不重叠，按绝对位置写入即可，无需全局锁
+            writer.write(src, position);
+            chunk.getCurrent().addAndGet(len);
+            position += len;
+        }
+
+        @Override
+        public boolean isSaturated() {
+            return false;
+        }
+
+        @Override
+        public void drain() {
+        }
+
+        @Override
+        public void drainAsync(Consumer<IOException> then) {
+            then.accept(null);
+        }
+    }
+
+    private class PipelinedSink implements ChunkSink {
+        private final ChunkInfo chunk;
+        private final ChunkFileWriter writer;
+        private final boolean ranged;
+        private final boolean blocking;
+        private final Lane lane;
+        private final AtomicInteger pending = new AtomicInteger(); // 已提交未写完的缓冲区数
+        private final AtomicReference<Consumer<IOException>> onDrained = new AtomicReference<>();
+        private volatile IOException error;
+
+        // 以下只由读取方访问
+        private long position;
+        private ByteBuffer fill; // 正在填充的缓冲区
+        private long fillPosition;
+        private long fillStarted;
+
+        PipelinedSink(ChunkInfo chunk, ChunkFileWriter writer, boolean ranged, boolean blocking, Lane lane) {
+            this.chunk = chunk;
+            this.writer = writer;
+            this.ranged = ranged;
+            this.blocking = blocking;
+            this.lane = lane;
+        }
+
+        @Override
+        public void begin(long position) {
+            this.position = position;
+            this.error = null;
+        }
+
+        @Override
+        public long position() {
+            return position;
+        }
+
+        @Override
+        public void write(ByteBuffer src) throws IOException {
+            IOException e = error;
+            if (e != null)
+                throw e;
+            while (src.hasRemaining()) {
+                if (fill == null) {
+                    fill = acquire(src.remaining());
+                    // 只填到下一个对齐边界，之后的缓冲区都从 bufferSize 的整数倍位置开始
+                    fill.limit((int) Math.min(fill.capacity(), bufferSize - position % bufferSize));
+                    fillPosition = position;
+                    fillStarted = System.nanoTime();
+                }
+                int n = Math.min(src.remaining(), fill.remaining());
+                ByteBuffer part = src.duplicate();
+                part.limit(part.position() + n);
+                fill.put(part);
+                src.position(src.position() + n);
+                position += n;
+                if (!fill.hasRemaining())
+                    submit();
+            }
+            // 慢速链路上不等缓冲区写满，限制数据停留在内存中的时间。
+            // 缓冲池用尽时非阻塞读取方随后暂停读取，不能持有缓冲区等待，否则缓冲区全部停在暂停的传输中，无法恢复
+            if (fill != null && (System.nanoTime() - fillStarted >= flushIntervalNanos || (!blocking && exhausted())))
+                submit();
+        }
+
+        private ByteBuffer acquire(int needed) throws IOException {
+            ByteBuffer buf = poll();
+            if (buf != null)
+                return buf;
+            if (!blocking) {
+                // 不能阻塞事件循环，已读出的数据也不能丢：只为本次读到的数据临时分配堆缓冲区并立即提交，
+                // 读取方随后看到 isSaturated 暂停读取，直到缓冲池有空闲。每个传输最多占用一次读取的大小
+                overflow.incrementAndGet();
+                return ByteBuffer.allocate(Math.min(needed, bufferSize));
+            }
+            try {
+                while ((buf = free.poll(100, TimeUnit.MILLISECONDS)) == null) {
+                    buf = poll();
+                    if (buf != null)
+                        break;
+                }
+                return buf;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("等待写入缓冲区被中断");
+            }
+        }
+
+        private void submit() {
+            ByteBuffer buf = fill;
+            fill = null;
+            buf.flip();
+            pending.incrementAndGet();
+            lane.queue.add(new PendingWrite(this, buf, fillPosition));
+        }
+
+        private void submitPartial() {
+            if (fill != null && fill.position() > 0) {
+                submit();
+            } else if (fill != null) {
+                release(fill);
+                fill = null;
+            }
+        }
+
+        /**
+         * 写入线程上执行：writes 为本分片位置相连的若干缓冲区，合并为一次聚集写入
+         */
+        void complete(List<PendingWrite> writes) {
+            try {
+                if (error == null) {
+                    ByteBuffer[] bufs = new ByteBuffer[writes.size()];
+                    long at = writes.get(0).position;
+                    // 提交后分片可能被重分配缩短，超出部分属于新分片
+                    long room = ranged ? chunk.getEnd() + 1 - at : Long.MAX_VALUE;
+                    long len = 0;
+                    for (int i = 0; i < bufs.length; i++) {
+                        ByteBuffer buf = writes.get(i).buffer;
+                        if (room < buf.remaining())
+                            buf.limit(buf.position() + (int) Math.max(room, 0));
+                        room -= buf.remaining();
+                        len += buf.remaining();
+                        bufs[i] = buf;
+                    }
+                    if (len > 0) {
+                        if (bufs.length == 1)
+                            writer.write(bufs[0], at);
+                        else
+                            writer.write(bufs, at);
+                        chunk.getCurrent().addAndGet(len);
+                    }
+                }
+            } catch (IOException e) {
+                error = e;
+            } catch (RuntimeException e) {
+                error = new IOException(e);
+            } finally {
+                for (PendingWrite w : writes) {
+                    release(w.buffer);
+                }
+                if (pending.addAndGet(-writes.size()) == 0) {
+                    synchronized (this) {
+                        notifyAll();
+                    }
+                    Consumer<IOException> then = onDrained.getAndSet(null);
+                    if (then != null)
+                        then.accept(error);
+                }
+            }
+        }
+
+        @Override
+        public boolean isSaturated() {
+            return exhausted();
+        }
+
+        @Override
+        public void drain() throws IOException {
+            submitPartial();
+            synchronized (this) {
+                while (pending.get() > 0) {
+                    try {
+                        wait(100);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("等待写入完成被中断");
+                    }
+                }
+            }
+            IOException e = error;
+            if (e != null)
+                throw e;
+        }
+
+        @Override
+        public void drainAsync(Consumer<IOException> then) {
+            submitPartial();
+            onDrained.set(then);
+            if (pending.get() == 0) {
+                Consumer<IOException> callback = onDrained.getAndSet(null);
+                if (callback != null)
+                    callback.accept(error);
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.downloader.entity;
+
+import lombok.Data;
+import javax.persistence.*;
+import java.io.Serializable;
+
+/**
+ * 块校验值
+ * <p>
+ * 文件按固定大小切块，每块一行保存下载时计算的 SHA-256，用于续传校验和整文件哈希树
+ * </p>
+ */
+@Entity
+@Data
+@IdClass(BlockHash.Key.class)
+@Table(name = "download_blocks", indexes = @Index(name = "idx_blocks_task", columnList = "taskId"))
+public class BlockHash {
+    @Id
+    private String taskId;
+    @Id
+    private int blockIndex; // 块序号，块起点 = blockIndex * 块大小
+
+    @Column(length = 64)
+    private String hash; // SHA-256 十六进制
+
+    @Data
+    public static class Key implements Serializable {
+        private String taskId;
+        private int blockIndex;
+    }
+}
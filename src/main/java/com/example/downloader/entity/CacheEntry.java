@@ -0,0 +1,37 @@
+package com.example.downloader.entity;
+
+import lombok.Data;
+
+import javax.persistence.*;
+
+/**
+ * 下载缓存对象
+ * <p>
+ * 每行对应缓存目录中的一个文件，可按地址和校验信息 (urlKey)、整文件 SHA-256 或哈希树根查找，
+ * 命中的任务直接链接或复制该文件而不再下载
+ * </p>
+ */
+@Entity
+@Data
+@Table(name = "download_cache", indexes = { @Index(name = "idx_cache_url", columnList = "urlKey"),
+        @Index(name = "idx_cache_sha256", columnList = "sha256"), @Index(name = "idx_cache_tree", columnList = "treeHash"),
+        @Index(name = "idx_cache_access", columnList = "lastAccess") })
+public class CacheEntry {
+    @Id
+    private String id; // 缓存目录中的文件名
+
+    @Column(length = 64)
+    private String urlKey; // SHA-256(地址 + ETag 或 Last-Modified + 大小)，源站没有可靠的校验信息时为空
+    @Column(length = 64)
+    private String sha256; // 整文件 SHA-256 十六进制，下载时未计算则为空
+    @Column(length = 64)
+    private String treeHash; // 哈希树根，与 blockSize 一起使用
+    private Integer blockSize;
+
+    @Column(length = 2048)
+    private String url; // 最近一次加入缓存的地址，仅用于展示
+    private String fileName;
+    private long size;
+    private long modifiedTime; // 加入缓存时文件的修改时间，变化说明文件被原地修改 (硬链接共享内容)，缓存失效
+    private long lastAccess; // LRU 淘汰依据
+}
@@ -0,0 +1,34 @@
+package com.example.downloader.entity;
+
+import lombok.Data;
+import javax.persistence.*;
+import java.io.Serializable;
+
+/**
+ * 分片进度
+ * <p>
+ * 每个分片一行，按 (taskId, chunkId) 定位，只有进度变化的分片才会被写入
+ * </p>
+ */
+@Entity
+@Data
+@IdClass(ChunkRecord.Key.class)
+@Table(name = "download_chunks", indexes = @Index(name = "idx_chunks_task", columnList = "taskId"))
+public class ChunkRecord {
+    @Id
+    private String taskId;
+    @Id
+    private String chunkId;
+
+    private long startPos; // 起始字节位置
+    private long endPos; // 结束字节位置 (闭区间)
+    private long currentPos; // 当前已下载位置 (绝对位置)
+    private int colorIndex;
+    private boolean finished;
+
+    @Data
+    public static class Key implements Serializable {
+        private String taskId;
+        private String chunkId;
+    }
+}
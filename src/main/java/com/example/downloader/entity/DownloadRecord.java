@@ -6,7 +6,8 @@ import java.util.Date;
 
 @Entity
 @Data
-@Table(name = "download_records")
+@Table(name = "download_records", indexes = { @Index(name = "idx_records_created", columnList = "createdTime, id"),
+        @Index(name = "idx_records_status", columnList = "status") })
 public class DownloadRecord {
     @Id
     private String id; // UUID
@@ -25,13 +26,35 @@ public class DownloadRecord {
     private Boolean supportRange = true;
 
     @Column(length = 10000)
-    private String chunksJson; // 存储chunk信息的JSON字符串
+    private String chunksJson; // 旧版本的chunk信息JSON，仅用于迁移，新进度保存在 download_chunks 表
 
     // 代理设置
     private String proxyType; // "HTTP", "SOCKS", or null
     private String proxyHost;
     private Integer proxyPort;
 
+    private Integer priority; // 调度优先级，越大越先执行
+
+    private String engine; // 分片下载引擎 (BLOCKING/ASYNC)，为空时使用全局配置
+
+    private Integer threads; // 创建时指定的连接数，0 表示自适应，为空 (旧数据) 按 8
+
+    private String expectedChecksum; // 创建时指定的期望校验值 (sha256:hex 或 sha256-tree:hex)
+    private String checksum; // 下载完成时计算的整文件校验值 (sha256:hex)，未计算时为空
+    private String treeHash; // 下载完成时由块哈希得到的哈希树根
+    private Integer blockSize; // 块哈希的块大小，首次计算时写入，增量修复时按清单更新
+
+    @Column(length = 8192)
+    private String mirrors; // 与 url 内容相同的镜像地址，换行分隔，创建时已校验
+
+    // 主地址的校验信息，用于比对镜像和续传
+    private String etag;
+    private String lastModified;
+
+    // 保存分片进度时同步更新，列表页无需读取分片
+    private Long downloadedBytes;
+    private Integer chunkCount;
+
     // 用于UI展示的简单字段
     @Transient
     private long downloadedSize;
@@ -150,4 +173,100 @@ public class DownloadRecord {
     public void setProxyPort(Integer proxyPort) {
         this.proxyPort = proxyPort;
     }
-}
\ No newline at end of file
+
+    public Integer getPriority() {
+        return priority;
+    }
+
+    public void setPriority(Integer priority) {
+        this.priority = priority;
+    }
+
+    public String getEngine() {
+        return engine;
+    }
+
+    public void setEngine(String engine) {
+        this.engine = engine;
+    }
+
+    public String getExpectedChecksum() {
+        return expectedChecksum;
+    }
+
+    public void setExpectedChecksum(String expectedChecksum) {
+        this.expectedChecksum = expectedChecksum;
+    }
+
+    public String getChecksum() {
+        return checksum;
+    }
+
+    public void setChecksum(String checksum) {
+        this.checksum = checksum;
+    }
+
+    public String getTreeHash() {
+        return treeHash;
+    }
+
+    public void setTreeHash(String treeHash) {
+        this.treeHash = treeHash;
+    }
+
+    public Integer getBlockSize() {
+        return blockSize;
+    }
+
+    public void setBlockSize(Integer blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    public Integer getThreads() {
+        return threads;
+    }
+
+    public void setThreads(Integer threads) {
+        this.threads = threads;
+    }
+
+    public Long getDownloadedBytes() {
+        return downloadedBytes;
+    }
+
+    public void setDownloadedBytes(Long downloadedBytes) {
+        this.downloadedBytes = downloadedBytes;
+    }
+
+    public Integer getChunkCount() {
+        return chunkCount;
+    }
+
+    public void setChunkCount(Integer chunkCount) {
+        this.chunkCount = chunkCount;
+    }
+
+    public String getMirrors() {
+        return mirrors;
+    }
+
+    public void setMirrors(String mirrors) {
+        this.mirrors = mirrors;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public void setEtag(String etag) {
+        this.etag = etag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(String lastModified) {
+        this.lastModified = lastModified;
+    }
+}
@@ -14,12 +14,15 @@ import java.util.concurrent.atomic.AtomicLong;
 public class ChunkInfo {
     private String id; // 分片唯一ID
     private long start; // 起始字节位置
-    private long end; // 结束字节位置
+    private volatile long end; // 结束字节位置 (闭区间，可被重分配缩短)
     @JsonIgnore
     private AtomicLong current; // 当前已下载位置(绝对位置)
     private volatile long speed;// 当前速度 (bytes/s)
-    private volatile int errorCount; // 错误次数
+    private volatile int errorCount; // 当前工作器的连续错误次数
+    private volatile int rounds; // 重试用尽后交回任务的次数
     private volatile boolean finished; // 是否完成
+    private volatile String sourceUrl; // 多镜像下载时分配的镜像，为空使用任务 URL
+    private volatile int httpStatus; // 最近一次错误响应的状态码，监控线程读取后清零
 
     // V1.0.1 新增: 线程颜色索引 (0-31) 用于前端着色
     private int colorIndex;
@@ -8,6 +8,7 @@ package com.example.downloader.model;
  */
 public enum DownloadStatus {
     IDLE,       // 空闲
+    QUEUED,     // 排队中（等待调度器分配执行名额）
     PREPARING,  // 准备中（连接文件）
     DOWNLOADING,// 下载中
     PAUSED,     // 暂停
@@ -0,0 +1,9 @@
+package com.example.downloader.model;
+
+/**
+ * 分片下载引擎
+ */
+public enum EngineMode {
+    BLOCKING, // 每个分片占用一个共享线程池线程，阻塞读取
+    ASYNC // 基于 NIO 事件循环，少量 IO 线程承载所有分片连接
+}
@@ -0,0 +1,13 @@
+package com.example.downloader.model;
+
+/**
+ * 磁盘写入策略
+ * <p>
+ * 用于对比不同写入路径的锁竞争与吞吐
+ * </p>
+ */
+public enum WriteMode {
+    LOCKED,  // 旧实现：全局锁 + RandomAccessFile seek/write
+    CHANNEL, // 共享 FileChannel 定位写入，无全局锁
+    MMAP;    // 分段内存映射写入，仅用于已知大小的文件
+}
@@ -0,0 +1,16 @@
+package com.example.downloader.repo;
+
+import com.example.downloader.entity.BlockHash;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+public interface BlockHashRepository extends JpaRepository<BlockHash, BlockHash.Key>, BlockHashRepositoryCustom {
+    List<BlockHash> findByTaskId(String taskId);
+
+    @Modifying
+    @Transactional
+    void deleteByTaskId(String taskId);
+}
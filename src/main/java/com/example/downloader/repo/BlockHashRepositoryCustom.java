@@ -0,0 +1,12 @@
+package com.example.downloader.repo;
+
+import java.util.Map;
+
+public interface BlockHashRepositoryCustom {
+    /**
+     * 批量插入或覆盖一个任务的块校验值
+     *
+     * @param hashes 块序号 -> SHA-256 十六进制
+     */
+    void upsertAll(String taskId, Map<Integer, String> hashes);
+}
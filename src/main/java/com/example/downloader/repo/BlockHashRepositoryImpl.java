@@ -0,0 +1,34 @@
+package com.example.downloader.repo;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 块校验值批量写入，与分片进度一样使用 SQLite UPSERT 批处理
+ */
+public class BlockHashRepositoryImpl implements BlockHashRepositoryCustom {
+    private static final String UPSERT_SQL = "INSERT INTO download_blocks (task_id, block_index, hash) VALUES (?, ?, ?) "
+            + "ON CONFLICT (task_id, block_index) DO UPDATE SET hash = excluded.hash";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public BlockHashRepositoryImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    @Transactional
+    public void upsertAll(String taskId, Map<Integer, String> hashes) {
+        if (hashes.isEmpty())
+            return;
+        List<Object[]> args = new ArrayList<>(hashes.size());
+        for (Map.Entry<Integer, String> e : hashes.entrySet()) {
+            args.add(new Object[] { taskId, e.getKey(), e.getValue() });
+        }
+        jdbcTemplate.batchUpdate(UPSERT_SQL, args);
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.downloader.repo;
+
+import com.example.downloader.entity.CacheEntry;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+
+import java.util.List;
+
+public interface CacheEntryRepository extends JpaRepository<CacheEntry, String> {
+    CacheEntry findFirstByUrlKey(String urlKey);
+
+    CacheEntry findFirstBySha256(String sha256);
+
+    CacheEntry findFirstByTreeHashAndBlockSize(String treeHash, Integer blockSize);
+
+    // LRU 淘汰：每次取最久未使用的一批
+    List<CacheEntry> findTop100ByOrderByLastAccessAsc();
+
+    @Query("select coalesce(sum(e.size), 0) from CacheEntry e")
+    long totalSize();
+}
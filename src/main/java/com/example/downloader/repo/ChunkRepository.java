@@ -0,0 +1,16 @@
+package com.example.downloader.repo;
+
+import com.example.downloader.entity.ChunkRecord;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+public interface ChunkRepository extends JpaRepository<ChunkRecord, ChunkRecord.Key>, ChunkRepositoryCustom {
+    List<ChunkRecord> findByTaskId(String taskId);
+
+    @Modifying
+    @Transactional
+    void deleteByTaskId(String taskId);
+}
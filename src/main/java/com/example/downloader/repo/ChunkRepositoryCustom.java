@@ -0,0 +1,12 @@
+package com.example.downloader.repo;
+
+import com.example.downloader.entity.ChunkRecord;
+
+import java.util.Collection;
+
+public interface ChunkRepositoryCustom {
+    /**
+     * 批量插入或更新分片进度 (一条批处理语句，不逐行查询)
+     */
+    void upsertAll(Collection<ChunkRecord> chunks);
+}
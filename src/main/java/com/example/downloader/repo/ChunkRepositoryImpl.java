@@ -0,0 +1,41 @@
+package com.example.downloader.repo;
+
+import com.example.downloader.entity.ChunkRecord;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 分片进度批量写入
+ * <p>
+ * JPA 的 saveAll 对已存在的实体需要先 SELECT 再 UPDATE，这里直接用 SQLite 的 UPSERT 批量执行
+ * </p>
+ */
+public class ChunkRepositoryImpl implements ChunkRepositoryCustom {
+    private static final String UPSERT_SQL = "INSERT INTO download_chunks "
+            + "(task_id, chunk_id, start_pos, end_pos, current_pos, color_index, finished) VALUES (?, ?, ?, ?, ?, ?, ?) "
+            + "ON CONFLICT (task_id, chunk_id) DO UPDATE SET end_pos = excluded.end_pos, "
+            + "current_pos = excluded.current_pos, finished = excluded.finished";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public ChunkRepositoryImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    @Transactional
+    public void upsertAll(Collection<ChunkRecord> chunks) {
+        if (chunks.isEmpty())
+            return;
+        List<Object[]> args = new ArrayList<>(chunks.size());
+        for (ChunkRecord c : chunks) {
+            args.add(new Object[] { c.getTaskId(), c.getChunkId(), c.getStartPos(), c.getEndPos(), c.getCurrentPos(),
+                    c.getColorIndex(), c.isFinished() });
+        }
+        jdbcTemplate.batchUpdate(UPSERT_SQL, args);
+    }
+}
@@ -4,8 +4,53 @@ import com.example.downloader.entity.DownloadRecord;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
-public interface DownloadRepository extends JpaRepository<DownloadRecord, String> {
-    // 按创建时间倒序查询
-    Page<DownloadRecord> findAllByOrderByCreatedTimeDesc(Pageable pageable);
-}
\ No newline at end of file
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+public interface DownloadRepository extends JpaRepository<DownloadRecord, String>, DownloadRepositoryCustom {
+    // 按创建时间倒序分页查询摘要 (页码分页)
+    Page<RecordSummary> findSummariesByOrderByCreatedTimeDescIdDesc(Pageable pageable);
+
+    // 按创建时间倒序查询第一页摘要 (游标分页)
+    List<RecordSummary> readSummariesByOrderByCreatedTimeDescIdDesc(Pageable pageable);
+
+    // 游标分页：从 (createdTime, id) 之后继续，走 idx_records_created 索引，不需要 OFFSET 扫描
+    @Query("select r.id as id, r.fileName as fileName, r.url as url, r.status as status, r.totalSize as totalSize, "
+            + "r.createdTime as createdTime, r.supportRange as supportRange, r.downloadedBytes as downloadedBytes, "
+            + "r.chunkCount as chunkCount, r.checksum as checksum, r.treeHash as treeHash from DownloadRecord r "
+            + "where r.createdTime < :createdTime or (r.createdTime = :createdTime and r.id < :id) "
+            + "order by r.createdTime desc, r.id desc")
+    List<RecordSummary> findSummariesAfter(@Param("createdTime") Date createdTime, @Param("id") String id,
+            Pageable pageable);
+
+    // 启动恢复：按状态查询，只读取 id、状态和优先级，走 idx_records_status 索引
+    List<TaskStatusView> findByStatusInOrderByCreatedTimeAsc(Collection<String> statuses);
+
+    // 批量创建任务时按地址查找未结束的任务，用于去重
+    List<DownloadRecord> findByUrlInAndStatusIn(Collection<String> urls, Collection<String> statuses);
+
+    // 批量把中断的任务改为排队状态
+    @Modifying
+    @Transactional
+    @Query("update DownloadRecord r set r.status = :status where r.status in :statuses")
+    int updateStatusIn(@Param("statuses") Collection<String> statuses, @Param("status") String status);
+
+    // 只更新状态列，不重写整行
+    @Modifying
+    @Transactional
+    @Query("update DownloadRecord r set r.status = :status where r.id = :id")
+    int updateStatus(@Param("id") String id, @Param("status") String status);
+
+    // 只更新进度列
+    @Modifying
+    @Transactional
+    @Query("update DownloadRecord r set r.downloadedBytes = :downloadedBytes, r.chunkCount = :chunkCount where r.id = :id")
+    int updateProgress(@Param("id") String id, @Param("downloadedBytes") Long downloadedBytes,
+            @Param("chunkCount") Integer chunkCount);
+}
@@ -0,0 +1,12 @@
+package com.example.downloader.repo;
+
+import com.example.downloader.entity.DownloadRecord;
+
+import java.util.Collection;
+
+public interface DownloadRepositoryCustom {
+    /**
+     * 批量插入新任务 (一条批处理语句，不逐行查询是否存在)
+     */
+    void insertAll(Collection<DownloadRecord> records);
+}
@@ -0,0 +1,43 @@
+package com.example.downloader.repo;
+
+import com.example.downloader.entity.DownloadRecord;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 任务批量插入
+ * <p>
+ * 实体 id 由应用生成，JPA 的 saveAll 会把每条记录当作已存在的实体先 SELECT 再 INSERT，批量创建时直接批处理插入
+ * </p>
+ */
+public class DownloadRepositoryImpl implements DownloadRepositoryCustom {
+    private static final String INSERT_SQL = "INSERT INTO download_records "
+            + "(id, url, save_path, file_name, total_size, status, created_time, support_range, proxy_type, proxy_host, "
+            + "proxy_port, priority, engine, threads, expected_checksum, block_size, etag, last_modified) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public DownloadRepositoryImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    @Transactional
+    public void insertAll(Collection<DownloadRecord> records) {
+        if (records.isEmpty())
+            return;
+        List<Object[]> args = new ArrayList<>(records.size());
+        for (DownloadRecord r : records) {
+            args.add(new Object[] { r.getId(), r.getUrl(), r.getSavePath(), r.getFileName(), r.getTotalSize(),
+                    r.getStatus(), r.getCreatedTime(), r.getSupportRange(), r.getProxyType(), r.getProxyHost(),
+                    r.getProxyPort(), r.getPriority(), r.getEngine(), r.getThreads(), r.getExpectedChecksum(),
+                    r.getBlockSize(), r.getEtag(), r.getLastModified() });
+        }
+        jdbcTemplate.batchUpdate(INSERT_SQL, args);
+    }
+}
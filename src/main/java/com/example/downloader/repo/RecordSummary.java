@@ -0,0 +1,30 @@
+package com.example.downloader.repo;
+
+import java.util.Date;
+
+/**
+ * 列表页使用的任务摘要投影，只查询展示需要的列
+ */
+public interface RecordSummary {
+    String getId();
+
+    String getFileName();
+
+    String getUrl();
+
+    String getStatus();
+
+    Long getTotalSize();
+
+    Date getCreatedTime();
+
+    Boolean getSupportRange();
+
+    Long getDownloadedBytes();
+
+    Integer getChunkCount();
+
+    String getChecksum();
+
+    String getTreeHash();
+}
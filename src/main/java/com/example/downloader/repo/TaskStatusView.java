@@ -0,0 +1,12 @@
+package com.example.downloader.repo;
+
+/**
+ * 任务状态投影，启动恢复时只读取调度需要的列
+ */
+public interface TaskStatusView {
+    String getId();
+
+    String getStatus();
+
+    Integer getPriority();
+}
@@ -0,0 +1,263 @@
+package com.example.downloader.service;
+
+import com.example.downloader.config.DownloaderProperties;
+import com.example.downloader.core.ChecksumTracker;
+import com.example.downloader.core.ChunkManager;
+import com.example.downloader.core.DownloadEngine;
+import com.example.downloader.entity.DownloadRecord;
+import com.example.downloader.repo.DownloadRepository;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.InterruptedIOException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * 批量创建任务
+ * <p>
+ * 一次提交成千上万个地址：按地址和保存目录去重 (批次内以及与未结束的已有任务)，在有界的探测线程池中并行探测大小、
+ * Range 支持和文件名，一条批处理语句写入所有记录，再以 QUEUED 状态交给调度器 (Context 在任务轮到执行时才创建)。
+ * 探测过的任务启动时不再探测；探测失败的任务照常创建，启动时重新探测。
+ * </p>
+ */
+@Slf4j
+@Service
+public class BatchSubmitService {
+    private static final List<String> ACTIVE_STATUSES = Arrays.asList("IDLE", "QUEUED", "PREPARING", "DOWNLOADING",
+            "PAUSED");
+    private static final int QUERY_BATCH = 500; // IN 查询每批的地址数
+
+    private final DownloadEngine engine;
+    private final DownloadScheduler scheduler;
+    private final DownloadRepository repository;
+    private final DownloaderProperties properties;
+
+    public BatchSubmitService(DownloadEngine engine, DownloadScheduler scheduler) {
+        this.engine = engine;
+        this.scheduler = scheduler;
+        this.repository = engine.getRepository();
+        this.properties = engine.getProperties();
+    }
+
+    /**
+     * 批次中的一个地址，path 和 checksum 为空时使用批次的设置
+     */
+    @Data
+    public static class Entry {
+        private final String url;
+        private final String path;
+        private final String checksum;
+    }
+
+    /**
+     * 批次内所有任务共用的设置
+     */
+    @Data
+    public static class Options {
+        private String path;
+        private int threads; // 0 为自适应
+        private int priority;
+        private String engine;
+        private String proxyType;
+        private String proxyHost;
+        private Integer proxyPort;
+        private boolean probe = true; // false 时不探测，任务启动时再探测
+    }
+
+    /**
+     * 解析清单：每行 "url [path] [checksum]"，含制表符时按制表符分隔 (路径可含空格)，否则按空白分隔；
+     * 校验值 (sha256:hex 或 sha256-tree:hex) 可以出现在 url 之后的任意一列，空行和 # 开头的行忽略
+     */
+    public static List<Entry> parseManifest(String text) {
+        List<Entry> entries = new ArrayList<>();
+        if (text == null)
+            return entries;
+        for (String line : text.split("\\r?\\n")) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+            String[] columns = line.split(line.indexOf('\t') >= 0 ? "\\s*\\t\\s*" : "\\s+");
+            String path = null;
+            String checksum = null;
+            for (int i = 1; i < columns.length; i++) {
+                if (columns[i].isEmpty())
+                    continue;
+                if (checksum == null && ChecksumTracker.parseExpected(columns[i]) != null)
+                    checksum = columns[i];
+                else if (path == null)
+                    path = columns[i];
+            }
+            entries.add(new Entry(columns[0], path, checksum));
+        }
+        return entries;
+    }
+
+    /**
+     * 创建并排队一批任务
+     *
+     * @return 每个地址的结果 (tasks，与输入顺序一致) 和汇总
+     * @throws IllegalArgumentException 批次为空或超过上限
+     */
+    public Map<String, Object> submit(List<Entry> entries, Options options) throws InterruptedIOException {
+        if (entries.isEmpty())
+            throw new IllegalArgumentException("没有需要创建的任务");
+        int max = properties.getScheduler().getMaxBatchSize();
+        if (entries.size() > max)
+            throw new IllegalArgumentException("单次最多创建 " + max + " 个任务");
+
+        Map<String, String> known = findActive(entries); // 地址 + 目录 -> 任务 id
+        List<DownloadRecord> records = new ArrayList<>();
+        List<Map<String, Object>> results = new ArrayList<>(entries.size());
+        List<DownloadRecord> created = new ArrayList<>(entries.size()); // 与 results 对应，未新建时为空
+        int duplicates = 0;
+        int invalid = 0;
+        Date now = new Date();
+        for (Entry entry : entries) {
+            Map<String, Object> result = new LinkedHashMap<>();
+            String url = entry.getUrl() != null ? entry.getUrl().trim() : "";
+            result.put("url", url);
+            results.add(result);
+            created.add(null);
+            String lower = url.toLowerCase();
+            if (!lower.startsWith("http://") && !lower.startsWith("https://")) {
+                result.put("error", "不支持的地址");
+                invalid++;
+                continue;
+            }
+            String[] checksum = null;
+            if (entry.getChecksum() != null) {
+                checksum = ChecksumTracker.parseExpected(entry.getChecksum());
+                if (checksum == null) {
+                    result.put("error", "不支持的校验值: " + entry.getChecksum());
+                    invalid++;
+                    continue;
+                }
+            }
+            String path = entry.getPath() != null ? entry.getPath() : options.getPath();
+            if (path == null || path.trim().isEmpty()) {
+                result.put("error", "缺少保存目录");
+                invalid++;
+                continue;
+            }
+            String key = url + "\n" + path;
+            String existing = known.get(key);
+            if (existing != null) {
+                result.put("id", existing);
+                result.put("duplicate", true);
+                duplicates++;
+                continue;
+            }
+
+            DownloadRecord record = new DownloadRecord();
+            record.setId(UUID.randomUUID().toString());
+            record.setUrl(url);
+            record.setSavePath(path);
+            record.setCreatedTime(now);
+            record.setStatus("QUEUED");
+            record.setProxyType(options.getProxyType());
+            record.setProxyHost(options.getProxyHost());
+            record.setProxyPort(options.getProxyPort());
+            record.setPriority(options.getPriority());
+            record.setThreads(Math.max(options.getThreads(), 0));
+            record.setEngine(options.getEngine() != null && !options.getEngine().isEmpty()
+                    ? options.getEngine().toUpperCase() : null);
+            record.setExpectedChecksum(checksum != null ? checksum[0] + ":" + checksum[1] : null);
+            records.add(record);
+            known.put(key, record.getId());
+            result.put("id", record.getId());
+            created.set(created.size() - 1, record);
+        }
+
+        int probeFailures = options.isProbe() ? probeAll(records) : 0;
+        repository.insertAll(records);
+        scheduler.submitAll(records);
+        log.info("批量创建任务: 提交 {} 个, 新建 {} 个, 重复 {} 个, 无效 {} 个, 探测失败 {} 个", entries.size(),
+                records.size(), duplicates, invalid, probeFailures);
+
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < results.size(); i++) {
+            Map<String, Object> result = results.get(i);
+            DownloadRecord record = created.get(i);
+            if (record != null) {
+                result.put("fileName", record.getFileName());
+                result.put("totalSize", record.getTotalSize());
+            }
+            if (result.get("id") != null)
+                ids.add((String) result.get("id"));
+        }
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("created", records.size());
+        response.put("duplicates", duplicates);
+        response.put("invalid", invalid);
+        response.put("probeFailures", probeFailures);
+        response.put("ids", ids);
+        response.put("tasks", results);
+        return response;
+    }
+
+    /**
+     * 与批次地址相同且未结束的已有任务
+     */
+    private Map<String, String> findActive(List<Entry> entries) {
+        Set<String> urls = new LinkedHashSet<>();
+        for (Entry entry : entries) {
+            if (entry.getUrl() != null)
+                urls.add(entry.getUrl().trim());
+        }
+        Map<String, String> known = new HashMap<>();
+        List<String> batch = new ArrayList<>(QUERY_BATCH);
+        Iterator<String> it = urls.iterator();
+        while (it.hasNext()) {
+            batch.add(it.next());
+            if (batch.size() == QUERY_BATCH || !it.hasNext()) {
+                for (DownloadRecord r : repository.findByUrlInAndStatusIn(batch, ACTIVE_STATUSES)) {
+                    known.putIfAbsent(r.getUrl() + "\n" + r.getSavePath(), r.getId());
+                }
+                batch.clear();
+            }
+        }
+        return known;
+    }
+
+    /**
+     * 在探测线程池中并行探测，与单个任务启动时的探测相同 (大小、Range、校验信息、文件名和预分配)
+     *
+     * @return 探测失败的任务数
+     */
+    private int probeAll(List<DownloadRecord> records) throws InterruptedIOException {
+        List<Future<?>> futures = new ArrayList<>(records.size());
+        for (DownloadRecord record : records) {
+            futures.add(engine.getProbeExecutor().submit(() -> {
+                new ChunkManager(record, engine.getChunkRepository(), engine.getBlockHashRepository(),
+                        engine.getHttpClientFactory(), properties.getJournal(), properties.getChecksum()).prepare();
+                return null;
+            }));
+        }
+        int failures = 0;
+        for (int i = 0; i < futures.size(); i++) {
+            DownloadRecord record = records.get(i);
+            try {
+                futures.get(i).get();
+            } catch (ExecutionException e) {
+                // 启动时重新探测
+                log.warn("任务 {} 探测失败: {}, URL: {}", record.getId(), e.getCause().toString(), record.getUrl());
+                // 文件名已预留时占位文件是本次新建的，删除后重新探测才能用回同一个名字
+                if (record.getFileName() != null)
+                    new File(record.getSavePath(), record.getFileName()).delete();
+                record.setFileName(null);
+                record.setTotalSize(null);
+                record.setSupportRange(true);
+                failures++;
+            } catch (InterruptedException e) {
+                futures.forEach(f -> f.cancel(true));
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("批量探测被中断");
+            }
+        }
+        return failures;
+    }
+}
@@ -0,0 +1,293 @@
+package com.example.downloader.service;
+
+import com.example.downloader.config.DownloaderProperties;
+import com.example.downloader.core.ChecksumManifest;
+import com.example.downloader.core.ChunkManager;
+import com.example.downloader.core.DownloadEngine;
+import com.example.downloader.core.DownloadTaskContext;
+import com.example.downloader.entity.DownloadRecord;
+import com.example.downloader.model.DownloadStatus;
+import com.example.downloader.repo.TaskStatusView;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 下载任务调度器
+ * <p>
+ * 限制同时下载的任务数，其余任务以 QUEUED 状态按优先级 (高优先) + 提交顺序排队。
+ * 任务暂停、完成、取消或出错时释放名额并启动队首任务。所有任务的分片共用
+ * {@link DownloadEngine} 的有界线程池，积压任务再多线程数也保持不变。
+ * </p>
+ * <p>
+ * 启动恢复的任务只以 id 排队，轮到执行时才从数据库加载记录并创建 Context (恢复分片状态)，
+ * 积压几百个任务时启动不需要一次性加载全部分片，也不会同时发起大量连接。
+ * </p>
+ */
+@Slf4j
+@Service
+public class DownloadScheduler {
+
+    private final DownloadEngine engine;
+    private final int maxActiveTasks;
+
+    // 内存中的任务 Context (排队、运行、暂停、已完成)
+    private final Map<String, DownloadTaskContext> contexts = new ConcurrentHashMap<>();
+    private final PriorityQueue<QueuedTask> queue = new PriorityQueue<>();
+    private final Set<String> running = new HashSet<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    public DownloadScheduler(DownloadEngine engine) {
+        this.engine = engine;
+        this.maxActiveTasks = Math.max(1, engine.getProperties().getScheduler().getMaxActiveTasks());
+    }
+
+    public DownloadTaskContext get(String id) {
+        return contexts.get(id);
+    }
+
+    public Collection<DownloadTaskContext> getContexts() {
+        return contexts.values();
+    }
+
+    /**
+     * 提交新任务进入队列
+     */
+    public DownloadTaskContext submit(DownloadRecord record, int threads) {
+        DownloadTaskContext context = newContext(record, threads);
+        enqueue(context);
+        return context;
+    }
+
+    /**
+     * 启动恢复：把上次中断 (DOWNLOADING) 和排队中 (QUEUED) 的任务按原优先级和创建顺序重新排队，
+     * 只查询 id 和优先级，Context 在任务轮到执行时再创建
+     *
+     * @return 恢复的任务数
+     */
+    public int recover() {
+        List<String> statuses = Arrays.asList("DOWNLOADING", "QUEUED");
+        List<TaskStatusView> tasks = engine.getRepository().findByStatusInOrderByCreatedTimeAsc(statuses);
+        if (tasks.isEmpty())
+            return 0;
+        engine.getRepository().updateStatusIn(statuses, "QUEUED");
+        synchronized (this) {
+            for (TaskStatusView task : tasks) {
+                int priority = task.getPriority() != null ? task.getPriority() : 0;
+                queue.add(new QueuedTask(task.getId(), null, priority, sequence.incrementAndGet()));
+            }
+            log.info("启动恢复 {} 个中断的任务, 运行数上限: {}", tasks.size(), maxActiveTasks);
+        }
+        dispatch();
+        return tasks.size();
+    }
+
+    /**
+     * 批量提交已入库的 QUEUED 任务：与启动恢复一样只记录 id 和优先级，Context 在任务轮到执行时再创建
+     */
+    public void submitAll(List<DownloadRecord> records) {
+        if (records.isEmpty())
+            return;
+        synchronized (this) {
+            for (DownloadRecord record : records) {
+                int priority = record.getPriority() != null ? record.getPriority() : 0;
+                queue.add(new QueuedTask(record.getId(), null, priority, sequence.incrementAndGet()));
+            }
+            log.info("批量提交 {} 个任务, 排队数: {}, 运行数: {}", records.size(), queue.size(), running.size());
+        }
+        dispatch();
+    }
+
+    /**
+     * 恢复任务：内存中有 Context 则直接排队，否则从数据库重建
+     *
+     * @return 是否成功进入队列
+     */
+    public boolean resume(String id) {
+        DownloadTaskContext ctx = contexts.get(id);
+        if (ctx != null) {
+            if (ctx.getStatus() == DownloadStatus.PAUSED || ctx.getStatus() == DownloadStatus.IDLE
+                    || ctx.getStatus() == DownloadStatus.ERROR) {
+                enqueue(ctx);
+                return true;
+            }
+            return false;
+        }
+        if (isQueued(id))
+            return false;
+
+        DownloadRecord record = engine.getRepository().findById(id).orElse(null);
+        // 允许 PAUSED、QUEUED、ERROR (分片重试用尽) 或 DOWNLOADING (服务重启导致的僵尸状态) 恢复
+        if (record == null || !("PAUSED".equals(record.getStatus()) || "QUEUED".equals(record.getStatus())
+                || "ERROR".equals(record.getStatus()) || "DOWNLOADING".equals(record.getStatus()))) {
+            return false;
+        }
+        log.info("恢复下载任务: {}, 原状态: {}", id, record.getStatus());
+        // 按创建时的连接数恢复 (0 为自适应)，旧数据没有记录时按 8
+        enqueue(newContext(record, record.getThreads() != null ? record.getThreads() : 8));
+        return true;
+    }
+
+    /**
+     * 增量修复：按校验清单比较本地文件，只把不一致的块作为未完成分片重新排队下载
+     *
+     * @param manifest 校验清单
+     * @param url      新的下载地址 (文件在新地址重新发布时)，为空使用原地址
+     * @return 需要重新下载的块数
+     * @throws IllegalArgumentException 任务不存在
+     * @throws IllegalStateException    任务正在运行或不支持 Range
+     */
+    public int repair(String id, ChecksumManifest manifest, String url) throws IOException {
+        DownloadTaskContext ctx = contexts.get(id);
+        if (ctx != null && (ctx.getStatus() == DownloadStatus.QUEUED || ctx.getStatus() == DownloadStatus.PREPARING
+                || ctx.getStatus() == DownloadStatus.DOWNLOADING)) {
+            throw new IllegalStateException("任务正在运行，请先暂停");
+        }
+        if (isQueued(id))
+            throw new IllegalStateException("任务正在排队，请先暂停");
+        DownloadRecord record = engine.getRepository().findById(id)
+                .orElseThrow(() -> new IllegalArgumentException("任务不存在: " + id));
+        if (record.getFileName() == null)
+            throw new IllegalStateException("任务尚未开始下载");
+        if (url != null && !url.isEmpty())
+            record.setUrl(url);
+
+        DownloaderProperties properties = engine.getProperties();
+        ChunkManager manager = new ChunkManager(record, engine.getChunkRepository(), engine.getBlockHashRepository(),
+                engine.getHttpClientFactory(), properties.getJournal(), properties.getChecksum());
+        int changed = manager.planRepair(manifest);
+        contexts.remove(id);
+        if (changed == 0) {
+            record.setStatus("FINISHED");
+            engine.getRepository().save(record);
+            return 0;
+        }
+        record.setStatus("PAUSED");
+        engine.getRepository().save(record);
+        enqueue(newContext(record, record.getThreads() != null ? record.getThreads() : 8));
+        return changed;
+    }
+
+    public void pause(String id) {
+        DownloadTaskContext ctx = contexts.get(id);
+        if (ctx == null) {
+            // 尚未创建 Context 的恢复任务：移出队列即可
+            if (removeQueued(id))
+                engine.getRepository().updateStatus(id, "PAUSED");
+            return;
+        }
+        synchronized (this) {
+            queue.removeIf(q -> q.context == ctx);
+        }
+        // 暂停需要等待工作器退出，不能持有调度器锁
+        ctx.pause();
+    }
+
+    public void cancel(String id) {
+        DownloadTaskContext ctx = contexts.remove(id);
+        if (ctx == null) {
+            // 尚未创建 Context 的恢复任务：创建后按正常流程取消，清理分片和日志
+            DownloadRecord record = removeQueued(id) ? engine.getRepository().findById(id).orElse(null) : null;
+            if (record == null)
+                return;
+            new DownloadTaskContext(record, engine, 1, this::onTaskStopped).cancel();
+            return;
+        }
+        synchronized (this) {
+            queue.removeIf(q -> q.context == ctx);
+        }
+        ctx.cancel();
+        onTaskStopped(ctx);
+    }
+
+    private DownloadTaskContext newContext(DownloadRecord record, int threads) {
+        DownloadTaskContext context = new DownloadTaskContext(record, engine, threads, this::onTaskStopped);
+        contexts.put(record.getId(), context);
+        return context;
+    }
+
+    private void enqueue(DownloadTaskContext context) {
+        context.markQueued();
+        synchronized (this) {
+            int priority = context.getRecord().getPriority() != null ? context.getRecord().getPriority() : 0;
+            queue.add(new QueuedTask(context.getTaskId(), context, priority, sequence.incrementAndGet()));
+            log.info("任务 {} 进入队列, 优先级: {}, 排队数: {}, 运行数: {}", context.getTaskId(), priority,
+                    queue.size(), running.size());
+        }
+        dispatch();
+    }
+
+    private synchronized void onTaskStopped(DownloadTaskContext context) {
+        if (running.remove(context.getTaskId())) {
+            log.info("任务 {} 释放执行名额, 状态: {}", context.getTaskId(), context.getStatus());
+        }
+        dispatch();
+    }
+
+    private synchronized void dispatch() {
+        while (running.size() < maxActiveTasks && !queue.isEmpty()) {
+            QueuedTask task = queue.poll();
+            DownloadTaskContext next = task.context != null ? task.context : hydrate(task.id);
+            if (next == null || next.getStatus() != DownloadStatus.QUEUED)
+                continue;
+            running.add(next.getTaskId());
+            next.start();
+        }
+    }
+
+    /**
+     * 为启动恢复的任务创建 Context：加载记录并恢复分片状态
+     */
+    private DownloadTaskContext hydrate(String id) {
+        DownloadRecord record = engine.getRepository().findById(id).orElse(null);
+        if (record == null || !"QUEUED".equals(record.getStatus()))
+            return null; // 排队期间被删除或修改
+        try {
+            DownloadTaskContext context = newContext(record, record.getThreads() != null ? record.getThreads() : 8);
+            context.markQueued();
+            return context;
+        } catch (RuntimeException e) {
+            log.error("任务 {} 恢复失败", id, e);
+            contexts.remove(id);
+            engine.getRepository().updateStatus(id, "ERROR");
+            return null;
+        }
+    }
+
+    private synchronized boolean isQueued(String id) {
+        for (QueuedTask q : queue) {
+            if (q.id.equals(id))
+                return true;
+        }
+        return false;
+    }
+
+    private synchronized boolean removeQueued(String id) {
+        return queue.removeIf(q -> q.id.equals(id));
+    }
+
+    private static class QueuedTask implements Comparable<QueuedTask> {
+        final String id;
+        final DownloadTaskContext context; // 启动恢复的任务在执行前为空
+        final int priority;
+        final long seq;
+
+        QueuedTask(String id, DownloadTaskContext context, int priority, long seq) {
+            this.id = id;
+            this.context = context;
+            this.priority = priority;
+            this.seq = seq;
+        }
+
+        @Override
+        public int compareTo(QueuedTask o) {
+            if (priority != o.priority)
+                return Integer.compare(o.priority, priority); // 优先级高的在前
+            return Long.compare(seq, o.seq); // 同优先级先进先出
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package com.example.downloader.service;
+
+import com.example.downloader.config.DownloaderProperties;
+import com.example.downloader.core.DownloadTaskContext;
+import com.example.downloader.entity.DownloadRecord;
+import com.example.downloader.model.DownloadStatus;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * /file/{id} 文件读取
+ * <p>
+ * 已完成的文件支持单个和多个 Range、If-Range 以及 ETag/Last-Modified 条件请求。
+ * 整个文件或单个 Range 的响应体由 Tomcat sendfile 发送：servlet 只设置响应头和文件区间，容器调用
+ * {@link FileChannel#transferTo} 把文件直接写入 socket，数据不经过 JVM 堆。
+ * 容器不支持 sendfile (如 HTTPS) 和多个 Range 时，仍用 transferTo 写到响应流。
+ * </p>
+ * <p>
+ * 下载中的任务边下边读：已完成分片的区间和未完成分片已写盘的部分直接从文件读取；读到尚未下载的位置时让任务优先下载该位置
+ * ({@link DownloadTaskContext#prioritize})，等待数据写盘，最长等待 waitTimeoutMs 后断开连接，
+ * 客户端可用 Range 从断开处继续。支持单个 Range，大小未知的流式任务从头返回直到下载完成。
+ * </p>
+ */
+@Slf4j
+@Service
+public class FileServingService {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Tomcat sendfile 请求属性 (org.apache.catalina.Globals)
+    private static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private final DownloaderProperties.Serve config;
+
+    public FileServingService(DownloaderProperties properties) {
+        this.config = properties.getServe();
+    }
+
+    /**
+     * 返回已完成的文件
+     */
+    public void serveFile(DownloadRecord record, File file, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        long length = file.length();
+        long lastModified = file.lastModified() / 1000 * 1000; // HTTP 日期精确到秒
+        String etag = "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(length) + "\"";
+        // If-None-Match / If-Modified-Since 返回 304，If-Match / If-Unmodified-Since 不满足时返回 412，并写入 ETag 和 Last-Modified
+        if (new ServletWebRequest(request, response).checkNotModified(etag, lastModified))
+            return;
+
+        response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, contentDisposition(record.getFileName()));
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        boolean head = "HEAD".equals(request.getMethod());
+
+        // If-Range 与当前文件不一致时忽略 Range，返回整个文件
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        List<long[]> ranges = new ArrayList<>();
+        if (rangeHeader != null && length > 0 && ifRangeMatches(request, etag, lastModified)) {
+            try {
+                ranges = resolveRanges(rangeHeader, length);
+            } catch (IllegalArgumentException e) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                response.sendError(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                return;
+            }
+        }
+
+        if (ranges.size() > 1) {
+            sendMultipart(file, length, ranges, head, response);
+            return;
+        }
+        long start = 0;
+        long end = length - 1;
+        if (ranges.size() == 1) {
+            start = ranges.get(0)[0];
+            end = ranges.get(0)[1];
+            response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+        }
+        response.setContentLengthLong(end + 1 - start);
+        if (head || end < start)
+            return;
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))) {
+            // 由容器在 servlet 返回后发送 [start, end] (SENDFILE_END 不包含)
+            request.setAttribute(SENDFILE_FILENAME, file.getCanonicalPath());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end + 1);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            OutputStream out = response.getOutputStream();
+            transfer(channel, start, end + 1 - start, Channels.newChannel(out));
+            out.flush();
+        }
+    }
+
+    /**
+     * 多个 Range：multipart/byteranges，每段之前写入段头
+     */
+    private void sendMultipart(File file, long length, List<long[]> ranges, boolean head, HttpServletResponse response)
+            throws IOException {
+        String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+        List<byte[]> partHeaders = new ArrayList<>();
+        long contentLength = 0;
+        for (long[] r : ranges) {
+            byte[] partHeader = ("\r\n--" + boundary + "\r\n" + HttpHeaders.CONTENT_TYPE + ": "
+                    + MediaType.APPLICATION_OCTET_STREAM_VALUE + "\r\n" + HttpHeaders.CONTENT_RANGE + ": bytes " + r[0]
+                    + "-" + r[1] + "/" + length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(partHeader);
+            contentLength += partHeader.length + r[1] + 1 - r[0];
+        }
+        byte[] trailer = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        contentLength += trailer.length;
+
+        response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLengthLong(contentLength);
+        if (head)
+            return;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            OutputStream out = response.getOutputStream();
+            WritableByteChannel target = Channels.newChannel(out);
+            for (int i = 0; i < ranges.size(); i++) {
+                long[] r = ranges.get(i);
+                out.write(partHeaders.get(i));
+                transfer(channel, r[0], r[1] + 1 - r[0], target);
+            }
+            out.write(trailer);
+            out.flush();
+        }
+    }
+
+    private static void transfer(FileChannel channel, long position, long count, WritableByteChannel target)
+            throws IOException {
+        while (count > 0) {
+            long n = channel.transferTo(position, count, target);
+            if (n <= 0)
+                throw new EOFException("文件在位置 " + position + " 处被截断");
+            position += n;
+            count -= n;
+        }
+    }
+
+    /**
+     * 解析 Range 为 [start, end] 列表
+     *
+     * @throws IllegalArgumentException 格式错误、没有可满足的区间或区间总长超过文件大小 (防止重叠区间放大响应)
+     */
+    private static List<long[]> resolveRanges(String rangeHeader, long length) {
+        List<long[]> result = new ArrayList<>();
+        long total = 0;
+        for (HttpRange range : HttpRange.parseRanges(rangeHeader)) {
+            long start = range.getRangeStart(length);
+            long end = range.getRangeEnd(length);
+            // 不可满足的区间跳过，全部不可满足时返回 416
+            if (start >= length || start > end)
+                continue;
+            result.add(new long[]{start, end});
+            total += end + 1 - start;
+        }
+        if (result.isEmpty() || total > length)
+            throw new IllegalArgumentException("Range 无法满足: " + rangeHeader);
+        return result;
+    }
+
+    /**
+     * If-Range 为强 ETag 时与当前 ETag 比较，为日期时与 Last-Modified 比较；没有 If-Range 时视为一致
+     */
+    private static boolean ifRangeMatches(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null)
+            return true;
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/"))
+            return ifRange.equals(etag);
+        try {
+            return request.getDateHeader(HttpHeaders.IF_RANGE) == lastModified;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static String contentDisposition(String fileName) throws UnsupportedEncodingException {
+        return "attachment; filename=\"" + URLEncoder.encode(fileName, "UTF-8") + "\"";
+    }
+
+    /**
+     * 边下边读：返回下载中的任务文件
+     */
+    public void serve(DownloadTaskContext context, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        DownloadRecord record = context.getRecord();
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        // 新任务需要等探测得到文件名和大小后才能确定响应头
+        if (!awaitPrepared(context)) {
+            response.sendError(context.getStatus().isTerminal() ? HttpStatus.NOT_FOUND.value()
+                    : HttpStatus.SERVICE_UNAVAILABLE.value());
+            return;
+        }
+        long length = record.getTotalSize();
+        long start = 0;
+        long end = length - 1; // 大小未知时为负数，读到下载完成为止
+
+        response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, contentDisposition(record.getFileName()));
+        // 等待超时时只能以断开连接告知客户端内容不完整，因此不复用连接
+        response.setHeader(HttpHeaders.CONNECTION, "close");
+        if (length >= 0) {
+            response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+            if (rangeHeader != null) {
+                try {
+                    List<HttpRange> ranges = HttpRange.parseRanges(rangeHeader);
+                    // 多个 Range 时返回整个文件
+                    if (ranges.size() == 1) {
+                        start = ranges.get(0).getRangeStart(length);
+                        end = ranges.get(0).getRangeEnd(length);
+                        if (start >= length || start > end)
+                            throw new IllegalArgumentException("Range 超出文件大小");
+                        response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+                        response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+                    }
+                } catch (IllegalArgumentException e) {
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                    response.sendError(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                    return;
+                }
+            }
+            response.setContentLengthLong(end + 1 - start);
+        }
+        if ("HEAD".equals(request.getMethod()))
+            return;
+
+        File file = new File(record.getSavePath(), record.getFileName());
+        try {
+            long sent = stream(context, file, start, end, response.getOutputStream());
+            log.debug("任务 {} 边下边读完成: 位置 {}, {} 字节", record.getId(), start, sent);
+        } catch (IOException e) {
+            // 响应头已发出，直接结束响应，连接随之关闭
+            log.info("任务 {} 边下边读中断: {}", record.getId(), e.getMessage());
+        }
+    }
+
+    private boolean awaitPrepared(DownloadTaskContext context) throws IOException {
+        DownloadRecord record = context.getRecord();
+        long deadline = System.currentTimeMillis() + config.getWaitTimeoutMs();
+        while (record.getFileName() == null || record.getTotalSize() == null) {
+            if (context.getStatus().isTerminal() || System.currentTimeMillis() > deadline)
+                return false;
+            sleep();
+        }
+        return true;
+    }
+
+    /**
+     * 从 start 读到 end (包含，负数表示读到下载完成)，缺失的数据等待写盘
+     *
+     * @return 发送的字节数
+     */
+    private long stream(DownloadTaskContext context, File file, long start, long end, OutputStream out)
+            throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        FileChannel channel = null;
+        long pos = start;
+        try {
+            long waitStart = System.currentTimeMillis();
+            while (end < 0 || pos <= end) {
+                long available = context.availableFrom(pos);
+                if (available <= 0) {
+                    DownloadStatus status = context.getStatus();
+                    if (end < 0 && status == DownloadStatus.FINISHED)
+                        break;
+                    if (status == DownloadStatus.CANCELED)
+                        throw new IOException("任务已取消");
+                    if (System.currentTimeMillis() - waitStart > config.getWaitTimeoutMs())
+                        throw new IOException("等待位置 " + pos + " 的数据超时, 任务状态: " + status);
+                    // 等待前先把已读取的部分发给客户端
+                    out.flush();
+                    context.prioritize(pos);
+                    sleep();
+                    continue;
+                }
+                if (channel == null)
+                    channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                int n = (int) Math.min(buffer.length, end < 0 ? available : Math.min(available, end + 1 - pos));
+                ByteBuffer buf = ByteBuffer.wrap(buffer, 0, n);
+                while (buf.hasRemaining()) {
+                    if (channel.read(buf, pos + buf.position()) < 0)
+                        throw new EOFException("文件在位置 " + (pos + buf.position()) + " 处被截断");
+                }
+                out.write(buffer, 0, n);
+                pos += n;
+                waitStart = System.currentTimeMillis();
+            }
+            out.flush();
+        } finally {
+            if (channel != null)
+                channel.close();
+        }
+        return pos - start;
+    }
+
+    private void sleep() throws IOException {
+        try {
+            Thread.sleep(config.getPollIntervalMs());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.downloader.service;
+
+import com.example.downloader.core.DownloadMetrics;
+import com.example.downloader.core.DownloadTaskContext;
+import com.example.downloader.model.ChunkInfo;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 下载进度推送
+ * <p>
+ * 每个任务一个主题 /topic/progress/{id}，只推送相对上一帧有变化的字段和分片，
+ * 没有变化的任务 (已完成、已暂停、排队中) 不发送任何消息。有客户端订阅某个任务时，
+ * 下一帧发送该任务的完整状态。
+ * </p>
+ * <pre>
+ * 帧格式 (字段缺省表示未变化):
+ *   st 状态   v 速度   d 已下载字节   t 总大小   f 文件名
+ *   c  分片数组，以 colorIndex 作为分片在任务内的短键:
+ *      [k, current]                               仅进度变化
+ *      [k, start, end, current, finished(0/1)]    新分片或 end、完成状态变化
+ * </pre>
+ */
+@Slf4j
+@Service
+public class ProgressPublisher {
+    public static final String TOPIC_PREFIX = "/topic/progress/";
+
+    private final DownloadScheduler scheduler;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final DownloadMetrics metrics;
+    private final Map<String, TaskFrame> lastSent = new ConcurrentHashMap<>();
+
+    public ProgressPublisher(DownloadScheduler scheduler, SimpMessagingTemplate messagingTemplate,
+            DownloadMetrics metrics) {
+        this.scheduler = scheduler;
+        this.messagingTemplate = messagingTemplate;
+        this.metrics = metrics;
+    }
+
+    @Scheduled(fixedRate = 800)
+    public void publish() {
+        try {
+            Set<String> live = new HashSet<>();
+            for (DownloadTaskContext ctx : scheduler.getContexts()) {
+                live.add(ctx.getTaskId());
+                long start = System.nanoTime();
+                Map<String, Object> delta = lastSent.computeIfAbsent(ctx.getTaskId(), id -> new TaskFrame()).diff(ctx);
+                if (delta != null) {
+                    // 序列化在 convertAndSend 中完成，与比较一起计入 downloader.progress.push
+                    messagingTemplate.convertAndSend(TOPIC_PREFIX + ctx.getTaskId(), delta);
+                    metrics.recordProgressPush(System.nanoTime() - start);
+                }
+            }
+            lastSent.keySet().retainAll(live);
+        } catch (Exception e) {
+            log.warn("推送下载进度失败", e); // 捕获异常，防止定时任务终止
+        }
+    }
+
+    /**
+     * 新订阅者需要完整状态，丢弃该任务的上一帧记录
+     */
+    @EventListener
+    public void onSubscribe(SessionSubscribeEvent event) {
+        String destination = StompHeaderAccessor.wrap(event.getMessage()).getDestination();
+        if (destination != null && destination.startsWith(TOPIC_PREFIX)) {
+            lastSent.remove(destination.substring(TOPIC_PREFIX.length()));
+        }
+    }
+
+    /**
+     * 某个任务最近一次推送的状态
+     */
+    private static class TaskFrame {
+        private String status;
+        private long speed = -1;
+        private long downloaded = -1;
+        private Long totalSize;
+        private String fileName;
+        private final Map<Integer, long[]> chunks = new HashMap<>(); // colorIndex -> {end, current, finished}
+
+        synchronized Map<String, Object> diff(DownloadTaskContext ctx) {
+            Map<String, Object> frame = new HashMap<>();
+            List<long[]> chunkDeltas = new ArrayList<>();
+            long sum = 0;
+            for (ChunkInfo c : ctx.getChunkMap().values()) {
+                long current = c.getCurrent().get();
+                long end = c.getEnd();
+                long finished = c.isFinished() ? 1 : 0;
+                sum += current - c.getStart();
+                long[] last = chunks.get(c.getColorIndex());
+                if (last == null || last[0] != end || last[2] != finished) {
+                    chunkDeltas.add(new long[] { c.getColorIndex(), c.getStart(), end, current, finished });
+                } else if (last[1] != current) {
+                    chunkDeltas.add(new long[] { c.getColorIndex(), current });
+                } else {
+                    continue;
+                }
+                chunks.put(c.getColorIndex(), new long[] { end, current, finished });
+            }
+
+            String st = ctx.getStatus().name();
+            if (!st.equals(status)) {
+                frame.put("st", st);
+                status = st;
+            }
+            if (ctx.getGlobalSpeed() != speed) {
+                frame.put("v", ctx.getGlobalSpeed());
+                speed = ctx.getGlobalSpeed();
+            }
+            if (sum != downloaded) {
+                frame.put("d", sum);
+                downloaded = sum;
+            }
+            Long total = ctx.getRecord().getTotalSize();
+            if (!Objects.equals(total, totalSize)) {
+                frame.put("t", total);
+                totalSize = total;
+            }
+            String name = ctx.getRecord().getFileName();
+            if (!Objects.equals(name, fileName)) {
+                frame.put("f", name);
+                fileName = name;
+            }
+            if (!chunkDeltas.isEmpty()) {
+                frame.put("c", chunkDeltas);
+            }
+            return frame.isEmpty() ? null : frame;
+        }
+    }
+}
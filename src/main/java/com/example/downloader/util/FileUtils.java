@@ -1,6 +1,7 @@
 package com.example.downloader.util;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URLDecoder;
 
 /**
@@ -49,10 +50,11 @@ public class FileUtils {
     }
 
     /**
-     * 获取不重复的文件名
+     * 获取不重复的文件名，并创建空文件占位
      * <p>
      * 如果文件名已存在，则自动添加序号后缀
      * 例如: test.zip -> test(1).zip -> test(2).zip
+     * 用 createNewFile 原子地占用文件名，并行探测的任务 (批量创建) 不会得到相同的文件名
      * </p>
      *
      * @param savePath 保存目录路径
@@ -61,10 +63,11 @@ public class FileUtils {
      */
     public static String getUniqueFileName(String savePath, String originalUrl) {
         String fileName = extractFileNameFromUrl(originalUrl);
-        File file = new File(savePath, fileName);
-
+        File dir = new File(savePath);
+        if (!dir.exists())
+            dir.mkdirs();
         // 如果文件不存在，直接返回
-        if (!file.exists()) {
+        if (reserve(new File(savePath, fileName))) {
             return fileName;
         }
 
@@ -72,7 +75,6 @@ public class FileUtils {
         String nameBody;
         String extension;
         int dotIndex = fileName.lastIndexOf('.');
-
         if (dotIndex > 0) {
             nameBody = fileName.substring(0, dotIndex);
             extension = fileName.substring(dotIndex);
@@ -85,11 +87,19 @@ public class FileUtils {
         int counter = 1;
         while (true) {
             String newName = nameBody + "(" + counter + ")" + extension;
-            file = new File(savePath, newName);
-            if (!file.exists()) {
+            if (reserve(new File(savePath, newName))) {
                 return newName;
             }
             counter++;
         }
     }
+
+    // 文件不存在时创建；目录不可写时退化为只检查是否存在，由调用方写入时报错
+    private static boolean reserve(File file) {
+        try {
+            return file.createNewFile();
+        } catch (IOException e) {
+            return !file.exists();
+        }
+    }
 }
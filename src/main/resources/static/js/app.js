@@ -17,9 +17,11 @@ createApp({
         const msgCount = ref(0);
         const wsClient = ref(null);
         const reconnectTimer = ref(null);
+        const subscriptions = {}; // taskId -> STOMP 订阅，只订阅当前页的任务
         const form = ref({
             url: 'https://officecdn-microsoft-com.akamaized.net/pr/C1297A47-86C4-4C1F-97FA-950631F94777/MacAutoupdate/Microsoft_Office_16.55.21111400_BusinessPro_Installer.pkg',
             threads: 8,
+            autoThreads: false, // 自适应连接数
             proxyType: '',
             proxyHost: '',
             proxyPort: null
@@ -42,6 +44,54 @@ createApp({
                 tasks.value = res.data.content.map(t => ({ ...t, showGrid: false }));
             }
             totalTasks.value = res.data.totalElements;
+            syncSubscriptions();
+        };
+
+        // 合并进度增量帧 (字段含义见 ProgressPublisher)
+        const applyDelta = (id, m) => {
+            const idx = tasks.value.findIndex(t => t.id === id);
+            if (idx === -1) return;
+            const task = { ...tasks.value[idx] };
+            if (m.st !== undefined) task.status = m.st;
+            if (m.v !== undefined) task.speed = m.v;
+            if (m.d !== undefined) task.downloaded = m.d;
+            if (m.t !== undefined) task.totalSize = m.t;
+            if (m.f !== undefined) task.fileName = m.f;
+            if (m.c) {
+                const chunks = task.chunks ? (Array.isArray(task.chunks) ? [...task.chunks] : Object.values(task.chunks)) : [];
+                m.c.forEach(a => {
+                    const i = chunks.findIndex(c => c.colorIndex === a[0]);
+                    if (a.length === 2) {
+                        if (i !== -1) chunks[i] = { ...chunks[i], current: a[1] };
+                    } else {
+                        const chunk = { colorIndex: a[0], start: a[1], end: a[2], current: a[3], finished: a[4] === 1 };
+                        if (i !== -1) chunks[i] = { ...chunks[i], ...chunk }; else chunks.push(chunk);
+                    }
+                });
+                task.chunks = chunks;
+            }
+            tasks.value[idx] = task;
+        };
+
+        // 按当前列表增减任务主题订阅
+        const syncSubscriptions = () => {
+            const stomp = wsClient.value;
+            if (!stomp || wsStatus.value !== 'connected') return;
+            const visible = new Set(tasks.value.map(t => t.id));
+            Object.keys(subscriptions).forEach(id => {
+                if (!visible.has(id)) {
+                    subscriptions[id].unsubscribe();
+                    delete subscriptions[id];
+                }
+            });
+            visible.forEach(id => {
+                if (!subscriptions[id]) {
+                    subscriptions[id] = stomp.subscribe(`/topic/progress/${id}`, (msg) => {
+                        msgCount.value++;
+                        applyDelta(id, JSON.parse(msg.body));
+                    });
+                }
+            });
         };
 
         const connectWS = () => {
@@ -59,19 +109,8 @@ createApp({
                     wsClient.value = stomp;
                     console.log('WebSocket连接成功');
 
-                    // 订阅进度更新
-                    stomp.subscribe('/topic/progress', (msg) => {
-                        // console.log('WS Recv:', msg.body); // Debug log
-                        msgCount.value++;
-                        const updates = JSON.parse(msg.body);
-                        updates.forEach(u => {
-                            const idx = tasks.value.findIndex(t => t.id === u.id);
-                            if (idx !== -1) {
-                                // 合并数据，保留UI状态
-                                tasks.value[idx] = { ...tasks.value[idx], ...u };
-                            }
-                        });
-                    });
+                    // 重连后旧订阅失效，按任务重新订阅进度主题
+                    Object.keys(subscriptions).forEach(id => delete subscriptions[id]);
 
                     // 连接成功后立即加载任务列表
                     loadTasks();
@@ -99,6 +138,8 @@ createApp({
             if (!form.value.url) return;
             // 确保始终使用固定路径
             const payload = { ...form.value, path: './Temp' };
+            if (payload.autoThreads) payload.threads = 0;
+            delete payload.autoThreads;
             const response = await axios.post(`${baseUrl}/api/download/start`, payload);
             const taskId = response.data;
 
@@ -117,11 +158,24 @@ createApp({
             };
             tasks.value.unshift(tempTask);
             totalTasks.value++;
+            syncSubscriptions();
 
             showCreateDialog.value = false;
             ElMessage.success('任务已创建');
         };
 
+        // 区块视图：列表不带分片详情，展开时按需加载 (运行中的任务由 WS 增量帧补全)
+        const toggleGrid = async (task) => {
+            task.showGrid = !task.showGrid;
+            if (task.showGrid && !task.chunks) {
+                const res = await axios.get(`${baseUrl}/api/download/${task.id}/chunks`);
+                const idx = tasks.value.findIndex(t => t.id === task.id);
+                if (idx !== -1 && !tasks.value[idx].chunks) {
+                    tasks.value[idx] = { ...tasks.value[idx], chunks: res.data };
+                }
+            }
+        };
+
         const downloadToLocal = (task) => {
             // 浏览器直接打开流地址
             window.open(`${baseUrl}/api/download/file/${task.id}`, '_blank');
@@ -229,6 +283,7 @@ createApp({
         const getStatusType = (s) => {
             if (s === 'FINISHED') return 'success';
             if (s === 'DOWNLOADING') return 'primary';
+            if (s === 'QUEUED') return 'warning';
             if (s === 'ERROR') return 'danger';
             return 'info';
         };
@@ -241,7 +296,7 @@ createApp({
         return {
             tasks, totalTasks, showCreateDialog, form, wsStatus, wsError, msgCount,
             createTask, handlePageChange: (p) => { currentPage.value = p; loadTasks(p); },
-            downloadToLocal, copyDownloadLink, confirmDelete, control: async (id, act) => axios.post(`${baseUrl}/api/download/${id}/${act}`),
+            toggleGrid, downloadToLocal, copyDownloadLink, confirmDelete, control: async (id, act) => axios.post(`${baseUrl}/api/download/${id}/${act}`),
             getGridMap, getCellStyle, formatSize, formatPercent, getStatusType
         };
     }